@@ -15,6 +15,7 @@ package io.nats.client;
 
 import io.nats.client.Nats.ConnState;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
  * AbstractConnection is the base interface for all Connection variants.
@@ -74,6 +75,23 @@ public interface AbstractConnection extends AutoCloseable {
      */
     AsyncSubscription subscribe(String subject, String queue, MessageHandler cb);
 
+    /**
+     * Creates an asynchronous subscriber, optionally in a queue group, whose messages are delivered
+     * by tasks submitted to {@code executor} instead of the connection's own delivery threads.
+     * This overrides {@link Options.Builder#deliveryExecutor(Executor)} for this subscription.
+     * Messages of the subscription are delivered in order, by one task at a time.
+     *
+     * @param subject  the subject of interest
+     * @param queue    the name of the queue group, or {@code null}
+     * @param cb       a {@code MessageHandler} object used to process messages received by the
+     *                 {@code Subscription}
+     * @param executor the executor that runs the message handler
+     * @return {@code Subscription}
+     * @throws IllegalArgumentException if {@code executor} is {@code null}
+     */
+    AsyncSubscription subscribe(String subject, String queue, MessageHandler cb,
+                                Executor executor);
+
     /**
      * Creates a {@code AsyncSubscription} with interest in a given subject, assign the callback,
      * and immediately start receiving messages
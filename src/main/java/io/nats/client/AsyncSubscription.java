@@ -39,4 +39,57 @@ public interface AsyncSubscription extends Subscription {
     void setMessageHandler(MessageHandler cb);
 
     MessageHandler getMessageHandler();
+
+    /**
+     * Sets the maximum size of the batches passed to a {@link BatchMessageHandler}. Zero is not
+     * allowed, a negative value means no limit.
+     *
+     * @param msgs  the maximum number of messages in a batch
+     * @param bytes the maximum number of payload bytes in a batch. A single message larger than
+     *              this is delivered on its own.
+     * @throws IllegalArgumentException if either limit is zero
+     */
+    void setBatchLimits(int msgs, int bytes);
+
+    /**
+     * Returns the maximum number of messages passed to a {@link BatchMessageHandler} at once.
+     *
+     * @return the maximum number of messages in a batch
+     */
+    int getBatchMsgsLimit();
+
+    /**
+     * Returns the maximum number of payload bytes passed to a {@link BatchMessageHandler} at
+     * once.
+     *
+     * @return the maximum number of payload bytes in a batch
+     */
+    int getBatchBytesLimit();
+
+    /**
+     * Delivers the messages of this subscription on {@code count} threads instead of one. Each
+     * message goes to the thread chosen by the hash of its key, so messages with the same key are
+     * delivered in order while messages with different keys may be delivered concurrently: the
+     * message handler must be thread safe. The pending limits and the auto-unsubscribe max apply
+     * to the subscription as a whole.
+     *
+     * <p>This can be set once, at any time. Messages delivered before are not reordered.
+     *
+     * @param count       the number of delivery threads
+     * @param partitioner how the key of a message is determined, for instance
+     *                    {@link MessagePartitioner#SUBJECT}
+     * @throws IllegalArgumentException if {@code count} is lower than 1 or {@code partitioner}
+     *                                  is {@code null}
+     * @throws IllegalStateException    if the subscription is closed, already partitioned, or
+     *                                  inline (see {@link InlineMessageHandler})
+     */
+    void setPartitions(int count, MessagePartitioner partitioner);
+
+    /**
+     * Returns the number of delivery threads set by
+     * {@link #setPartitions(int, MessagePartitioner)}.
+     *
+     * @return the number of partitions, or 0 if the subscription is not partitioned
+     */
+    int getPartitionCount();
 }
@@ -13,24 +13,50 @@
 
 package io.nats.client;
 
+import static io.nats.client.Nats.ERR_BAD_SUBSCRIPTION;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /*
  * This is the implementation of the AsyncSubscription interface.
  *
  */
 class AsyncSubscriptionImpl extends SubscriptionImpl implements AsyncSubscription {
 
+    static final int DEFAULT_BATCH_MSGS_LIMIT = 256;
+    static final int DEFAULT_BATCH_BYTES_LIMIT = 1024 * 1024;
+
     MessageHandler    msgHandler;
-    MsgDeliveryWorker dlvWorker;
+    // Batch size for a BatchMessageHandler, guarded by the lock.
+    int batchMsgsLimit = DEFAULT_BATCH_MSGS_LIMIT;
+    int batchBytesLimit = DEFAULT_BATCH_BYTES_LIMIT;
+    // Delivered on the reader thread, see InlineMessageHandler.
+    final boolean inline;
+    // Set when an inline handler call went over budget, until one completes within budget.
+    final AtomicBoolean overBudget = new AtomicBoolean();
+    // Set once by setPartitions, guarded by the lock.
+    PartitionedDelivery partitions;
+    // Written under the lock, see MsgDeliveryPool#migrate.
+    volatile MsgDeliveryWorker dlvWorker;
+    // Set when the pool moves the subscription to another worker, written under the lock.
+    volatile MsgDeliveryWorker migrateTo;
+    // Set once when the subscription is delivered by an Executor, see ExecutorDelivery.
+    ExecutorDelivery executorDelivery;
+    // Time spent delivering the messages of the subscription, written by its delivery worker.
+    volatile long busyNanos;
+    // Sampled by the pool, guarded by the pool.
+    long lastBusyNanos;
+    double utilization;
+    // Set while the subscription is in the inbox of its delivery worker, or has a delivery task.
+    final AtomicBoolean scheduled = new AtomicBoolean();
 
     AsyncSubscriptionImpl(ConnectionImpl nc, String subj, String queue,
                           MessageHandler cb) {
-        this(nc, subj, queue, cb, false);
-    }
-
-    AsyncSubscriptionImpl(ConnectionImpl nc, String subj, String queue,
-                          MessageHandler cb, boolean useMsgDlvPool) {
-        super(nc, subj, queue, DEFAULT_MAX_PENDING_MSGS, DEFAULT_MAX_PENDING_BYTES, useMsgDlvPool);
+        super(nc, subj, queue, DEFAULT_MAX_PENDING_MSGS, DEFAULT_MAX_PENDING_BYTES);
         this.msgHandler = cb;
+        this.inline = (cb instanceof InlineMessageHandler);
     }
 
     @Override
@@ -41,139 +67,218 @@ class AsyncSubscriptionImpl extends SubscriptionImpl implements AsyncSubscriptio
 
     @Override
     public void setMessageHandler(MessageHandler cb) {
-        this.dlvWorkerLock();
+        this.lock();
         this.msgHandler = cb;
-        this.dlvWorkerUnlock();
+        this.unlock();
     }
 
     @Override
     public MessageHandler getMessageHandler() {
-        this.dlvWorkerLock();
+        this.lock();
         MessageHandler mh = msgHandler;
-        this.dlvWorkerUnlock();
+        this.unlock();
         return mh;
     }
 
     @Override
-    public long getDelivered() {
-        this.dlvWorkerLock();
-        try {
-            return super.getDelivered();
-        } finally {
-            this.dlvWorkerUnlock();
+    public void setBatchLimits(int msgs, int bytes) {
+        if (msgs == 0) {
+            throw new IllegalArgumentException("nats: batch message limit cannot be zero");
         }
-    }
-
-    @Override
-    public int getPendingMsgs() {
-        this.dlvWorkerLock();
-        try {
-            return super.getPendingMsgs();
-        } finally {
-            this.dlvWorkerUnlock();
+        if (bytes == 0) {
+            throw new IllegalArgumentException("nats: batch bytes limit cannot be zero");
         }
+        this.lock();
+        this.batchMsgsLimit = msgs;
+        this.batchBytesLimit = bytes;
+        this.unlock();
     }
 
     @Override
-    public int getPendingBytes() {
-        this.dlvWorkerLock();
+    public int getBatchMsgsLimit() {
+        this.lock();
         try {
-            return super.getPendingBytes();
+            return batchMsgsLimit;
         } finally {
-            this.dlvWorkerUnlock();
+            this.unlock();
         }
     }
 
     @Override
-    public int getPendingMsgsMax() {
-        this.dlvWorkerLock();
+    public int getBatchBytesLimit() {
+        this.lock();
         try {
-            return super.getPendingMsgsMax();
+            return batchBytesLimit;
         } finally {
-            this.dlvWorkerUnlock();
+            this.unlock();
         }
     }
 
     @Override
-    public long getPendingBytesMax() {
-        this.dlvWorkerLock();
-        try {
-            return super.getPendingBytesMax();
-        } finally {
-            this.dlvWorkerUnlock();
+    public void setPartitions(int count, MessagePartitioner partitioner) {
+        if (count < 1) {
+            throw new IllegalArgumentException("nats: partition count must be positive");
         }
-    }
-
-    @Override
-    public void setPendingLimits(int msgs, int bytes) {
-        this.dlvWorkerLock();
-        try {
-            super.setPendingLimits(msgs, bytes);
-        } finally {
-            this.dlvWorkerUnlock();
+        if (partitioner == null) {
+            throw new IllegalArgumentException("nats: partitioner cannot be null");
         }
-    }
-
-    @Override
-    public int getPendingMsgsLimit() {
-        this.dlvWorkerLock();
+        this.lock();
         try {
-            return super.getPendingMsgsLimit();
+            if (this.closed) {
+                throw new IllegalStateException(ERR_BAD_SUBSCRIPTION);
+            }
+            if (this.partitions != null) {
+                throw new IllegalStateException("nats: subscription is already partitioned");
+            }
+            if (this.inline) {
+                throw new IllegalStateException("nats: inline subscriptions cannot be partitioned");
+            }
+            PartitionedDelivery pd = new PartitionedDelivery(this, count, partitioner);
+            pd.start(conn.getSubscriptionExecutor());
+            this.partitions = pd;
         } finally {
-            this.dlvWorkerUnlock();
+            this.unlock();
         }
     }
 
     @Override
-    public void clearMaxPending() {
-        this.dlvWorkerLock();
+    public int getPartitionCount() {
+        this.lock();
         try {
-            super.clearMaxPending();
+            return (partitions == null ? 0 : partitions.size());
         } finally {
-            this.dlvWorkerUnlock();
+            this.unlock();
         }
     }
 
     @Override
-    public int getDropped() {
-        this.dlvWorkerLock();
+    void close(boolean connClosed) {
+        MsgDeliveryWorker worker = null;
+        this.lock();
         try {
-            return super.getDropped();
+            if (!this.closed) {
+                worker = this.dlvWorker;
+                if (this.partitions != null) {
+                    this.partitions.close();
+                }
+            }
+            super.close(connClosed);
         } finally {
-            this.dlvWorkerUnlock();
+            this.unlock();
+        }
+        if (worker != null) {
+            worker.unassign(this);
         }
     }
 
-    @Override
-    void setMax(long max) {
-        this.dlvWorkerLock();
+    /*
+     * Delivers the next batch of at most batchSize messages, see MsgDeliveryWorker and
+     * ExecutorDelivery. Returns true if the subscription has more messages to deliver, it is then
+     * left scheduled and it is up to the caller to deliver it again. Otherwise it is unscheduled,
+     * before the batch is delivered if dedicated is set, after it if not. The former is for
+     * callers that are the only thread delivering the subscription, with the latter messages
+     * queued meanwhile cannot start a concurrent delivery of the subscription.
+     */
+    boolean deliverNext(List<Message> batch, int batchSize, boolean dedicated) {
+        final ConnectionImpl nc;
+        final MessageHandler mcb;
+        final long max;
+        final PartitionedDelivery pd;
+        long delivered;
+        boolean more;
+
+        this.lock();
         try {
-            super.setMax(max);
+            final BlockingQueue<Message> mch = getChannel();
+            // If sub is closed, the remaining messages are dropped.
+            if (this.closed || mch == null) {
+                this.scheduled.set(false);
+                return false;
+            }
+            // Capture these under lock
+            nc = this.conn;
+            mcb = this.msgHandler;
+            max = this.max;
+            delivered = this.delivered;
+            pd = this.partitions;
+
+            if (pd != null) {
+                // Only routed, the partitions account for the messages they take.
+                drain(mch, batch, batchSize, 0);
+            } else if (mcb instanceof BatchMessageHandler) {
+                drainPending(batch, this.batchMsgsLimit, this.batchBytesLimit);
+            } else {
+                drainPending(batch, batchSize, 0);
+            }
+            more = !mch.isEmpty() && (max <= 0 || this.delivered < max);
+            if (!more && dedicated) {
+                // Messages queued from now on schedule the subscription again.
+                this.scheduled.set(false);
+            }
         } finally {
-            this.dlvWorkerUnlock();
+            this.unlock();
         }
-    }
 
-    @Override
-    void close(boolean connClosed) {
-        this.dlvWorkerLock();
-        try {
-            super.close(connClosed);
-        } finally {
-            this.dlvWorkerUnlock();
+        if (pd != null) {
+            pd.dispatch(batch);
+        } else if (mcb instanceof BatchMessageHandler) {
+            delivered += batch.size();
+            ConnectionImpl.deliverBatch((BatchMessageHandler) mcb, batch);
+        } else {
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (this.closed) {
+                        // Closed by the callback or another thread, drop the rest of the batch.
+                        batch.clear();
+                        return unschedule(dedicated);
+                    }
+                    final Message msg = batch.get(i);
+                    delivered++;
+                    try {
+                        mcb.onMessage(msg);
+                    } catch (Throwable t) {
+                        // Ignore any exception thrown in the user callback.
+                    }
+                    // Copy the payload out of the read buffer if the handler didn't release it.
+                    msg.detach();
+                }
+            } finally {
+                batch.clear();
+            }
         }
-    }
 
-    private void dlvWorkerLock() {
-        if (this.dlvWorker != null) {
-            this.dlvWorker.lock();
+        if (pd == null && (max > 0) && (delivered >= max)) {
+            // If we have hit the max for delivered msgs, remove sub.
+            nc.mu.lock();
+            try {
+                nc.removeSub(this);
+            } finally {
+                nc.mu.unlock();
+            }
+            return unschedule(dedicated);
+        }
+        if (!more && !dedicated) {
+            this.lock();
+            try {
+                final BlockingQueue<Message> mch = getChannel();
+                more = !this.closed && mch != null && !mch.isEmpty()
+                        && (this.max <= 0 || this.delivered < this.max);
+                if (!more) {
+                    this.scheduled.set(false);
+                }
+            } finally {
+                this.unlock();
+            }
         }
+        return more;
     }
 
-    private void dlvWorkerUnlock() {
-        if (this.dlvWorker != null) {
-            this.dlvWorker.unlock();
+    // Ends the delivery of a closed subscription.
+    private boolean unschedule(boolean dedicated) {
+        if (!dedicated) {
+            this.scheduled.set(false);
         }
+        return false;
     }
 
     MsgDeliveryWorker getDeliveryWorker() {
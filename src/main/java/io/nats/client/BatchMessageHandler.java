@@ -0,0 +1,37 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.util.List;
+
+/**
+ * A BatchMessageHandler is a {@link MessageHandler} that receives the messages of an asynchronous
+ * subscription in batches. Whenever messages are pending, up to
+ * {@link AsyncSubscription#getBatchMsgsLimit()} messages and
+ * {@link AsyncSubscription#getBatchBytesLimit()} bytes of payload are taken off the pending queue
+ * at once and passed to {@link #onMessages(List)}, in order. A batch always holds at least one
+ * message, and it is never delayed to wait for more.
+ *
+ * <p>{@link #onMessage(Message)} is not called for messages delivered this way.
+ */
+public interface BatchMessageHandler extends MessageHandler {
+
+    /**
+     * Passes the next batch of messages to the handler.
+     *
+     * @param msgs the messages, oldest first. The list itself is reused for the next batch and
+     *             must not be retained after the method returns, the messages may be.
+     */
+    void onMessages(List<Message> msgs);
+}
@@ -0,0 +1,112 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.util.Arrays;
+
+/*
+ * The undelivered messages of a conflating subscription, indexed by subject. Keys are the
+ * subject bytes of the messages themselves, so neither a String nor a key object is created per
+ * lookup. Open addressing with linear probing, removals shift the following entries back instead
+ * of leaving tombstones.
+ *
+ * Not thread safe, guarded by the lock of the subscription like the pending counts.
+ */
+class ConflationTable {
+    private static final int MIN_CAPACITY = 16;
+
+    private Message[] slots = new Message[MIN_CAPACITY];
+    private int size;
+
+    private static int hash(byte[] subject) {
+        int h = Arrays.hashCode(subject);
+        return h ^ (h >>> 16);
+    }
+
+    // Returns the pending message for the subject, or null.
+    Message get(byte[] subject) {
+        final int mask = slots.length - 1;
+        int idx = hash(subject) & mask;
+        Message msg;
+        while ((msg = slots[idx]) != null) {
+            if (Arrays.equals(msg.getSubjectBytes(), subject)) {
+                return msg;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return null;
+    }
+
+    // Adds a message, assumes there is none for its subject.
+    void put(Message msg) {
+        if ((size + 1) * 2 > slots.length) {
+            resize();
+        }
+        insert(slots, msg);
+        size++;
+    }
+
+    private static void insert(Message[] table, Message msg) {
+        final int mask = table.length - 1;
+        int idx = hash(msg.getSubjectBytes()) & mask;
+        while (table[idx] != null) {
+            idx = (idx + 1) & mask;
+        }
+        table[idx] = msg;
+    }
+
+    private void resize() {
+        Message[] table = new Message[slots.length * 2];
+        for (Message msg : slots) {
+            if (msg != null) {
+                insert(table, msg);
+            }
+        }
+        slots = table;
+    }
+
+    // Removes the given message, if present, once it has been taken by the consumer.
+    void remove(Message msg) {
+        final int mask = slots.length - 1;
+        int idx = hash(msg.getSubjectBytes()) & mask;
+        Message cur;
+        while ((cur = slots[idx]) != msg) {
+            if (cur == null) {
+                return;
+            }
+            idx = (idx + 1) & mask;
+        }
+        slots[idx] = null;
+        size--;
+        // Move back the entries of the probe sequence that can no longer be reached.
+        int free = idx;
+        int next = (idx + 1) & mask;
+        while ((cur = slots[next]) != null) {
+            int home = hash(cur.getSubjectBytes()) & mask;
+            boolean reachable = (free <= next)
+                    ? (home > free && home <= next)
+                    : (home > free || home <= next);
+            if (!reachable) {
+                slots[free] = cur;
+                slots[next] = null;
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -14,6 +14,8 @@
 package io.nats.client;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -55,6 +57,35 @@ public interface Connection extends AbstractConnection {
      */
     void publish(String subject, byte[] data) throws IOException;
 
+    /**
+     * Publishes {@code length} bytes of {@code data}, starting at {@code offset}, to the subject
+     * specified by {@code subject}. The payload is written from {@code data} to the connection's
+     * output buffer, there is no need to copy it into an array of its own first.
+     *
+     * @param subject the subject to publish the message to
+     * @param data    the array holding the message payload
+     * @param offset  the offset of the payload in {@code data}
+     * @param length  the length of the payload
+     * @throws IOException               if an I/O error is encountered
+     * @throws IndexOutOfBoundsException if {@code offset} and {@code length} do not describe a
+     *                                   range of {@code data}
+     */
+    void publish(String subject, byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Publishes the remaining bytes of {@code data} to the subject specified by {@code subject},
+     * with an optional reply subject. The payload is written from the buffer to the
+     * connection's output buffer, so a direct or memory-mapped buffer does not have to be copied
+     * into an array first. The position and limit of {@code data} are not changed, and the
+     * buffer can be reused as soon as this method returns.
+     *
+     * @param subject the subject to publish the message to
+     * @param reply   the subject to which subscribers should send responses, or {@code null}
+     * @param data    the message payload, {@code null} for an empty payload
+     * @throws IOException if an I/O error is encountered
+     */
+    void publishBuffer(String subject, String reply, ByteBuffer data) throws IOException;
+
     /**
      * Publishes a message to a subject. The subject is set via {@link Message#setSubject(String)}
      * or the {@link Message#Message(String, String, byte[])} constructor.
@@ -64,6 +95,22 @@ public interface Connection extends AbstractConnection {
      */
     void publish(Message msg) throws IOException;
 
+    /**
+     * Publishes a batch of messages, in order. Subjects and payload sizes are validated for the
+     * whole batch before any message is written, then the messages are encoded into the
+     * connection's output buffer in a single critical section and flushed once. This is much
+     * cheaper than publishing the messages one by one when they come in bursts. Batch sizes are
+     * reported in the connection's {@link Statistics}.
+     *
+     * @param msgs the messages to publish
+     * @throws IOException              if an I/O error is encountered
+     * @throws NullPointerException     if the subject of a message is {@code null}
+     * @throws IllegalArgumentException if the subject of a message is empty, or its payload
+     *                                  exceeds the maximum payload of the server
+     * @throws IllegalStateException    if the connection is closed
+     */
+    void publish(List<Message> msgs) throws IOException;
+
     /**
      * Publishes the payload specified by {@code data} to the subject specified by {@code subject},
      * with an optional reply subject. If {@code reply} is {@code null}, the behavior is identical
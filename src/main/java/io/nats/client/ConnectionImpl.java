@@ -24,6 +24,7 @@ import static io.nats.client.Nats.ERR_BAD_SUBSCRIPTION;
 import static io.nats.client.Nats.ERR_BAD_TIMEOUT;
 import static io.nats.client.Nats.ERR_CONNECTION_CLOSED;
 import static io.nats.client.Nats.ERR_CONNECTION_READ;
+import static io.nats.client.Nats.ERR_INLINE_HANDLER_OVER_BUDGET;
 import static io.nats.client.Nats.ERR_MAX_PAYLOAD;
 import static io.nats.client.Nats.ERR_NO_INFO_RECEIVED;
 import static io.nats.client.Nats.ERR_NO_SERVERS;
@@ -64,6 +65,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -84,7 +86,8 @@ class ConnectionImpl implements Connection {
     private static final int NUID_SIZE = 22;
     private static final int RESP_INBOX_PREFIX_LEN = INBOX_PREFIX.length() + NUID_SIZE + 1;
 
-    private ConnState status = DISCONNECTED;
+    // Volatile for the publishers of a writer thread connection, which do not take mu.
+    private volatile ConnState status = DISCONNECTED;
 
     protected static final String STALE_CONNECTION = "Stale Connection";
 
@@ -161,6 +164,9 @@ class ConnectionImpl implements Connection {
 
     // Prepare protocol messages for efficiency
     private ByteBuffer pubProtoBuf = null;
+    // Chunk for copying payloads out of direct buffers, allocated on first use and guarded by mu
+    private byte[] pubCopyBuf = null;
+    private static final int PUB_COPY_BUF_SIZE = 8192;
 
     // we have a buffered reader for writing, and reading.
     // This is for both performance, and having to work around
@@ -172,15 +178,27 @@ class ConnectionImpl implements Connection {
     private InputStream br = null;
     private ByteArrayOutputStream pending = null;
 
-    private Map<Long, SubscriptionImpl> subs = new ConcurrentHashMap<Long, SubscriptionImpl>();
+    // Read by the readLoop without holding mu, the table itself is safe for concurrent use.
+    private volatile SubscriptionTable subs = new SubscriptionTable();
     private List<Srv> srvPool = null;
     private Map<String, URI> urls = null;
-    private Exception lastEx = null;
+    private volatile Exception lastEx = null;
     private ServerInfo info = null;
     private int pout;
 
     private Parser parser = new Parser(this);
 
+    // Pooled read buffers, only used if zero-copy delivery is enabled in the options.
+    private ReadBufferPool readBufPool = null;
+    // The read buffer being parsed. Only accessed by the readLoop thread.
+    private ReadBuffer readBuf = null;
+    // Buffers for large messages split across reads. Only accessed by the readLoop thread.
+    private SplitBufferPool splitBufPool = null;
+    // Subscriptions with staged messages, and the delivery workers to wake up. Only accessed by
+    // the readLoop thread.
+    private final List<SubscriptionImpl> batchSubs = new ArrayList<SubscriptionImpl>();
+    private final List<MsgDeliveryScheduler> batchWorkers = new ArrayList<MsgDeliveryScheduler>();
+
     private static final byte[] pingProtoBytes = PING_PROTO.getBytes();
     private static final int pingProtoBytesLen = pingProtoBytes.length;
     private static final byte[] pongProtoBytes = PONG_PROTO.getBytes();
@@ -217,6 +235,18 @@ class ConnectionImpl implements Connection {
 
     static final String FLUSHER = "flusher";
 
+    // The outbound ring drained by the writer thread, used instead of the flusher if enabled.
+    private volatile WriteRing writeRing;
+    static final String WRITER = "writer";
+
+    // The watchdog of inline message handlers, started with the first inline subscription
+    private ScheduledFuture<?> inlineWatchdog = null;
+    static final String INLINE_WATCHDOG = "inlinewatchdog";
+    static final long INLINE_WATCHDOG_MIN_PERIOD = TimeUnit.MILLISECONDS.toNanos(10);
+    // The inline handler call in progress on the reader thread, inlineSince is 0 if none.
+    private volatile AsyncSubscriptionImpl inlineSub;
+    private volatile long inlineSince;
+
     private final Map<String, Future<?>> tasks = new HashMap<>();
     private static final int NUM_WATCHER_THREADS = 2;
     private CountDownLatch socketWatchersStartLatch = new CountDownLatch(NUM_WATCHER_THREADS);
@@ -235,6 +265,9 @@ class ConnectionImpl implements Connection {
         this.nc = this;
         this.opts = opts;
         this.stats = new Statistics();
+        if (opts.getSplitBufferPoolCap() > 0) {
+            this.splitBufPool = new SplitBufferPool(opts.getSplitBufferPoolCap(), stats);
+        }
         if (opts.getFactory() != null) {
             tcf = opts.getFactory();
         } else {
@@ -251,6 +284,13 @@ class ConnectionImpl implements Connection {
     }
 
     ExecutorService createSubscriptionScheduler() {
+        if (opts.isUsingVirtualThreadDelivery()) {
+            // Falls back to platform threads before Java 21
+            ExecutorService vexec = VirtualThreads.newExecutor(SUB_EXEC_NAME);
+            if (vexec != null) {
+                return vexec;
+            }
+        }
         return Executors.newCachedThreadPool(new NatsThreadFactory(SUB_EXEC_NAME));
     }
 
@@ -265,6 +305,9 @@ class ConnectionImpl implements Connection {
         fch = createFlushChannel();
         pongs = createPongs();
         subs.clear();
+        if (opts.getReadBufferPoolSize() > 0) {
+            readBufPool = new ReadBufferPool(opts.getReadBufferPoolSize(), DEFAULT_BUF_SIZE);
+        }
 
         // predefine the start of the publish protocol message.
         buildPublishProtocolBuffer(Parser.MAX_CONTROL_LINE_SIZE);
@@ -495,15 +538,17 @@ class ConnectionImpl implements Connection {
 
 
     BlockingQueue<Message> createMsgChannel() {
-        return createMsgChannel(Integer.MAX_VALUE);
+        return createMsgChannel(SubscriptionImpl.DEFAULT_MAX_PENDING_MSGS);
     }
 
+    // The capacity of the channel follows the pending message limit of its subscription, see
+    // SubscriptionImpl#setPendingMsgsLimit.
     BlockingQueue<Message> createMsgChannel(int size) {
         int theSize = size;
         if (theSize <= 0) {
             theSize = 1;
         }
-        return new LinkedBlockingQueue<Message>(theSize);
+        return new SpscMessageQueue(theSize);
     }
 
     BlockingQueue<Boolean> createBooleanChannel() {
@@ -602,10 +647,10 @@ class ConnectionImpl implements Connection {
                     /* NOOP */
                 }
             }
+            closeWriteRing();
 
             // Close sync subscribers and release any pending nextMsg() calls.
-            for (Map.Entry<Long, SubscriptionImpl> entry : subs.entrySet()) {
-                SubscriptionImpl sub = entry.getValue();
+            for (SubscriptionImpl sub : subs.values()) {
                 // Close subscription, indicate that connection is closing.
                 sub.close(true);
             }
@@ -824,6 +869,9 @@ class ConnectionImpl implements Connection {
                     tasks.remove(ptmr);
                 }
 
+                // Publishers fall back to the pending buffer, the writer drains what is queued.
+                closeWriteRing();
+
                 if (this.conn != null) {
                     try {
                         bw.flush();
@@ -1262,6 +1310,7 @@ class ConnectionImpl implements Connection {
     protected void spinUpSocketWatchers() throws InterruptedException {
         // Make sure everything has exited.
 
+        closeWriteRing();
         waitForExits();
 
         socketWatchersDoneLatch = new CountDownLatch(NUM_WATCHER_THREADS);
@@ -1285,23 +1334,49 @@ class ConnectionImpl implements Connection {
         });
         tasks.put(READLOOP, task);
 
-        task = exec.submit(new Runnable() {
-            public void run() {
-                Thread.currentThread().setName(FLUSHER);
-                socketWatchersStartLatch.countDown();
-                try {
-                    socketWatchersStartLatch.await();
-                    flusher();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                } catch (Exception e) {
-                    // Ignore other exceptions
-                } finally {
-                    socketWatchersDoneLatch.countDown();
+        if (opts.isUsingWriterThread()) {
+            // From now on everything written to bw is queued to the writer thread.
+            final WriteRing ring = new WriteRing(opts.getWriteHighWaterMark(), stats);
+            final OutputStream out = bw;
+            bw = ring.getOutputStream();
+            writeRing = ring;
+            task = exec.submit(new Runnable() {
+                public void run() {
+                    Thread.currentThread().setName(WRITER);
+                    socketWatchersStartLatch.countDown();
+                    try {
+                        socketWatchersStartLatch.await();
+                        writer(ring, out);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        // Ignore other exceptions
+                    } finally {
+                        ring.terminate();
+                        socketWatchersDoneLatch.countDown();
+                    }
                 }
-            }
-        });
-        tasks.put(FLUSHER, task);
+            });
+            tasks.put(WRITER, task);
+        } else {
+            task = exec.submit(new Runnable() {
+                public void run() {
+                    Thread.currentThread().setName(FLUSHER);
+                    socketWatchersStartLatch.countDown();
+                    try {
+                        socketWatchersStartLatch.await();
+                        flusher();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        // Ignore other exceptions
+                    } finally {
+                        socketWatchersDoneLatch.countDown();
+                    }
+                }
+            });
+            tasks.put(FLUSHER, task);
+        }
         // resetFlushTimer();
         // socketWatchersDoneLatch.countDown();
 
@@ -1326,8 +1401,10 @@ class ConnectionImpl implements Connection {
             mu.unlock();
         }
 
-        // Stack based buffer.
-        byte[] buffer = new byte[DEFAULT_BUF_SIZE];
+        // Stack based buffer, unless we are using pooled read buffers.
+        final ReadBufferPool pool = this.readBufPool;
+        byte[] buffer = (pool == null ? new byte[DEFAULT_BUF_SIZE] : null);
+        ReadBuffer rb = null;
 
         while (!Thread.currentThread().isInterrupted()) {
             mu.lockInterruptibly();
@@ -1345,17 +1422,29 @@ class ConnectionImpl implements Connection {
                 break;
             }
 
+            if (pool != null) {
+                rb = pool.acquire();
+                buffer = rb.buf;
+            }
             try {
                 len = br.read(buffer);
                 if (len == -1) {
                     throw new IOException(ERR_STALE_CONNECTION);
                 }
+                readBuf = rb;
                 parser.parse(buffer, len);
             } catch (IOException | ParseException e) {
                 if (status != CLOSED) {
                     processOpError(e);
                 }
                 break;
+            } finally {
+                // Messages created from this buffer hold their own reference.
+                readBuf = null;
+                if (rb != null) {
+                    rb.release();
+                    rb = null;
+                }
             }
         }
 
@@ -1369,7 +1458,9 @@ class ConnectionImpl implements Connection {
 
     /**
      * waitForMsgs waits on the conditional shared with readLoop and processMsg. It is used to
-     * deliver messages to asynchronous subscribers.
+     * deliver messages to asynchronous subscribers. If the channel of the subscription is a
+     * {@link SpscMessageQueue}, the thread parks on the queue instead, without holding the
+     * subscription lock.
      *
      * @param sub the asynchronous subscriber
      */
@@ -1380,25 +1471,48 @@ class ConnectionImpl implements Connection {
         Message msg;
         MessageHandler mcb;
         BlockingQueue<Message> mch;
+        final List<Message> batch = new ArrayList<Message>();
+        PartitionedDelivery pd;
 
         while (true) {
             sub.lock();
             try {
                 mch = sub.getChannel();
-                while (mch.size() == 0 && !sub.isClosed()) {
+            } finally {
+                sub.unlock();
+            }
+            if (mch instanceof SpscMessageQueue) {
+                // Returns once a message was queued or the subscription was closed.
+                ((SpscMessageQueue) mch).awaitNotEmpty();
+            }
+
+            sub.lock();
+            try {
+                mch = sub.getChannel();
+                while (mch != null && mch.size() == 0 && !sub.isClosed()) {
                     try { sub.pCond.await(); } catch (InterruptedException e) {}
                 }
-                msg = mch.poll();
-                if (msg != null) {
-                    sub.pMsgs--;
-                    sub.pBytes -= (msg.getData() == null ? 0 : msg.getData().length);
-                }
-
                 mcb = sub.getMessageHandler();
                 max = sub.max;
                 closed = sub.isClosed();
+                pd = sub.partitions;
+                msg = null;
                 if (!closed) {
-                    sub.delivered++;
+                    if (pd != null) {
+                        // Only routed, the partitions account for the messages they take.
+                        if (mch != null) {
+                            SubscriptionImpl.drain(mch, batch, PartitionedDelivery.BATCH_SIZE, 0);
+                        }
+                    } else if (mcb instanceof BatchMessageHandler) {
+                        // Takes care of the pending and delivered counts
+                        sub.drainPending(batch, sub.batchMsgsLimit, sub.batchBytesLimit);
+                    } else {
+                        msg = (mch == null ? null : mch.poll());
+                        if (msg != null) {
+                            sub.removePending(msg);
+                        }
+                        sub.delivered++;
+                    }
                     delivered = sub.delivered;
                 }
             } finally {
@@ -1408,10 +1522,18 @@ class ConnectionImpl implements Connection {
             if (closed) {
                 break;
             }
-            // Deliver the message.
-            if (msg != null && (max <= 0 || delivered <= max)) {
+            if (pd != null) {
+                pd.dispatch(batch);
+                continue;
+            }
+            // Deliver the message(s).
+            if (!batch.isEmpty()) {
+                deliverBatch((BatchMessageHandler) mcb, batch);
+            } else if (msg != null && (max <= 0 || delivered <= max)) {
                 // Ignore any error thrown by the user
                 try { mcb.onMessage(msg); } catch (Throwable t) {}
+                // Copy the payload out of the read buffer if the handler didn't release it.
+                msg.detach();
             }
             // If we have hit the max for delivered msgs, remove sub.
             if (max > 0 && delivered >= max) {
@@ -1426,91 +1548,492 @@ class ConnectionImpl implements Connection {
         }
     }
 
+    // Passes a batch to the handler and clears it.
+    static void deliverBatch(BatchMessageHandler mcb, List<Message> batch) {
+        try {
+            // Ignore any error thrown by the user
+            try { mcb.onMessages(batch); } catch (Throwable t) {}
+            // Copy the payloads out of the read buffer if the handler didn't release them.
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).detach();
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+
     /**
-     * processMsg is called by parse and will place the msg on the appropriate channel/pending queue
-     * for processing. If the channel is full, or the pending queue is over the pending limits, the
-     * connection is considered a slow consumer.
+     * processMsg places a single msg on the appropriate channel/pending queue for processing.
+     * If the channel is full, or the pending queue is over the pending limits, the connection is
+     * considered a slow consumer. The parser stages all messages of a read buffer instead, see
+     * {@link #stageMsg(byte[], int, int)}.
      *
      * @param data   the buffer containing the message body
      * @param offset the offset within this buffer of the beginning of the message body
      * @param length the length of the message body
      */
     void processMsg(byte[] data, int offset, int length) {
-        SubscriptionImpl sub;
+        SubscriptionImpl sub = newMsgSub(length);
+        if (sub == null) {
+            return;
+        }
+        Message msg = newMsg(sub, data, offset, length);
+        if (isInline(sub)) {
+            deliverInline((AsyncSubscriptionImpl) sub, msg);
+            return;
+        }
 
-        mu.lock();
+        final MsgDeliveryScheduler mdw;
+        boolean queued;
+        sub.lock();
         try {
-            stats.incrementInMsgs();
-            stats.incrementInBytes(length);
+            // Read under the lock, the pool moves subscriptions between workers.
+            mdw = deliveryWorker(sub);
+            queued = queueMsgs(sub, msg);
+            if (queued) {
+                signalChannel(sub, mdw);
+            }
+        } finally {
+            sub.unlock();
+        }
+        if (queued && mdw != null) {
+            mdw.signal();
+        }
+    }
 
-            sub = subs.get(parser.ps.ma.sid);
-            if (sub == null) {
+    // Returns the pool worker or the executor that delivers sub, null if it has its own thread.
+    private static MsgDeliveryScheduler deliveryWorker(SubscriptionImpl sub) {
+        if (sub instanceof AsyncSubscriptionImpl) {
+            final AsyncSubscriptionImpl asub = (AsyncSubscriptionImpl) sub;
+            final MsgDeliveryWorker worker = asub.getDeliveryWorker();
+            return (worker != null ? worker : asub.executorDelivery);
+        }
+        return null;
+    }
+
+    /**
+     * stageMsg is called by parse for every message. It creates the message and links it to its
+     * subscription, the messages are queued by the next call to {@link #dispatchMsgs()}.
+     *
+     * @param data   the buffer containing the message body
+     * @param offset the offset within this buffer of the beginning of the message body
+     * @param length the length of the message body
+     */
+    void stageMsg(byte[] data, int offset, int length) {
+        SubscriptionImpl sub = newMsgSub(length);
+        if (sub == null) {
+            return;
+        }
+        Message msg = newMsg(sub, data, offset, length);
+        if (isInline(sub)) {
+            // Not staged, so the handler sees the message before the rest of the buffer is parsed.
+            deliverInline((AsyncSubscriptionImpl) sub, msg);
+            return;
+        }
+
+        if (sub.batchHead == null) {
+            sub.batchHead = msg;
+            batchSubs.add(sub);
+        } else {
+            sub.batchTail.batchNext = msg;
+        }
+        sub.batchTail = msg;
+    }
+
+    private static boolean isInline(SubscriptionImpl sub) {
+        return (sub instanceof AsyncSubscriptionImpl) && ((AsyncSubscriptionImpl) sub).inline;
+    }
+
+    /*
+     * Runs the handler of an inline subscription on the reader thread. Calls are timed against
+     * the inline handler budget when it is set, the watchdog reports those that are still running
+     * past it.
+     */
+    private void deliverInline(AsyncSubscriptionImpl sub, Message msg) {
+        final MessageHandler mcb;
+        final long max;
+        final long delivered;
+        sub.lock();
+        try {
+            if (sub.closed || (sub.max > 0 && sub.delivered >= sub.max)) {
                 return;
             }
+            mcb = sub.msgHandler;
+            max = sub.max;
+            delivered = ++sub.delivered;
+        } finally {
+            sub.unlock();
+        }
 
-            // Doing message create outside of the sub's lock to reduce contention.
-            // It's possible that we end up not using the message, but that's ok.
-            Message msg = new Message(parser.ps.ma, sub, data, offset, length);
+        final long budget = opts.inlineHandlerBudget;
+        long start = 0L;
+        if (budget > 0) {
+            inlineSub = sub;
+            start = System.nanoTime();
+            inlineSince = start;
+        }
+        try {
+            mcb.onMessage(msg);
+        } catch (Throwable t) {
+            // Ignore any exception thrown in the user callback.
+        }
+        if (budget > 0) {
+            final long elapsed = System.nanoTime() - start;
+            inlineSince = 0L;
+            if (elapsed > budget) {
+                stats.incrementInlineHandlerOverruns();
+                processInlineOverBudget(sub);
+            } else if (sub.overBudget.get()) {
+                sub.overBudget.set(false);
+            }
+        }
+        // Copy the payload out of the read buffer if the handler didn't release it.
+        msg.detach();
 
-            MsgDeliveryWorker mdw = null;
-            if (sub instanceof AsyncSubscriptionImpl) {
-                mdw = ((AsyncSubscriptionImpl) sub).getDeliveryWorker();
+        if (max > 0 && delivered >= max) {
+            // If we have hit the max for delivered msgs, remove sub.
+            mu.lock();
+            try {
+                removeSub(sub);
+            } finally {
+                mu.unlock();
             }
-            if (mdw != null) {
-                mdw.lock();
-            } else {
-                sub.lock();
+        }
+    }
+
+    // Accounts for an inbound message and returns its subscription, if any.
+    private SubscriptionImpl newMsgSub(int length) {
+        stats.incrementInMsgs();
+        stats.incrementInBytes(length);
+        return subs.get(parser.ps.ma.sid);
+    }
+
+    // Doing message create outside of the sub's lock to reduce contention.
+    // It's possible that we end up not using the message, but that's ok.
+    private Message newMsg(SubscriptionImpl sub, byte[] data, int offset, int length) {
+        final ReadBuffer rb = readBuf;
+        if (rb != null && rb.buf == data) {
+            return new Message(parser.ps.ma, sub, rb, offset, length);
+        }
+        return new Message(parser.ps.ma, sub, data, offset, length);
+    }
+
+    /**
+     * startStream is called by parse for a payload larger than the read buffer. If the
+     * subscription for the message has a {@link StreamingMessageHandler}, the message is accounted
+     * for and the subscription is returned so that the payload can be streamed to it. Otherwise
+     * null is returned and the payload is assembled as usual. That is also the case when messages
+     * are still pending for the subscription, so that the large message is queued behind them
+     * instead of overtaking them, and when the subscription is closed or at its max, so that the
+     * message is dropped by the regular checks.
+     *
+     * @param sid  the sid of the message
+     * @param size the size of the payload
+     * @return the subscription to stream the payload to, or null
+     */
+    AsyncSubscriptionImpl startStream(long sid, int size) {
+        SubscriptionImpl sub = subs.get(sid);
+        if (!(sub instanceof AsyncSubscriptionImpl)
+                || !(((AsyncSubscriptionImpl) sub).getMessageHandler()
+                instanceof StreamingMessageHandler)) {
+            return null;
+        }
+        if (sub.batchHead != null) {
+            // Messages staged earlier in this read buffer
+            return null;
+        }
+        sub.lock();
+        try {
+            if (sub.closed || (sub.max > 0 && sub.delivered >= sub.max) || sub.pMsgs > 0
+                    || (sub.spill != null && !sub.spill.isEmpty())) {
+                return null;
             }
+            sub.delivered++;
+        } finally {
+            sub.unlock();
+        }
+        stats.incrementInMsgs();
+        stats.incrementInBytes(size);
+        return (AsyncSubscriptionImpl) sub;
+    }
+
+    /*
+     * endStream is called by parse after the last chunk of a streamed message. Removes the
+     * subscription if the message was the last one before its auto-unsubscribe max.
+     */
+    void endStream(AsyncSubscriptionImpl sub) {
+        final boolean done;
+        sub.lock();
+        try {
+            done = !sub.closed && sub.max > 0 && sub.delivered >= sub.max;
+        } finally {
+            sub.unlock();
+        }
+        if (done) {
+            mu.lock();
             try {
-                sub.pMsgs++;
-                if (sub.pMsgs > sub.pMsgsMax) {
-                    sub.pMsgsMax = sub.pMsgs;
+                removeSub(sub);
+            } finally {
+                mu.unlock();
+            }
+        }
+    }
+
+    /**
+     * dispatchMsgs queues the staged messages. Each subscription is locked and its channel
+     * signaled once for all of its messages, delivery workers are woken up once per batch. The
+     * connection lock is not needed here, all of the state touched is guarded by the subscription
+     * lock.
+     */
+    void dispatchMsgs() {
+        if (batchSubs.isEmpty()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < batchSubs.size(); i++) {
+                SubscriptionImpl sub = batchSubs.get(i);
+                final MsgDeliveryScheduler mdw;
+                boolean queued;
+                if (!sub.tryLock()) {
+                    stats.incrementSubLockContentions();
+                    sub.lock();
                 }
-                sub.pBytes += (msg.getData() == null ? 0 : msg.getData().length);
-                if (sub.pBytes > sub.pBytesMax) {
-                    sub.pBytesMax = sub.pBytes;
+                try {
+                    mdw = deliveryWorker(sub);
+                    Message head = sub.batchHead;
+                    sub.batchHead = null;
+                    sub.batchTail = null;
+                    queued = queueMsgs(sub, head);
+                    if (queued) {
+                        signalChannel(sub, mdw);
+                    }
+                } finally {
+                    sub.unlock();
+                }
+                // Workers are shared by subscriptions, they are woken up below.
+                if (queued && mdw != null && !batchWorkers.contains(mdw)) {
+                    batchWorkers.add(mdw);
+                }
+            }
+            for (int w = 0; w < batchWorkers.size(); w++) {
+                batchWorkers.get(w).signal();
+            }
+        } finally {
+            for (int i = 0; i < batchSubs.size(); i++) {
+                SubscriptionImpl sub = batchSubs.get(i);
+                sub.batchHead = null;
+                sub.batchTail = null;
+            }
+            batchSubs.clear();
+            batchWorkers.clear();
+        }
+    }
+
+    // Queues the chain of messages starting at msg for sub. Assumes the sub lock is held. Returns
+    // true if at least one message was queued.
+    private boolean queueMsgs(SubscriptionImpl sub, Message msg) {
+        boolean queued = false;
+        final ConflationTable ct = sub.conflation;
+        while (msg != null) {
+            Message next = msg.batchNext;
+            msg.batchNext = null;
+
+            if (ct != null) {
+                Message pending = ct.get(msg.getSubjectBytes());
+                if (pending != null) {
+                    // Replace the undelivered message in place
+                    sub.pBytes += msg.getDataLength() - pending.getDataLength();
+                    pending.conflate(msg);
+                    sub.conflated++;
+                    msg = next;
+                    continue;
                 }
+            }
 
-                // Check for a Slow Consumer
-                if ((sub.pMsgsLimit > 0 && sub.pMsgs > sub.pMsgsLimit)
-                        || (sub.pBytesLimit > 0 && sub.pBytes > sub.pBytesLimit)) {
-                    handleSlowConsumer(sub, msg);
-                } else {
+            sub.pMsgs++;
+            if (sub.pMsgs > sub.pMsgsMax) {
+                sub.pMsgsMax = sub.pMsgs;
+            }
+            sub.pBytes += msg.getDataLength();
+            if (sub.pBytes > sub.pBytesMax) {
+                sub.pBytesMax = sub.pBytes;
+            }
+
+            // Check for a Slow Consumer
+            final boolean overLimits = isOverPendingLimits(sub);
+            SlowConsumerPolicy.Action action = null;
+            if (sub.spill != null && !sub.spill.isEmpty()) {
+                // Behind a backlog on disk, the message has to wait its turn there.
+                action = spillMsg(sub, msg)
+                        ? SlowConsumerPolicy.Action.SPILL : SlowConsumerPolicy.Action.DROP_NEWEST;
+            } else if (overLimits) {
+                action = applySlowConsumerPolicy(sub, msg);
+            }
+            if (action == SlowConsumerPolicy.Action.DROP_NEWEST) {
+                handleSlowConsumer(sub, msg);
+            } else if (action != SlowConsumerPolicy.Action.SPILL) {
+                if (!overLimits) {
                     // Clear Slow Consumer status
                     sub.setSlowConsumer(false);
-                    if (mdw != null) {
-                        mdw.postMsg(msg);
-                    } else {
-                        // We use mch for everything, unlike Go client
-                        if (sub.getChannel() != null) {
-                            if (sub.getChannel().add(msg)) {
-                                sub.pCond.signal();
-                            } else {
-                                handleSlowConsumer(sub, msg);
-                            }
-                        }
+                }
+                boolean added = false;
+                // We use mch for everything, unlike Go client
+                BlockingQueue<Message> mch = sub.getChannel();
+                if (mch != null) {
+                    // The ring is woken up once for the whole chain, see signalChannel.
+                    added = (mch instanceof SpscMessageQueue)
+                            ? ((SpscMessageQueue) mch).enqueue(msg) : mch.add(msg);
+                    if (!added) {
+                        handleSlowConsumer(sub, msg);
                     }
                 }
-            } finally {
-                if (mdw != null) {
-                    mdw.unlock();
-                } else {
-                    sub.unlock();
+                if (added) {
+                    queued = true;
+                    if (ct != null) {
+                        ct.put(msg);
+                    }
                 }
             }
-        } finally {
-            mu.unlock();
+            msg = next;
+        }
+        return queued;
+    }
+
+    // Wakes up the consumer of sub's channel after queueMsgs. Assumes the sub lock is held. A sub
+    // of the delivery pool is only scheduled, the caller signals the worker after unlocking.
+    private void signalChannel(SubscriptionImpl sub, MsgDeliveryScheduler mdw) {
+        BlockingQueue<Message> mch = sub.getChannel();
+        if (mdw != null) {
+            mdw.schedule((AsyncSubscriptionImpl) sub);
+        } else if (mch instanceof SpscMessageQueue) {
+            ((SpscMessageQueue) mch).signal();
+        } else {
+            sub.pCond.signal();
         }
     }
 
-    // Assumes you already have the lock
+    private static boolean isOverPendingLimits(SubscriptionImpl sub) {
+        return (sub.pMsgsLimit > 0 && sub.pMsgs > sub.pMsgsLimit)
+                || (sub.pBytesLimit > 0 && sub.pBytes > sub.pBytesLimit);
+    }
+
+    /**
+     * applySlowConsumerPolicy applies the {@link SlowConsumerPolicy} of a subscription to a
+     * message that put it over its pending limits. Assumes the sub lock is held, it is released
+     * while blocking.
+     *
+     * @param sub the subscription
+     * @param msg the incoming message, already accounted for in the pending counts
+     * @return {@code DROP_NEWEST} if the message is to be dropped, {@code SPILL} if it was
+     *         spilled to disk, otherwise room was made and the message is to be queued
+     */
+    SlowConsumerPolicy.Action applySlowConsumerPolicy(SubscriptionImpl sub, Message msg) {
+        final SlowConsumerPolicy policy = sub.scPolicy;
+        if (policy == null) {
+            return SlowConsumerPolicy.Action.DROP_NEWEST;
+        }
+        SlowConsumerPolicy.Action action;
+        try {
+            action = policy.onSlowConsumer(sub, msg);
+        } catch (Throwable t) {
+            // Ignore any error thrown by a custom policy
+            action = null;
+        }
+
+        if (action == SlowConsumerPolicy.Action.DROP_OLDEST) {
+            processSlowConsumer(sub);
+            while (isOverPendingLimits(sub)) {
+                Message oldest = pollChannel(sub);
+                if (oldest == null) {
+                    // The backlog is in the consumer's hands already
+                    return SlowConsumerPolicy.Action.DROP_NEWEST;
+                }
+                final ConflationTable ct = sub.conflation;
+                if (ct != null) {
+                    ct.remove(oldest);
+                }
+                sub.dropped++;
+                sub.pMsgs--;
+                sub.pBytes -= oldest.getDataLength();
+                oldest.release();
+                stats.incrementSlowConsumerDroppedOldest();
+            }
+            return action;
+        } else if (action == SlowConsumerPolicy.Action.BLOCK) {
+            processSlowConsumer(sub);
+            // Wake up the consumer for the messages queued so far in this batch
+            final MsgDeliveryScheduler mdw = deliveryWorker(sub);
+            signalChannel(sub, mdw);
+            if (mdw != null) {
+                mdw.signal();
+            }
+            long nanos = policy.getBlockTimeout(TimeUnit.NANOSECONDS);
+            try {
+                while (nanos > 0 && isOverPendingLimits(sub) && !sub.isClosed()) {
+                    nanos = sub.awaitSpace(nanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (sub.isClosed()) {
+                return SlowConsumerPolicy.Action.DROP_NEWEST;
+            }
+            if (!isOverPendingLimits(sub)) {
+                stats.incrementSlowConsumerBlocks();
+                return action;
+            }
+            stats.incrementSlowConsumerBlockTimeouts();
+        } else if (action == SlowConsumerPolicy.Action.SPILL) {
+            processSlowConsumer(sub);
+            if (spillMsg(sub, msg)) {
+                return action;
+            }
+        }
+        return SlowConsumerPolicy.Action.DROP_NEWEST;
+    }
+
+    // Appends msg, already accounted for in the pending counts, to the spill queue of sub.
+    // Returns false if it could not be spilled. Assumes the sub lock is held.
+    private boolean spillMsg(SubscriptionImpl sub, Message msg) {
+        try {
+            if (sub.spill == null) {
+                final SlowConsumerPolicy policy = sub.scPolicy;
+                if (policy == null || policy.getSpillLimit() <= 0) {
+                    return false;
+                }
+                sub.spill = new SpillQueue(policy.getSpillDirectory(),
+                        "jnats-sub" + sub.getSid() + "-", SpillQueue.DEFAULT_SEGMENT_SIZE,
+                        policy.getSpillLimit());
+            }
+            if (!sub.spill.offer(msg)) {
+                return false;
+            }
+        } catch (IOException e) {
+            setLastError(e);
+            return false;
+        }
+        stats.incrementSpilledMsgs();
+        stats.incrementSpilledBytes(msg.getDataLength());
+        // It is pending on disk now
+        sub.pMsgs--;
+        sub.pBytes -= msg.getDataLength();
+        msg.release();
+        return true;
+    }
+
+    private static Message pollChannel(SubscriptionImpl sub) {
+        BlockingQueue<Message> mch = sub.getChannel();
+        return (mch == null ? null : mch.poll());
+    }
+
+    // Assumes you already have the sub lock
     void handleSlowConsumer(SubscriptionImpl sub, Message msg) {
+        stats.incrementSlowConsumerDroppedNewest();
         sub.dropped++;
         processSlowConsumer(sub);
         sub.pMsgs--;
-        if (msg.getData() != null) {
-            sub.pBytes -= msg.getData().length;
-        }
+        sub.pBytes -= msg.getDataLength();
+        msg.release();
     }
 
     void removeSub(SubscriptionImpl sub) {
@@ -1535,6 +2058,36 @@ class ConnectionImpl implements Connection {
         sub.setSlowConsumer(true);
     }
 
+    // Reports an inline handler call over budget, once until a call completes within budget.
+    void processInlineOverBudget(SubscriptionImpl sub) {
+        final AsyncSubscriptionImpl asub = (AsyncSubscriptionImpl) sub;
+        // The reader thread and the watchdog may both report the same call.
+        if (!asub.overBudget.compareAndSet(false, true)) {
+            return;
+        }
+        final IOException ex = new IOException(ERR_INLINE_HANDLER_OVER_BUDGET);
+        final NATSException nex = new NATSException(ex, this, sub);
+        if (opts.getExceptionHandler() != null) {
+            cbexec.submit(new Runnable() {
+                public void run() {
+                    opts.getExceptionHandler().onException(nex);
+                }
+            });
+        }
+    }
+
+    // Starts the inline watchdog unless already started or disabled. Assumes mu is held.
+    private void startInlineWatchdog() {
+        final long budget = opts.inlineHandlerBudget;
+        if (inlineWatchdog != null || budget <= 0) {
+            return;
+        }
+        final long period = Math.max(budget, INLINE_WATCHDOG_MIN_PERIOD);
+        inlineWatchdog = exec.scheduleWithFixedDelay(new InlineWatchdogTask(), period, period,
+                TimeUnit.NANOSECONDS);
+        tasks.put(INLINE_WATCHDOG, inlineWatchdog);
+    }
+
     void processPermissionsViolation(String err) {
         final IOException serverEx = new IOException("nats: " + err);
         final NATSException nex = new NATSException(serverEx);
@@ -1701,6 +2254,41 @@ class ConnectionImpl implements Connection {
         }
     }
 
+    /*
+     * This is the loop of the writer thread. It does not take mu, publishers and the holders of
+     * mu only wait for it through the ring.
+     */
+    void writer(WriteRing ring, OutputStream out) throws InterruptedException {
+        try {
+            while (ring.awaitData()) {
+                ring.drainTo(out);
+                out.flush();
+                stats.incrementFlushes();
+                ring.flushed();
+            }
+        } catch (IOException e) {
+            // Release the waiters before taking mu, one of them may hold it.
+            ring.terminate();
+            mu.lockInterruptibly();
+            try {
+                setLastError(e);
+            } finally {
+                mu.unlock();
+            }
+        } finally {
+            ring.terminate();
+        }
+    }
+
+    // Stops queueing to the writer thread, if any. The writer exits once it drained the ring.
+    private void closeWriteRing() {
+        WriteRing ring = writeRing;
+        if (ring != null) {
+            ring.close();
+            writeRing = null;
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -1749,9 +2337,7 @@ class ConnectionImpl implements Connection {
     // server. Used in reconnects
     void resendSubscriptions() {
         long adjustedMax = 0L;
-        for (Map.Entry<Long, SubscriptionImpl> entry : subs.entrySet()) {
-            SubscriptionImpl sub = entry.getValue();
-
+        for (SubscriptionImpl sub : subs.values()) {
             sub.lock();
             try {
                 if (sub.max > 0) {
@@ -1797,6 +2383,22 @@ class ConnectionImpl implements Connection {
      */
     SubscriptionImpl subscribe(String subject, String queue, MessageHandler cb,
                                BlockingQueue<Message> ch) {
+        return subscribe(subject, queue, cb, ch, null);
+    }
+
+    /**
+     * subscribe is the internal subscribe function that indicates interest in a subject.
+     *
+     * @param subject  the subject
+     * @param queue    an optional subscription queue
+     * @param cb       async callback
+     * @param ch       channel
+     * @param executor the executor that delivers the messages of an async subscription, if not
+     *                 the one of the options
+     * @return the Subscription object
+     */
+    SubscriptionImpl subscribe(String subject, String queue, MessageHandler cb,
+                               BlockingQueue<Message> ch, Executor executor) {
         final SubscriptionImpl sub;
         mu.lock();
         try {
@@ -1815,8 +2417,25 @@ class ConnectionImpl implements Connection {
                 final boolean   useDlvPool = (this.opts.useGlobalMsgDelivery &&
                                                 ((msgDlvPool = Nats.getMsgDeliveryThreadPool()) != null));
 
-                sub = new AsyncSubscriptionImpl(this, subject, queue, cb, useDlvPool);
-                if (useDlvPool) {
+                if (executor == null) {
+                    executor = opts.deliveryExecutor;
+                }
+                sub = new AsyncSubscriptionImpl(this, subject, queue, cb);
+                final boolean inline = ((AsyncSubscriptionImpl) sub).inline;
+                if (!inline && executor != null) {
+                    // Set before the sub can be looked up by the reader thread.
+                    ((AsyncSubscriptionImpl) sub).executorDelivery =
+                            new ExecutorDelivery((AsyncSubscriptionImpl) sub, executor);
+                }
+                // Sets sid and adds to subs map, the pool may assign the worker by sid.
+                addSubscription(sub);
+                if (inline) {
+                    // Delivered by the reader thread, see deliverInline.
+                    startInlineWatchdog();
+                } else if (executor != null) {
+                    // Nothing to start, delivered by tasks submitted to the executor, see
+                    // ExecutorDelivery.
+                } else if (useDlvPool) {
                     msgDlvPool.assignDeliveryWorker((AsyncSubscriptionImpl) sub);
                 } else {
                     // If we have an async callback, start up a sub specific Runnable to deliver the
@@ -1830,11 +2449,10 @@ class ConnectionImpl implements Connection {
             } else {
                 sub = new SyncSubscriptionImpl(this, subject, queue);
                 sub.setChannel(ch);
+                // Sets sid and adds to subs map
+                addSubscription(sub);
             }
 
-            // Sets sid and adds to subs map
-            addSubscription(sub);
-
             // Send SUB proto
             if (!reconnecting()) {
                 sendSubscriptionMessage(sub);
@@ -1865,13 +2483,22 @@ class ConnectionImpl implements Connection {
 
     @Override
     public AsyncSubscription subscribe(String subj, String queue, MessageHandler cb) {
-        return (AsyncSubscription) subscribe(subj, queue, cb, null);
+        return (AsyncSubscription) subscribe(subj, queue, cb, null, null);
+    }
+
+    @Override
+    public AsyncSubscription subscribe(String subj, String queue, MessageHandler cb,
+                                       Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("nats: delivery executor cannot be null");
+        }
+        return (AsyncSubscription) subscribe(subj, queue, cb, null, executor);
     }
 
     @Override
     @Deprecated
     public AsyncSubscription subscribeAsync(String subject, String queue, MessageHandler cb) {
-        return (AsyncSubscription) subscribe(subject, queue, cb, null);
+        return (AsyncSubscription) subscribe(subject, queue, cb, null, null);
     }
 
     @Override
@@ -1928,78 +2555,275 @@ class ConnectionImpl implements Connection {
     // The internal publish operation sends a protocol data message by queueing into the buffered
     // OutputStream and kicking the flush go routine. These writes should be protected.
     void publish(byte[] subject, byte[] reply, byte[] data, boolean forceFlush) throws IOException {
-        int msgSize = (data != null) ? data.length : 0;
-        mu.lock();
-        try {
-            // Proactively reject payloads over the threshold set by server.
-            if (msgSize > info.getMaxPayload()) {
+        publish(subject, reply, data, 0, (data != null) ? data.length : 0, forceFlush);
+    }
+
+    // Publishes data[offset, offset + length), without copying it out of the caller's array.
+    void publish(byte[] subject, byte[] reply, byte[] data, int offset, int length,
+                 boolean forceFlush) throws IOException {
+        final WriteRing ring = writeRing;
+        if (ring != null && connected()) {
+            // Queue to the writer thread without taking mu.
+            if (length > info.getMaxPayload()) {
                 throw new IllegalArgumentException(ERR_MAX_PAYLOAD);
             }
+            final long seq = ring.offerPublish(subject, reply, data, offset, length);
+            if (seq >= 0) {
+                publishedToRing(ring, seq, length, forceFlush);
+                return;
+            }
+            // The ring was closed under us, go through the regular checks.
+        }
+        lockForPublish();
+        try {
+            checkPublish(length);
 
-            // Since we have the lock, examine directly for a tiny performance
-            // boost in fastpath
-            if (closed()) {
-                throw new IllegalStateException(ERR_CONNECTION_CLOSED);
+            try {
+                writePublishMsg(subject, reply, data, offset, length);
+            } catch (IOException e) {
+                setLastError(e);
+                return;
             }
 
-            // Check if we are reconnecting, and if so check if
-            // we have exceeded our reconnect outbound buffer limits.
-            if (reconnecting()) {
-                // Flush to underlying buffer
-                try {
-                    bw.flush();
-                } catch (IOException e) {
-                    // Ignore
-                }
-                if (pending.size() >= opts.getReconnectBufSize()) {
-                    throw new IOException(ERR_RECONNECT_BUF_EXCEEDED);
-                }
+            stats.incrementOutMsgs();
+            stats.incrementOutBytes(length);
+
+            flushPublished(forceFlush);
+        } finally {
+            mu.unlock();
+        }
+    }
+
+    /*
+     * Publishes the remaining bytes of data, leaving its position unchanged. Payloads backed by
+     * an accessible array are published from the array, others are copied straight from the
+     * buffer to the outbound stream, or to the writer thread's ring.
+     */
+    void publishBuffer(byte[] subject, byte[] reply, ByteBuffer data, boolean forceFlush)
+            throws IOException {
+        if (data == null) {
+            publish(subject, reply, null, 0, 0, forceFlush);
+            return;
+        }
+        if (data.hasArray()) {
+            publish(subject, reply, data.array(), data.arrayOffset() + data.position(),
+                    data.remaining(), forceFlush);
+            return;
+        }
+        final int length = data.remaining();
+        final WriteRing ring = writeRing;
+        if (ring != null && connected()) {
+            if (length > info.getMaxPayload()) {
+                throw new IllegalArgumentException(ERR_MAX_PAYLOAD);
+            }
+            final long seq = ring.offerPublish(subject, reply, data);
+            if (seq >= 0) {
+                publishedToRing(ring, seq, length, forceFlush);
+                return;
             }
+        }
+        lockForPublish();
+        try {
+            checkPublish(length);
 
-            // write our pubProtoBuf buffer to the buffered writer.
             try {
-                writePublishProto(pubProtoBuf, subject, reply, msgSize);
-            } catch (BufferOverflowException e) {
-                // We can get here if we have very large subjects.
-                // Expand with some room to spare.
-                int resizeAmount = Parser.MAX_CONTROL_LINE_SIZE + subject.length
-                        + (reply != null ? reply.length : 0);
+                writePublishMsg(subject, reply, data);
+            } catch (IOException e) {
+                setLastError(e);
+                return;
+            }
 
-                buildPublishProtocolBuffer(resizeAmount);
+            stats.incrementOutMsgs();
+            stats.incrementOutBytes(length);
+
+            flushPublished(forceFlush);
+        } finally {
+            mu.unlock();
+        }
+    }
 
-                writePublishProto(pubProtoBuf, subject, reply, msgSize);
+    // Accounts for a message queued to the writer thread, and waits for it to be flushed if asked.
+    private void publishedToRing(WriteRing ring, long seq, int msgSize, boolean forceFlush) {
+        stats.incrementOutMsgs();
+        stats.incrementOutBytes(msgSize);
+        if (forceFlush) {
+            try {
+                ring.awaitFlushed(seq + 1);
+            } catch (IOException e) {
+                // Ignore
             }
+        }
+    }
+
+    private void lockForPublish() {
+        if (!mu.tryLock()) {
+            stats.incrementConnLockContentions();
+            mu.lock();
+        }
+    }
+
+    // Checks that messages of up to maxSize bytes can be published. Assumes mu is held.
+    private void checkPublish(int maxSize) throws IOException {
+        // Proactively reject payloads over the threshold set by server.
+        if (maxSize > info.getMaxPayload()) {
+            throw new IllegalArgumentException(ERR_MAX_PAYLOAD);
+        }
 
+        // Since we have the lock, examine directly for a tiny performance
+        // boost in fastpath
+        if (closed()) {
+            throw new IllegalStateException(ERR_CONNECTION_CLOSED);
+        }
+
+        // Check if we are reconnecting, and if so check if
+        // we have exceeded our reconnect outbound buffer limits.
+        if (reconnecting()) {
+            // Flush to underlying buffer
             try {
-                bw.write(pubProtoBuf.array(), 0, pubProtoBuf.position());
-                pubProtoBuf.position(pubPrimBytesLen);
+                bw.flush();
+            } catch (IOException e) {
+                // Ignore
+            }
+            if (pending.size() >= opts.getReconnectBufSize()) {
+                throw new IOException(ERR_RECONNECT_BUF_EXCEEDED);
+            }
+        }
+    }
 
-                if (msgSize > 0) {
-                    bw.write(data, 0, msgSize);
-                }
+    // Writes a PUB protocol message and its payload to the buffered writer. Assumes mu is held.
+    private void writePublishMsg(byte[] subject, byte[] reply, byte[] data, int offset,
+                                 int length) throws IOException {
+        final WriteRing ring = writeRing;
+        if (ring != null && bw == ring.getOutputStream()) {
+            // One record per message, so that it is not interleaved with lock-free publishers.
+            if (ring.offerPublish(subject, reply, data, offset, length) < 0) {
+                throw new IOException(ERR_CONNECTION_CLOSED);
+            }
+            return;
+        }
+        writePublishHeader(subject, reply, length);
 
-                bw.write(crlfProtoBytes, 0, crlfProtoBytesLen);
+        if (length > 0) {
+            bw.write(data, offset, length);
+        }
+
+        bw.write(crlfProtoBytes, 0, crlfProtoBytesLen);
+    }
+
+    // Same as above for a payload that is not backed by an accessible array.
+    private void writePublishMsg(byte[] subject, byte[] reply, ByteBuffer data)
+            throws IOException {
+        final WriteRing ring = writeRing;
+        if (ring != null && bw == ring.getOutputStream()) {
+            if (ring.offerPublish(subject, reply, data) < 0) {
+                throw new IOException(ERR_CONNECTION_CLOSED);
+            }
+            return;
+        }
+        writePublishHeader(subject, reply, data.remaining());
+
+        // OutputStream only takes arrays, go through a chunk reused by all publishers.
+        if (data.hasRemaining()) {
+            if (pubCopyBuf == null) {
+                pubCopyBuf = new byte[PUB_COPY_BUF_SIZE];
+            }
+            final ByteBuffer src = data.duplicate();
+            while (src.hasRemaining()) {
+                final int len = Math.min(pubCopyBuf.length, src.remaining());
+                src.get(pubCopyBuf, 0, len);
+                bw.write(pubCopyBuf, 0, len);
+            }
+        }
+
+        bw.write(crlfProtoBytes, 0, crlfProtoBytesLen);
+    }
+
+    // Writes the PUB protocol line of a message. Assumes mu is held.
+    private void writePublishHeader(byte[] subject, byte[] reply, int msgSize)
+            throws IOException {
+        // write our pubProtoBuf buffer to the buffered writer.
+        try {
+            writePublishProto(pubProtoBuf, subject, reply, msgSize);
+        } catch (BufferOverflowException e) {
+            // We can get here if we have very large subjects.
+            // Expand with some room to spare.
+            int resizeAmount = Parser.MAX_CONTROL_LINE_SIZE + subject.length
+                    + (reply != null ? reply.length : 0);
+
+            buildPublishProtocolBuffer(resizeAmount);
+
+            writePublishProto(pubProtoBuf, subject, reply, msgSize);
+        }
+
+        bw.write(pubProtoBuf.array(), 0, pubProtoBuf.position());
+        pubProtoBuf.position(pubPrimBytesLen);
+    }
+
+    // Flushes the published messages, or leaves it to the flusher. Assumes mu is held.
+    private void flushPublished(boolean forceFlush) {
+        if (forceFlush) {
+            try {
+                bw.flush();
+                stats.incrementFlushes();
             } catch (IOException e) {
-                setLastError(e);
-                return;
+                // Ignore
+            }
+        } else {
+            // Opportunistic flush
+            if (fch.isEmpty()) {
+                kickFlusher();
+            }
+        }
+    }
+
+    /*
+     * Publishes a batch of messages in a single critical section. The subjects and payload sizes
+     * are validated before anything is written, then all of the messages are written to the
+     * buffered writer and flushed once.
+     */
+    void publish(List<Message> msgs, boolean forceFlush) throws IOException {
+        final int count = msgs.size();
+        if (count == 0) {
+            return;
+        }
+        int maxSize = 0;
+        for (int i = 0; i < count; i++) {
+            final Message msg = msgs.get(i);
+            final byte[] subject = msg.getSubjectBytes();
+            if (subject == null) {
+                throw new NullPointerException(ERR_BAD_SUBJECT);
             }
+            if (subject.length == 0) {
+                throw new IllegalArgumentException(ERR_BAD_SUBJECT);
+            }
+            maxSize = Math.max(maxSize, msg.getDataLength());
+        }
 
-            stats.incrementOutMsgs();
-            stats.incrementOutBytes(msgSize);
+        lockForPublish();
+        try {
+            checkPublish(maxSize);
 
-            if (forceFlush) {
-                try {
-                    bw.flush();
-                    stats.incrementFlushes();
-                } catch (IOException e) {
-                    // Ignore
-                }
-            } else {
-                // Opportunistic flush
-                if (fch.isEmpty()) {
-                    kickFlusher();
+            int written = 0;
+            long bytes = 0;
+            try {
+                for (; written < count; written++) {
+                    final Message msg = msgs.get(written);
+                    final byte[] data = msg.getData();
+                    final int msgSize = (data != null) ? data.length : 0;
+                    writePublishMsg(msg.getSubjectBytes(), msg.getReplyToBytes(), data, 0,
+                            msgSize);
+                    bytes += msgSize;
                 }
+            } catch (IOException e) {
+                setLastError(e);
+                return;
+            } finally {
+                stats.incrementOutMsgs(written);
+                stats.incrementOutBytes(bytes);
+                stats.recordPublishBatch(written);
             }
+
+            flushPublished(forceFlush);
         } finally {
             mu.unlock();
         }
@@ -2010,19 +2834,17 @@ class ConnectionImpl implements Connection {
     @Override
     public void publish(String subject, String reply, byte[] data, boolean flush)
             throws IOException {
+        publish(subjectBytes(subject), (reply != null) ? reply.getBytes() : null, data, flush);
+    }
+
+    private static byte[] subjectBytes(String subject) {
         if (subject == null) {
             throw new NullPointerException(ERR_BAD_SUBJECT);
         }
         if (subject.isEmpty()) {
             throw new IllegalArgumentException(ERR_BAD_SUBJECT);
         }
-
-        byte[] subjBytes = subject.getBytes();
-        byte[] replyBytes = null;
-        if (reply != null) {
-            replyBytes = reply.getBytes();
-        }
-        publish(subjBytes, replyBytes, data, flush);
+        return subject.getBytes();
     }
 
     @Override
@@ -2035,11 +2857,33 @@ class ConnectionImpl implements Connection {
         publish(subject, null, data);
     }
 
+    @Override
+    public void publish(String subject, byte[] data, int offset, int length)
+            throws IOException {
+        if (data == null ? (offset != 0 || length != 0)
+                : (offset < 0 || length < 0 || length > data.length - offset)) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "nats: invalid payload range, offset %d length %d", offset, length));
+        }
+        publish(subjectBytes(subject), null, data, offset, length, false);
+    }
+
+    @Override
+    public void publishBuffer(String subject, String reply, ByteBuffer data) throws IOException {
+        publishBuffer(subjectBytes(subject), (reply != null) ? reply.getBytes() : null, data,
+                false);
+    }
+
     @Override
     public void publish(Message msg) throws IOException {
         publish(msg.getSubjectBytes(), msg.getReplyToBytes(), msg.getData(), false);
     }
 
+    @Override
+    public void publish(List<Message> msgs) throws IOException {
+        publish(msgs, false);
+    }
+
     @Override
     public Message request(String subject, byte[] data, long timeout, TimeUnit unit)
             throws IOException, InterruptedException {
@@ -2132,6 +2976,8 @@ class ConnectionImpl implements Connection {
 
             // Delete the key regardless, one response only.
             respMap.remove(token);
+            // The message is handed off to the requestor, it can't reference the read buffer.
+            msg.detach();
             queue.offer(msg);
         }
     }
@@ -2372,11 +3218,28 @@ class ConnectionImpl implements Connection {
         this.pongs = pongs;
     }
 
-    Map<Long, SubscriptionImpl> getSubs() {
+    ReadBufferPool getReadBufferPool() {
+        return readBufPool;
+    }
+
+    // Sets the read buffer being parsed, messages created meanwhile may reference it.
+    void setReadBuffer(ReadBuffer rb) {
+        this.readBuf = rb;
+    }
+
+    ExecutorService getSubscriptionExecutor() {
+        return subexec;
+    }
+
+    SplitBufferPool getSplitBufferPool() {
+        return splitBufPool;
+    }
+
+    SubscriptionTable getSubs() {
         return subs;
     }
 
-    void setSubs(Map<Long, SubscriptionImpl> subs) {
+    void setSubs(SubscriptionTable subs) {
         this.subs = subs;
     }
 
@@ -2626,6 +3489,20 @@ class ConnectionImpl implements Connection {
         }
     }
 
+    // Reports the inline handler call in progress if it has been running for longer than the
+    // budget.
+    class InlineWatchdogTask implements Runnable {
+        public void run() {
+            // Read the clock first, so that the call seen below was running at that time.
+            final long now = System.nanoTime();
+            final long since = inlineSince;
+            final AsyncSubscriptionImpl sub = inlineSub;
+            if (since != 0L && sub != null && now - since > opts.inlineHandlerBudget) {
+                processInlineOverBudget(sub);
+            }
+        }
+    }
+
     // This will fire periodically and send a client origin
     // ping to the server. Will also check that we have received
     // responses from the server.
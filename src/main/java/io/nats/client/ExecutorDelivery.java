@@ -0,0 +1,81 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package io.nats.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Delivers the messages of one async subscription on an application supplied Executor, see
+ * Options.Builder#deliveryExecutor. Each task delivers a batch of at most BATCH_SIZE messages and
+ * submits the next one if there are more, so that busy subscriptions share the executor with the
+ * others. A subscription has at most one task submitted or running at a time, which keeps its
+ * messages in order without a thread of its own.
+ */
+class ExecutorDelivery implements MsgDeliveryScheduler, Runnable {
+    static final int BATCH_SIZE = MsgDeliveryWorker.BATCH_SIZE;
+
+    private final AsyncSubscriptionImpl sub;
+    private final Executor executor;
+    private final List<Message> batch = new ArrayList<Message>(BATCH_SIZE);
+    // Set by schedule when a task is to be submitted by the next signal.
+    private final AtomicBoolean submit = new AtomicBoolean();
+
+    ExecutorDelivery(AsyncSubscriptionImpl sub, Executor executor) {
+        this.sub = sub;
+        this.executor = executor;
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    // Assumes the sub lock is held, which orders this with the task deciding whether the
+    // channel was drained.
+    @Override
+    public void schedule(AsyncSubscriptionImpl sub) {
+        if (sub.scheduled.compareAndSet(false, true)) {
+            this.submit.set(true);
+        }
+    }
+
+    // Submits the task requested by schedule, outside of the sub lock since the executor may
+    // run it in the calling thread.
+    @Override
+    public void signal() {
+        if (this.submit.compareAndSet(true, false)) {
+            execute();
+        }
+    }
+
+    @Override
+    public void run() {
+        if (sub.deliverNext(this.batch, BATCH_SIZE, false)) {
+            execute();
+        }
+    }
+
+    private void execute() {
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            // The executor was shut down, the pending messages of sub are not delivered.
+            sub.scheduled.set(false);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+/**
+ * An InlineMessageHandler is a {@link MessageHandler} that is invoked directly on the connection's
+ * reader thread, as messages are parsed. There is no handoff to a delivery thread, which saves a
+ * context switch and a few microseconds per message. A subscription is inline if its handler
+ * implements this interface when it is created; the handlers set later on with
+ * {@link AsyncSubscription#setMessageHandler(MessageHandler)} are invoked inline as well.
+ *
+ * <p>While the handler runs, the connection reads nothing else: no messages for other
+ * subscriptions, no PONGs, no server errors. Therefore the handler:
+ * <ul>
+ * <li>must return quickly and must not block, on I/O, locks or sleeps;</li>
+ * <li>must not call {@link Connection#flush()}, {@link Connection#request(String, byte[])} or
+ * {@link SyncSubscription#nextMessage()}, which wait on the reader thread and would deadlock
+ * until they time out;</li>
+ * <li>may publish, and may unsubscribe or close its own subscription.</li>
+ * </ul>
+ *
+ * <p>Messages are delivered in order and are not queued, so pending limits and slow consumer
+ * policies do not apply. The payload is copied out of the read buffer when the handler returns,
+ * unless the handler has released the message.
+ *
+ * <p>Each call is timed against the connection's budget,
+ * {@link Options.Builder#inlineHandlerBudget(long, java.util.concurrent.TimeUnit)}. Calls over
+ * budget are counted in {@link Statistics#getInlineHandlerOverruns()}, and the connection's
+ * {@link ExceptionHandler} is notified with {@link Nats#ERR_INLINE_HANDLER_OVER_BUDGET}, also
+ * while a handler is still running, at most once until a call completes within budget.
+ */
+public interface InlineMessageHandler extends MessageHandler {
+}
@@ -14,6 +14,7 @@
 package io.nats.client;
 
 import io.nats.client.Parser.MsgArg;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -26,6 +27,16 @@ public class Message {
     private byte[] replyToBytes;
     private String replyToString;
     private byte[] data;
+    private int dataLength;
+
+    // When the connection uses pooled read buffers, the payload of a received message is
+    // a view into the read buffer until it is either detached (copied) or released.
+    private volatile ReadBuffer slab;
+    private int dataOffset;
+    private boolean released;
+
+    // Links the messages of a subscription staged by the read loop.
+    Message batchNext;
 
     /**
      * Message constructor.
@@ -47,26 +58,52 @@ public class Message {
      * Note that this constructor may throw ArrayIndexOutOfBoundsException
      */
     Message(MsgArg ma, SubscriptionImpl sub, byte[] buf, int offset, int length) {
-        this.setSubject(ma.subject.array(), ma.subject.limit());
-        if (ma.reply.limit() > 0) {
-            this.setReplyTo(ma.reply.array(), ma.reply.limit());
-        }
-        this.sub = sub;
+        this(ma, sub);
         // make a deep copy of the bytes for this message.
         if (length > 0) {
-            if (length > buf.length) {
-                String msg = String.format(
-                        "nats: source buffer size (%d) smaller than requested copy length(%d)",
-                        length, buf.length);
-                throw new IllegalArgumentException(msg);
-            } else if (length > ma.size) {
-                String msg = String.format(
-                        "nats: requested copy length(%d) larger than ma.size(%d)",
-                        length, ma.size);
-                throw new IllegalArgumentException(msg);
-            }
+            checkLength(ma, buf, length);
             data = new byte[length];
             System.arraycopy(buf, offset, data, 0, length);
+            dataLength = length;
+        }
+    }
+
+    /*
+     * Creates a message whose payload references the read buffer in place. The message holds a
+     * reference on the buffer until it is detached or released.
+     */
+    Message(MsgArg ma, SubscriptionImpl sub, ReadBuffer rb, int offset, int length) {
+        this(ma, sub);
+        if (length > 0) {
+            checkLength(ma, rb.buf, length);
+            rb.retain();
+            dataOffset = offset;
+            dataLength = length;
+            slab = rb;
+        }
+    }
+
+    private Message(MsgArg ma, SubscriptionImpl sub) {
+        this.subjectBytes = Arrays.copyOfRange(ma.buf, ma.subjectOffset,
+                ma.subjectOffset + ma.subjectLength);
+        if (ma.replyLength > 0) {
+            this.replyToBytes = Arrays.copyOfRange(ma.buf, ma.replyOffset,
+                    ma.replyOffset + ma.replyLength);
+        }
+        this.sub = sub;
+    }
+
+    private static void checkLength(MsgArg ma, byte[] buf, int length) {
+        if (length > buf.length) {
+            String msg = String.format(
+                    "nats: source buffer size (%d) smaller than requested copy length(%d)",
+                    length, buf.length);
+            throw new IllegalArgumentException(msg);
+        } else if (length > ma.size) {
+            String msg = String.format(
+                    "nats: requested copy length(%d) larger than ma.size(%d)",
+                    length, ma.size);
+            throw new IllegalArgumentException(msg);
         }
     }
 
@@ -81,15 +118,111 @@ public class Message {
         this.sub = sub;
     }
 
+    // Takes ownership of the arrays, used for messages read back from a SpillQueue.
+    Message(byte[] subject, byte[] reply, byte[] data, SubscriptionImpl sub) {
+        this.subjectBytes = subject;
+        this.replyToBytes = reply;
+        this.data = data;
+        this.dataLength = data.length;
+        this.sub = sub;
+    }
+
     /**
      * Returns the message payload.
      *
      * @return the message payload
      */
     public byte[] getData() {
+        if (slab != null) {
+            detach();
+        }
+        if (released) {
+            throw new IllegalStateException(Nats.ERR_MSG_RELEASED);
+        }
         return data;
     }
 
+    /**
+     * Returns a read-only view of the message payload. For messages received on a connection
+     * that uses pooled read buffers ({@link Options.Builder#readBufferPoolSize(int)}), the view
+     * references the connection's read buffer directly and is only valid until the message is
+     * released, or until the {@link MessageHandler} returns unless {@link #getData()} has been
+     * called.
+     *
+     * @return the message payload, or {@code null} if there is none
+     */
+    public ByteBuffer getDataBuffer() {
+        final ReadBuffer rb = slab;
+        if (rb != null) {
+            return ByteBuffer.wrap(rb.buf, dataOffset, dataLength).slice().asReadOnlyBuffer();
+        }
+        byte[] buf = getData();
+        return (buf == null ? null : ByteBuffer.wrap(buf).asReadOnlyBuffer());
+    }
+
+    /**
+     * Returns the length of the message payload, without copying it.
+     *
+     * @return the payload length in bytes
+     */
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Releases the pooled read buffer backing this message's payload, if any, making it
+     * available for subsequent socket reads. Handlers that consume a message through
+     * {@link #getDataBuffer()} should call this when done so that the payload does not need to
+     * be copied after the handler returns. Messages returned by
+     * {@link SyncSubscription#nextMessage()} keep a reference on the read buffer until either
+     * this method or {@link #getData()} is called. Once released, the payload can no longer be
+     * accessed. This has no effect on messages that own their payload.
+     */
+    public synchronized void release() {
+        final ReadBuffer rb = slab;
+        if (rb != null) {
+            released = true;
+            slab = null;
+            rb.release();
+        }
+    }
+
+    /*
+     * Copies the payload out of the pooled read buffer, if still referenced, and drops the
+     * reference. Called when the payload must outlive the read buffer.
+     */
+    synchronized void detach() {
+        final ReadBuffer rb = slab;
+        if (rb != null) {
+            data = new byte[dataLength];
+            System.arraycopy(rb.buf, dataOffset, data, 0, dataLength);
+            slab = null;
+            rb.release();
+        }
+    }
+
+    /*
+     * Takes over the reply subject and payload of a newer message on the same subject. Used by
+     * conflating subscriptions while this message is still pending, the newer message is dropped
+     * afterwards.
+     */
+    synchronized void conflate(Message newer) {
+        release();
+        this.replyToBytes = newer.replyToBytes;
+        this.replyToString = newer.replyToString;
+        this.data = newer.data;
+        this.dataLength = newer.dataLength;
+        this.dataOffset = newer.dataOffset;
+        this.released = newer.released;
+        // The read buffer reference, if any, moves along with the payload.
+        this.slab = newer.slab;
+        newer.slab = null;
+    }
+
+    boolean isView() {
+        return slab != null;
+    }
+
     /**
      * Sets the message payload data.
      *
@@ -197,8 +330,13 @@ public class Message {
      * @param length the number of bytes to write
      */
     public void setData(byte[] data, int offset, int length) {
+        if (slab != null) {
+            release();
+        }
+        released = false;
         if (data == null) {
             this.data = null;
+            this.dataLength = 0;
         } else {
             if (length > data.length) {
                 throw new IllegalArgumentException(
@@ -206,6 +344,7 @@ public class Message {
             }
             this.data = new byte[length];
             System.arraycopy(data, offset, this.data, 0, length);
+            this.dataLength = length;
         }
     }
 
@@ -216,23 +355,27 @@ public class Message {
     @Override
     public String toString() {
         final int maxBytes = 32;
-        int len = 0;
-
-        byte[] buf = getData();
-        if (buf != null) {
-            len = buf.length;
-        }
-
         StringBuilder sb = new StringBuilder();
         sb.append(String.format("{Subject=%s;Reply=%s;Payload=<", getSubject(), getReplyTo()));
 
-        for (int i = 0; i < maxBytes && i < len; i++) {
-            sb.append((char) buf[i]);
-        }
-
-        int remainder = len - maxBytes;
-        if (remainder > 0) {
-            sb.append(String.format("%d more bytes", remainder));
+        // Reads the payload in place, so that neither a view is detached nor a released message
+        // throws just because it was logged.
+        synchronized (this) {
+            final ReadBuffer rb = slab;
+            final byte[] buf = (rb != null ? rb.buf : data);
+            final int off = (rb != null ? dataOffset : 0);
+            final int len = dataLength;
+            if (released) {
+                sb.append("released");
+            } else if (buf != null) {
+                for (int i = 0; i < maxBytes && i < len; i++) {
+                    sb.append((char) buf[off + i]);
+                }
+                int remainder = len - maxBytes;
+                if (remainder > 0) {
+                    sb.append(String.format("%d more bytes", remainder));
+                }
+            }
         }
 
         sb.append(">}");
@@ -0,0 +1,104 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+/**
+ * A {@code MessagePartitioner} spreads the messages of an asynchronous subscription over several
+ * delivery threads by key, see {@link AsyncSubscription#setPartitions(int, MessagePartitioner)}.
+ * Messages with the same key are delivered in order, by the same thread.
+ *
+ * <p>Custom partitioners, for instance on a field of the payload, override {@link #hash(Message)}.
+ * It is invoked on the delivery thread of the subscription, before the message is handed to its
+ * partition, so it should be cheap.
+ */
+public abstract class MessagePartitioner {
+
+    /**
+     * Partitions by the full subject of the messages.
+     */
+    public static final MessagePartitioner SUBJECT = new MessagePartitioner() {
+        @Override
+        public int hash(Message msg) {
+            final byte[] subject = msg.getSubjectBytes();
+            return hash(subject, 0, subject.length);
+        }
+
+        @Override
+        public String toString() {
+            return "SUBJECT";
+        }
+    };
+
+    /**
+     * Returns a partitioner on one token of the subject of the messages. For instance, token 1 of
+     * {@code orders.eu.1234} is {@code eu}. Messages whose subject has fewer tokens share a
+     * partition.
+     *
+     * @param index the zero-based index of the token
+     * @return the partitioner
+     */
+    public static MessagePartitioner subjectToken(final int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("nats: token index cannot be negative");
+        }
+        return new MessagePartitioner() {
+            @Override
+            public int hash(Message msg) {
+                final byte[] subject = msg.getSubjectBytes();
+                int start = 0;
+                for (int token = 0; token < index; token++) {
+                    while (start < subject.length && subject[start] != '.') {
+                        start++;
+                    }
+                    if (start == subject.length) {
+                        return 0;
+                    }
+                    start++;
+                }
+                int end = start;
+                while (end < subject.length && subject[end] != '.') {
+                    end++;
+                }
+                return hash(subject, start, end);
+            }
+
+            @Override
+            public String toString() {
+                return "SUBJECT_TOKEN(" + index + ")";
+            }
+        };
+    }
+
+    /**
+     * Returns the hash of the key of a message. Messages with equal keys must return the same
+     * hash, messages with different keys should rarely do.
+     *
+     * @param msg the message
+     * @return the hash of its key
+     */
+    public abstract int hash(Message msg);
+
+    static int hash(byte[] bytes, int start, int end) {
+        int h = 1;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h;
+    }
+
+    // Maps a hash to one of count partitions.
+    static int partitionOf(int hash, int count) {
+        return ((hash ^ (hash >>> 16)) & 0x7fffffff) % count;
+    }
+}
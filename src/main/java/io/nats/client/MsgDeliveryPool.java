@@ -14,162 +14,602 @@
 package io.nats.client;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.locks.*;
-
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/*
+ * The library scoped pool of delivery threads, see Nats#createMsgDeliveryThreadPool.
+ *
+ * Unless subscriptions are pinned by the SID_HASH strategy, a balancer thread samples the busy time
+ * of the workers and of their subscriptions every balance interval, and moves the busiest
+ * subscriptions off the workers that are more loaded than others. Subscriptions are moved at safe
+ * points only, see MsgDeliveryWorker#tryMigrate, so their messages stay in order. When the pool has
+ * room to grow, a worker is added once the average utilization goes over GROW_UTILIZATION, and the
+ * least busy worker is retired once the others could take its load for SHRINK_SAMPLES intervals.
+ */
 class MsgDeliveryPool {
+    static final long DEFAULT_BALANCE_INTERVAL_MILLIS = 1000L;
+    // Moves subscriptions when the utilization of two workers differs by more than this.
+    static final double IMBALANCE = 0.2;
+    static final double GROW_UTILIZATION = 0.75;
+    static final double SHRINK_UTILIZATION = 0.5;
+    static final int SHRINK_SAMPLES = 3;
+
     private List<MsgDeliveryWorker> workers = null;
-    private int                     idx;
-    private boolean                 shutdown;
+    // Retired workers that still have subscriptions to hand over.
+    private final List<MsgDeliveryWorker> retiring = new ArrayList<MsgDeliveryWorker>();
+    private final int minSize;
+    private final int maxSize;
+    private final Nats.MsgDeliveryStrategy strategy;
+    private final long balanceIntervalMillis;
+    private Thread balancer;
+    private long lastSample;
+    private long samples;
+    private int idleSamples;
+    private final AtomicLong migrations = new AtomicLong();
+    private int idx;
+    private boolean shutdown;
 
     // Size is guaranteed to be >= 1 by caller.
     MsgDeliveryPool(int size) {
-        this.workers = new ArrayList<MsgDeliveryWorker>(size);
-        for (int i=0; i<size; i++) {
-            MsgDeliveryWorker w = new MsgDeliveryWorker();
-            w.start();
-            this.workers.add(w);
+        this(size, Nats.MsgDeliveryStrategy.ROUND_ROBIN);
+    }
+
+    MsgDeliveryPool(int size, Nats.MsgDeliveryStrategy strategy) {
+        this(size, size, strategy, DEFAULT_BALANCE_INTERVAL_MILLIS);
+    }
+
+    /*
+     * Creates a pool of minSize workers that grows up to maxSize. A balance interval of zero does
+     * not start the balancer thread, balance() is then up to the caller.
+     */
+    MsgDeliveryPool(int minSize, int maxSize, Nats.MsgDeliveryStrategy strategy,
+                    long balanceIntervalMillis) {
+        this.strategy = (strategy == null ? Nats.MsgDeliveryStrategy.ROUND_ROBIN : strategy);
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+        this.balanceIntervalMillis = balanceIntervalMillis;
+        this.workers = new ArrayList<MsgDeliveryWorker>(this.maxSize);
+        for (int i=0; i<minSize; i++) {
+            addWorker();
+        }
+        this.lastSample = System.nanoTime();
+        if (balanceIntervalMillis > 0 && isBalancing()) {
+            this.balancer = new Thread(new Runnable() {
+                public void run() {
+                    runBalancer();
+                }
+            }, "jnats-msg-delivery-balancer");
+            this.balancer.setDaemon(true);
+            this.balancer.start();
         }
     }
 
+    private MsgDeliveryWorker addWorker() {
+        MsgDeliveryWorker w = new MsgDeliveryWorker();
+        w.start();
+        this.workers.add(w);
+        return w;
+    }
+
     synchronized int getSize() {
         return this.workers.size();
     }
 
+    int getMinSize() {
+        return this.minSize;
+    }
+
+    int getMaxSize() {
+        return this.maxSize;
+    }
+
+    Nats.MsgDeliveryStrategy getStrategy() {
+        return this.strategy;
+    }
+
+    // Subscriptions are moved between workers, or the pool resized.
+    boolean isBalancing() {
+        return this.strategy != Nats.MsgDeliveryStrategy.SID_HASH || this.minSize < this.maxSize;
+    }
+
+    // Number of subscriptions moved to another worker.
+    long getMigrations() {
+        return this.migrations.get();
+    }
+
+    synchronized List<MsgDeliveryWorker> getWorkers() {
+        return new ArrayList<MsgDeliveryWorker>(this.workers);
+    }
+
+    // The sid must be set before, see Nats.MsgDeliveryStrategy#SID_HASH.
     synchronized void assignDeliveryWorker(AsyncSubscriptionImpl sub) {
-        int idx = this.idx;
-        if (++this.idx >= this.workers.size()) {
-            this.idx = 0;
-            idx = 0;
+        final int size = this.workers.size();
+        int idx;
+        switch (this.strategy) {
+            case SID_HASH:
+                idx = sidHash(sub) % size;
+                break;
+            case LEAST_LOADED:
+                idx = 0;
+                for (int i=1; i<size; i++) {
+                    if (this.workers.get(i).getLoad() < this.workers.get(idx).getLoad()) {
+                        idx = i;
+                    }
+                }
+                break;
+            default:
+                idx = this.idx;
+                if (++this.idx >= size) {
+                    this.idx = 0;
+                    idx = 0;
+                }
+                break;
         }
         final MsgDeliveryWorker worker = this.workers.get(idx);
+        worker.assign(sub);
         sub.setDeliveryWorker(worker);
     }
 
+    // Sids are per connection and start at 1, so the connection is mixed in to spread the
+    // subscriptions of connections sharing the pool.
+    private static int sidHash(AsyncSubscriptionImpl sub) {
+        final long sid = sub.getSid();
+        int h = (int) (sid ^ (sid >>> 32)) * 31 + System.identityHashCode(sub.conn);
+        h ^= (h >>> 16);
+        return h & 0x7fffffff;
+    }
+
+    /*
+     * Moves sub to target, right away if it has no messages being delivered, otherwise once the
+     * worker it is on gets to it. Returns true if it was moved right away.
+     */
+    synchronized boolean migrate(AsyncSubscriptionImpl sub, MsgDeliveryWorker target) {
+        if (this.shutdown) {
+            return false;
+        }
+        sub.lock();
+        try {
+            if (sub.closed || sub.dlvWorker == null || sub.dlvWorker == target) {
+                return false;
+            }
+            this.migrations.incrementAndGet();
+            // Written before the worker is checked, see MsgDeliveryWorker#deliver.
+            sub.migrateTo = target;
+            return sub.dlvWorker.tryMigrate(sub);
+        } finally {
+            sub.unlock();
+        }
+    }
+
+    private void runBalancer() {
+        synchronized (this) {
+            while (!this.shutdown) {
+                try {
+                    this.wait(this.balanceIntervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!this.shutdown) {
+                    balance();
+                }
+            }
+        }
+    }
+
+    /*
+     * Samples the utilization of the workers and of their subscriptions since the last call, then
+     * resizes the pool and moves subscriptions from the busiest workers to the least busy ones.
+     */
+    synchronized void balance() {
+        if (this.shutdown) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long elapsed = Math.max(1L, now - this.lastSample);
+        this.lastSample = now;
+        this.samples++;
+
+        double total = 0.0;
+        for (MsgDeliveryWorker w : this.workers) {
+            total += w.sample(now, elapsed);
+        }
+        for (int i = this.retiring.size() - 1; i >= 0; i--) {
+            final MsgDeliveryWorker w = this.retiring.get(i);
+            w.sample(now, elapsed);
+            if (!w.isAlive()) {
+                this.retiring.remove(i);
+            }
+        }
+
+        final int size = this.workers.size();
+        if (size < this.maxSize && total / size > GROW_UTILIZATION) {
+            // The new worker is the least busy, the loop below hands it subscriptions.
+            addWorker();
+            this.idleSamples = 0;
+        } else if (size > this.minSize && total < (size - 1) * SHRINK_UTILIZATION) {
+            if (++this.idleSamples >= SHRINK_SAMPLES) {
+                retire(leastBusy());
+                this.idleSamples = 0;
+            }
+        } else {
+            this.idleSamples = 0;
+        }
+
+        if (this.strategy == Nats.MsgDeliveryStrategy.SID_HASH || this.workers.size() < 2) {
+            return;
+        }
+        // Moves not done yet count as done, so that the same load is not moved twice.
+        for (MsgDeliveryWorker w : this.workers) {
+            for (AsyncSubscriptionImpl sub : w.getSubscriptions()) {
+                final MsgDeliveryWorker target = sub.migrateTo;
+                if (target != null) {
+                    w.adjustUtilization(-sub.utilization);
+                    target.adjustUtilization(sub.utilization);
+                }
+            }
+        }
+        for (int i = 0; i < this.workers.size(); i++) {
+            final MsgDeliveryWorker hot = busiest();
+            final MsgDeliveryWorker cold = leastBusy();
+            final double gap = hot.getUtilization() - cold.getUtilization();
+            // The utilization of the workers involved in the last round is not settled yet.
+            if (gap <= IMBALANCE || hot.balancedAt == this.samples - 1
+                    || cold.balancedAt == this.samples - 1) {
+                break;
+            }
+            // Move the busiest subscription that leaves both workers under the current peak.
+            AsyncSubscriptionImpl candidate = null;
+            for (AsyncSubscriptionImpl sub : hot.getSubscriptions()) {
+                final double u = sub.utilization;
+                if (u > 0.0 && u < gap && sub.migrateTo == null
+                        && (candidate == null || u > candidate.utilization)) {
+                    candidate = sub;
+                }
+            }
+            if (candidate == null) {
+                break;
+            }
+            migrate(candidate, cold);
+            hot.adjustUtilization(-candidate.utilization);
+            cold.adjustUtilization(candidate.utilization);
+            hot.balancedAt = this.samples;
+            cold.balancedAt = this.samples;
+        }
+    }
+
+    private MsgDeliveryWorker busiest() {
+        MsgDeliveryWorker best = this.workers.get(0);
+        for (int i = 1; i < this.workers.size(); i++) {
+            final MsgDeliveryWorker w = this.workers.get(i);
+            if (w.getUtilization() > best.getUtilization()
+                    || (w.getUtilization() == best.getUtilization()
+                    && w.getQueueDepth() > best.getQueueDepth())) {
+                best = w;
+            }
+        }
+        return best;
+    }
+
+    private MsgDeliveryWorker leastBusy() {
+        MsgDeliveryWorker best = this.workers.get(0);
+        for (int i = 1; i < this.workers.size(); i++) {
+            final MsgDeliveryWorker w = this.workers.get(i);
+            if (w.getUtilization() < best.getUtilization()
+                    || (w.getUtilization() == best.getUtilization()
+                    && w.getLoad() < best.getLoad())) {
+                best = w;
+            }
+        }
+        return best;
+    }
+
+    // Hands the subscriptions of w over to the other workers, it exits once they are all gone.
+    private void retire(MsgDeliveryWorker w) {
+        this.workers.remove(w);
+        if (this.idx >= this.workers.size()) {
+            this.idx = 0;
+        }
+        this.retiring.add(w);
+        w.retire();
+        for (AsyncSubscriptionImpl sub : w.getSubscriptions()) {
+            final MsgDeliveryWorker target = leastBusy();
+            migrate(sub, target);
+            target.adjustUtilization(sub.utilization);
+        }
+    }
+
     synchronized void shutdown() {
         if (this.shutdown) {
             return;
         }
         this.shutdown = true;
+        this.notifyAll();
         for (int i=0; i<this.workers.size(); i++) {
             final MsgDeliveryWorker w = this.workers.get(i);
             w.shutdown();
         }
+        for (int i=0; i<this.retiring.size(); i++) {
+            this.retiring.get(i).shutdown();
+        }
         this.workers.clear();
+        this.retiring.clear();
     }
 }
 
-class MsgDeliveryWorker extends Thread {
-    private final Lock          mu       = new ReentrantLock();
-    private final List<Message> msgs     = new LinkedList<Message>();
-    private final Condition     cond     = mu.newCondition();
-    private boolean             inWait   = false;
-    private boolean             shutdown = false;
+/*
+ * A delivery thread shared by asynchronous subscriptions. Messages stay in the channel of their
+ * subscription, the inbox of the worker is a lock-free queue of the subscriptions that have
+ * messages. A subscription is in the inbox at most once (see AsyncSubscriptionImpl#scheduled),
+ * so producers on any number of connections only contend on the lock of their own subscription.
+ * The worker drains up to BATCH_SIZE messages (or the batch limits of a BatchMessageHandler) per
+ * subscription at a time and puts it back at the end of the inbox if there are more, so busy
+ * subscriptions don't starve the others.
+ *
+ * The worker accounts for the time it spends delivering, in total and per subscription, and for
+ * the number of subscriptions in its inbox. The pool samples them to balance the load.
+ */
+class MsgDeliveryWorker extends Thread implements MsgDeliveryScheduler {
+    static final int BATCH_SIZE = 64;
+
+    private final Queue<AsyncSubscriptionImpl> ready =
+            new ConcurrentLinkedQueue<AsyncSubscriptionImpl>();
+    private final List<Message> batch = new ArrayList<Message>(BATCH_SIZE);
+    // Open subscriptions assigned to this worker.
+    private final Set<AsyncSubscriptionImpl> subs =
+            Collections.newSetFromMap(new ConcurrentHashMap<AsyncSubscriptionImpl, Boolean>());
+    // Number of subscriptions in the inbox.
+    private final AtomicInteger depth = new AtomicInteger();
+    // The subscription being delivered, see tryMigrate.
+    private volatile AsyncSubscriptionImpl current;
+    // Time spent delivering, only written by the worker.
+    private volatile long busyNanos;
+    // Start of the delivery in progress, zero if none.
+    private volatile long busySince;
+    // Sampled by the pool, guarded by the pool.
+    private long lastBusyNanos;
+    private double utilization;
+    // The last sample in which subscriptions were moved to or from this worker.
+    long balancedAt = -1L;
+    private volatile boolean inWait = false;
+    private volatile boolean retiring = false;
+    private volatile boolean shutdown = false;
 
     MsgDeliveryWorker() {
         this.setName("jnats-msg-delivery-worker-thread");
     }
 
-    // Add a message to the list and signal the worker thread.
-    // Lock is assumed held on entry.
+    // Queues a message for its subscription and wakes up its worker. The read loop queues messages
+    // in the channels itself and then calls schedule and signal, see ConnectionImpl#dispatchMsgs.
     void postMsg(Message msg) {
-        this.msgs.add(msg);
+        final AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) msg.getSubscription();
+        final MsgDeliveryWorker worker;
+        sub.lock();
+        try {
+            final BlockingQueue<Message> mch = sub.getChannel();
+            if (mch == null || !mch.offer(msg)) {
+                return;
+            }
+            sub.pMsgs++;
+            sub.pBytes += msg.getDataLength();
+            // Not necessarily this one if the subscription was moved.
+            worker = sub.dlvWorker;
+            worker.schedule(sub);
+        } finally {
+            sub.unlock();
+        }
+        worker.signal();
+    }
+
+    // Adds the subscription to the inbox unless it is already there. Assumes the sub lock is
+    // held, which orders this with the worker deciding whether the channel was drained.
+    @Override
+    public void schedule(AsyncSubscriptionImpl sub) {
+        if (sub.scheduled.compareAndSet(false, true)) {
+            enqueue(sub);
+        }
+    }
+
+    private void enqueue(AsyncSubscriptionImpl sub) {
+        this.depth.incrementAndGet();
+        this.ready.offer(sub);
+    }
+
+    // Wakes up the worker if it is waiting for subscriptions to be scheduled.
+    @Override
+    public void signal() {
         if (this.inWait) {
-            this.cond.signal();
+            LockSupport.unpark(this);
+        }
+    }
+
+    void assign(AsyncSubscriptionImpl sub) {
+        this.subs.add(sub);
+    }
+
+    void unassign(AsyncSubscriptionImpl sub) {
+        if (this.subs.remove(sub) && this.retiring) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    int getLoad() {
+        return this.subs.size();
+    }
+
+    List<AsyncSubscriptionImpl> getSubscriptions() {
+        return new ArrayList<AsyncSubscriptionImpl>(this.subs);
+    }
+
+    int getQueueDepth() {
+        return this.depth.get();
+    }
+
+    long getBusyTime(TimeUnit unit) {
+        return unit.convert(this.busyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Computes the share of the last elapsed nanoseconds the worker and each of its subscriptions
+     * spent delivering, including the delivery in progress so that long batches don't make the
+     * samples lumpy. Returns the utilization of the worker. Called by the pool only.
+     */
+    double sample(long now, long elapsed) {
+        // The delivery in progress may complete in between, then it is counted in the next sample.
+        long busy = this.busyNanos;
+        final AsyncSubscriptionImpl cur = this.current;
+        final long since = this.busySince;
+        final long inProgress = (since == 0L ? 0L : Math.max(0L, now - since));
+        busy += inProgress;
+        this.utilization = ratio(busy - this.lastBusyNanos, elapsed);
+        this.lastBusyNanos = busy;
+        for (AsyncSubscriptionImpl sub : this.subs) {
+            long subBusy = sub.busyNanos;
+            if (sub == cur) {
+                subBusy += inProgress;
+            }
+            sub.utilization = ratio(subBusy - sub.lastBusyNanos, elapsed);
+            sub.lastBusyNanos = subBusy;
+        }
+        return this.utilization;
+    }
+
+    private static double ratio(long busy, long elapsed) {
+        return Math.max(0.0, Math.min(1.0, (double) busy / elapsed));
+    }
+
+    double getUtilization() {
+        return this.utilization;
+    }
+
+    // Accounts for a subscription moved in or out until the next sample.
+    void adjustUtilization(double delta) {
+        this.utilization += delta;
+    }
+
+    /*
+     * Moves sub to sub.migrateTo if this worker is not delivering it and it is not in the inbox,
+     * otherwise this is left to the worker, see deliver. Assumes the sub lock is held, and that
+     * migrateTo was set before this is called.
+     */
+    boolean tryMigrate(AsyncSubscriptionImpl sub) {
+        final MsgDeliveryWorker target = sub.migrateTo;
+        if (target == null || sub.scheduled.get() || this.current == sub) {
+            return false;
         }
+        moveTo(sub, target);
+        return true;
+    }
+
+    private void moveTo(AsyncSubscriptionImpl sub, MsgDeliveryWorker target) {
+        sub.migrateTo = null;
+        sub.dlvWorker = target;
+        target.assign(sub);
+        unassign(sub);
+    }
+
+    // Exits once the subscriptions of the worker have all been moved to other workers.
+    void retire() {
+        this.retiring = true;
+        LockSupport.unpark(this);
     }
 
     @Override
     public void run() {
-        Message msg = null;
-        AsyncSubscriptionImpl sub = null;
-        ConnectionImpl nc = null;
-        MessageHandler mcb = null;
-        long max = 0;
-        long delivered = 0;
-
-        this.mu.lock();
         while (true) {
-            while (this.msgs.isEmpty() && !this.shutdown) {
-                this.inWait = true;
-                try { this.cond.await(); } catch (InterruptedException e) {}
-                this.inWait = false;
+            final AsyncSubscriptionImpl sub = this.ready.poll();
+            if (sub != null) {
+                this.depth.decrementAndGet();
+                final long start = System.nanoTime();
+                this.current = sub;
+                this.busySince = start;
+                try {
+                    deliver(sub);
+                } finally {
+                    final long busy = System.nanoTime() - start;
+                    sub.busyNanos += busy;
+                    this.busyNanos += busy;
+                    this.busySince = 0L;
+                    this.current = null;
+                }
+                afterDeliver(sub);
+                continue;
             }
             // Exit only when all messages have been dispatched
-            if (this.msgs.isEmpty() && this.shutdown) {
+            if (this.shutdown || (this.retiring && this.subs.isEmpty())) {
                 break;
             }
-            // Remove first message from list.
-            msg = this.msgs.remove(0);
-
-            // Get subscription reference from message
-            sub = (AsyncSubscriptionImpl) msg.getSubscription();
-            // If sub is closed, simply go back at beginning of loop.
-            if (sub.closed) {
-                continue;
+            // Producers offer before checking inWait, so one of us sees the other.
+            this.inWait = true;
+            if (this.ready.isEmpty() && !this.shutdown
+                    && !(this.retiring && this.subs.isEmpty())) {
+                LockSupport.park(this);
             }
+            this.inWait = false;
+        }
+    }
 
-            // Capture these under lock
-            nc = sub.conn;
-            mcb = sub.msgHandler;
-            max = sub.max;
-
-            sub.pMsgs--;
-            sub.pBytes -= (msg.getData() == null ? 0 : msg.getData().length);
-
-            delivered = ++(sub.delivered);
-            this.mu.unlock();
+    // Delivers the next batch of messages of sub.
+    private void deliver(AsyncSubscriptionImpl sub) {
+        if (sub.migrateTo != null && handOver(sub)) {
+            return;
+        }
+        if (sub.deliverNext(this.batch, BATCH_SIZE, true)) {
+            enqueue(sub);
+        }
+    }
 
-            if ((max == 0) || (delivered <= max)) {
-                try {
-                    mcb.onMessage(msg);
-                } catch (Throwable t) {
-                    // Ignore any exception thrown in the user callback.
-                }
+    // Moves sub to sub.migrateTo with its place in the inbox, nothing of sub is being delivered.
+    private boolean handOver(AsyncSubscriptionImpl sub) {
+        sub.lock();
+        try {
+            final MsgDeliveryWorker target = sub.migrateTo;
+            if (target == null || sub.closed) {
+                return false;
             }
+            moveTo(sub, target);
+            target.enqueue(sub);
+            target.signal();
+            return true;
+        } finally {
+            sub.unlock();
+        }
+    }
 
-            // Don't do 'else' because we need to remove when we have hit
-            // the max (after the callback returns).
-            if ((max > 0) && (delivered >= max))
-            {
-                // If we have hit the max for delivered msgs, remove sub.
-                nc.mu.lock();
-                try {
-                    nc.removeSub(sub);
-                } finally {
-                    nc.mu.unlock();
-                }
+    // Completes a move requested while sub was being delivered, unless it is back in the inbox.
+    // current was cleared before migrateTo is read, see MsgDeliveryPool#migrate.
+    private void afterDeliver(AsyncSubscriptionImpl sub) {
+        if (sub.migrateTo == null) {
+            return;
+        }
+        sub.lock();
+        try {
+            if (sub.dlvWorker == this && !sub.closed) {
+                tryMigrate(sub);
             }
-
-            this.mu.lock();
+        } finally {
+            sub.unlock();
         }
-        this.mu.unlock();
     }
 
     void shutdown() {
-        this.mu.lock();
         if (this.shutdown) {
-            this.mu.unlock();
             return;
         }
         this.shutdown = true;
-        if (this.inWait) {
-            this.cond.signal();
-        }
-        this.mu.unlock();
+        LockSupport.unpark(this);
 
         if (Thread.currentThread() != this) {
             try { this.join(); } catch (InterruptedException e) {}
         }
     }
-
-    void lock() {
-        this.mu.lock();
-    }
-
-    void unlock() {
-        this.mu.unlock();
-    }
-}
\ No newline at end of file
+}
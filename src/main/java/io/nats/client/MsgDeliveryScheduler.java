@@ -0,0 +1,26 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package io.nats.client;
+
+/*
+ * Runs the delivery of async subscriptions that are not delivered by a thread of their own, see
+ * MsgDeliveryWorker and ExecutorDelivery. The read loop queues messages in the channel of a
+ * subscription and calls schedule under the sub lock, then signal once the lock is released.
+ */
+interface MsgDeliveryScheduler {
+    void schedule(AsyncSubscriptionImpl sub);
+
+    void signal();
+}
@@ -107,6 +107,30 @@ public final class Nats {
         CONNECTING
     }
 
+    /**
+     * How the message delivery thread pool assigns subscriptions to its threads, see
+     * {@link Nats#createMsgDeliveryThreadPool(int, MsgDeliveryStrategy)}. The messages of a
+     * subscription are delivered by one thread at a time, so they stay in order. Except with
+     * {@link #SID_HASH}, the pool moves the busiest subscriptions off threads that are more
+     * loaded than others.
+     */
+    public enum MsgDeliveryStrategy {
+        /**
+         * Subscriptions are assigned to the threads in turn. This is the default.
+         */
+        ROUND_ROBIN,
+        /**
+         * Subscriptions are assigned by a hash of their sid and connection, so the assignment
+         * does not depend on the order in which subscriptions are created. Subscriptions are
+         * pinned to their thread, they are moved only when the pool shrinks.
+         */
+        SID_HASH,
+        /**
+         * Subscriptions are assigned to the thread with the fewest open subscriptions.
+         */
+        LEAST_LOADED
+    }
+
     /**
      * Default server host.
      *
@@ -216,6 +240,31 @@ public final class Nats {
      * This property is defined as String {@value #PROP_USE_GLOBAL_MSG_DELIVERY}.
      */
     public static final String PROP_USE_GLOBAL_MSG_DELIVERY = PFX + "use.global.msg.delivery";
+    /**
+     * This property is defined as String {@value #PROP_USE_VIRTUAL_THREAD_DELIVERY}.
+     */
+    public static final String PROP_USE_VIRTUAL_THREAD_DELIVERY =
+            PFX + "use.virtual.thread.delivery";
+    /**
+     * This property is defined as String {@value #PROP_READ_BUFFER_POOL_SIZE}.
+     */
+    public static final String PROP_READ_BUFFER_POOL_SIZE = PFX + "read.buffer.pool.size";
+    /**
+     * This property is defined as String {@value #PROP_SPLIT_BUFFER_POOL_CAP}.
+     */
+    public static final String PROP_SPLIT_BUFFER_POOL_CAP = PFX + "split.buffer.pool.cap";
+    /**
+     * This property is defined as String {@value #PROP_INLINE_HANDLER_BUDGET}, in microseconds.
+     */
+    public static final String PROP_INLINE_HANDLER_BUDGET = PFX + "inline.handler.budget";
+    /**
+     * This property is defined as String {@value #PROP_USE_WRITER_THREAD}.
+     */
+    public static final String PROP_USE_WRITER_THREAD = PFX + "use.writer.thread";
+    /**
+     * This property is defined as String {@value #PROP_WRITE_HIGH_WATER_MARK}.
+     */
+    public static final String PROP_WRITE_HIGH_WATER_MARK = PFX + "write.high.water.mark";
 
     /*
      * Constants
@@ -282,6 +331,29 @@ public final class Nats {
      */
     public static final int DEFAULT_RECONNECT_BUF_SIZE = 8 * 1024 * 1024;
 
+    /**
+     * Default maximum number of bytes kept in a connection's pool of buffers for messages split
+     * across reads.
+     *
+     * <p>This property is defined as String {@value #DEFAULT_SPLIT_BUFFER_POOL_CAP}
+     */
+    public static final int DEFAULT_SPLIT_BUFFER_POOL_CAP = 8 * 1024 * 1024;
+
+    /**
+     * Default time budget of an {@link InlineMessageHandler} call, in microseconds.
+     *
+     * <p>This property is defined as String {@value #DEFAULT_INLINE_HANDLER_BUDGET}
+     */
+    public static final int DEFAULT_INLINE_HANDLER_BUDGET = 1000;
+
+    /**
+     * Default number of bytes queued for the writer thread above which publishers wait, see
+     * {@link Options.Builder#useWriterThread(boolean)}.
+     *
+     * <p>This property is defined as String {@value #DEFAULT_WRITE_HIGH_WATER_MARK}
+     */
+    public static final int DEFAULT_WRITE_HIGH_WATER_MARK = 1024 * 1024;
+
     // Common messages
 
     /**
@@ -308,6 +380,11 @@ public final class Nats {
      * This error message is defined as String {@value #ERR_SLOW_CONSUMER}.
      */
     public static final String ERR_SLOW_CONSUMER = "nats: slow consumer, messages dropped";
+    /**
+     * This error message is defined as String {@value #ERR_INLINE_HANDLER_OVER_BUDGET}.
+     */
+    public static final String ERR_INLINE_HANDLER_OVER_BUDGET =
+            "nats: inline message handler exceeded its time budget";
     /**
      * This error message is defined as String {@value #ERR_TCP_FLUSH_FAILED}.
      */
@@ -380,6 +457,10 @@ public final class Nats {
      * This error message is defined as String {@value #ERR_PROTOCOL}.
      */
     public static final String ERR_PROTOCOL = "nats: protocol error";
+    /**
+     * This error message is defined as String {@value #ERR_MSG_RELEASED}.
+     */
+    public static final String ERR_MSG_RELEASED = "nats: message payload has been released";
 
     // Other string constants
 
@@ -495,14 +576,30 @@ public final class Nats {
      * Creating a message delivery thread pool will limit the
      * number of threads used for message delivery. The use of this
      * thread pool still guarantees that messages from a given subscription
-     * are dispatched in order. In other words, a subscription is bound
-     * to a given thread in the pool.
+     * are dispatched in order. In other words, a subscription is delivered
+     * by one thread of the pool at a time. Subscriptions are moved from
+     * busy threads to idle ones in between two deliveries.
      *
      * @param size the size of the thread pool
      * @throws IllegalArgumentException if size is lower or equal to zero.
      * @throws IllegalStateException if pool has already been created.
      */
     synchronized public static void createMsgDeliveryThreadPool(int size) {
+        createMsgDeliveryThreadPool(size, MsgDeliveryStrategy.ROUND_ROBIN);
+    }
+
+    /**
+     * Create a library scoped message delivery thread pool that assigns subscriptions to its
+     * threads according to {@code strategy}.
+     *
+     * @param size the size of the thread pool
+     * @param strategy how subscriptions are assigned to the threads
+     * @throws IllegalArgumentException if size is lower or equal to zero.
+     * @throws IllegalStateException if pool has already been created.
+     * @see #createMsgDeliveryThreadPool(int)
+     */
+    synchronized public static void createMsgDeliveryThreadPool(int size,
+                                                                MsgDeliveryStrategy strategy) {
         if (size <= 0) {
             throw new IllegalArgumentException("Pool size cannot be set to a value lower than 1");
         }
@@ -510,7 +607,40 @@ public final class Nats {
             throw new IllegalStateException("Pool has already been created");
         }
         // Create the pool only when calling with a size >= 1.
-        globalMsgDeliveryPool = new MsgDeliveryPool(size);
+        globalMsgDeliveryPool = new MsgDeliveryPool(size, strategy);
+    }
+
+    /**
+     * Create a library scoped message delivery thread pool that grows and shrinks with the load.
+     * <p>
+     * The pool starts with {@code minSize} threads. Every second, it samples how busy each thread
+     * was delivering messages. A thread is added, up to {@code maxSize}, when the average
+     * utilization of the threads goes over 75%, and the least busy thread is retired when the
+     * others have been able to take its load for a few seconds. The subscriptions of a retired
+     * thread are moved to the others, in between two deliveries, so their messages stay in order.
+     *
+     * @param minSize the minimum size of the thread pool
+     * @param maxSize the maximum size of the thread pool
+     * @param strategy how subscriptions are assigned to the threads
+     * @throws IllegalArgumentException if minSize is lower or equal to zero, or maxSize is lower
+     *         than minSize.
+     * @throws IllegalStateException if pool has already been created.
+     * @see #createMsgDeliveryThreadPool(int, MsgDeliveryStrategy)
+     */
+    synchronized public static void createMsgDeliveryThreadPool(int minSize, int maxSize,
+                                                                MsgDeliveryStrategy strategy) {
+        if (minSize <= 0) {
+            throw new IllegalArgumentException("Pool size cannot be set to a value lower than 1");
+        }
+        if (maxSize < minSize) {
+            throw new IllegalArgumentException(
+                    "Pool maximum size cannot be lower than its minimum size");
+        }
+        if (globalMsgDeliveryPool != null) {
+            throw new IllegalStateException("Pool has already been created");
+        }
+        globalMsgDeliveryPool = new MsgDeliveryPool(minSize, maxSize, strategy,
+                MsgDeliveryPool.DEFAULT_BALANCE_INTERVAL_MILLIS);
     }
 
     /**
@@ -13,11 +13,14 @@
 
 package io.nats.client;
 
+import static io.nats.client.Nats.DEFAULT_INLINE_HANDLER_BUDGET;
+import static io.nats.client.Nats.DEFAULT_WRITE_HIGH_WATER_MARK;
 import static io.nats.client.Nats.DEFAULT_MAX_PINGS_OUT;
 import static io.nats.client.Nats.DEFAULT_MAX_RECONNECT;
 import static io.nats.client.Nats.DEFAULT_PING_INTERVAL;
 import static io.nats.client.Nats.DEFAULT_RECONNECT_BUF_SIZE;
 import static io.nats.client.Nats.DEFAULT_RECONNECT_WAIT;
+import static io.nats.client.Nats.DEFAULT_SPLIT_BUFFER_POOL_CAP;
 import static io.nats.client.Nats.DEFAULT_TIMEOUT;
 import static io.nats.client.Nats.DEFAULT_URL;
 import static io.nats.client.Nats.PROP_CLOSED_CB;
@@ -31,6 +34,9 @@ import static io.nats.client.Nats.PROP_NORANDOMIZE;
 import static io.nats.client.Nats.PROP_PASSWORD;
 import static io.nats.client.Nats.PROP_PEDANTIC;
 import static io.nats.client.Nats.PROP_PING_INTERVAL;
+import static io.nats.client.Nats.PROP_READ_BUFFER_POOL_SIZE;
+import static io.nats.client.Nats.PROP_SPLIT_BUFFER_POOL_CAP;
+import static io.nats.client.Nats.PROP_INLINE_HANDLER_BUDGET;
 import static io.nats.client.Nats.PROP_RECONNECTED_CB;
 import static io.nats.client.Nats.PROP_RECONNECT_ALLOWED;
 import static io.nats.client.Nats.PROP_RECONNECT_BUF_SIZE;
@@ -42,6 +48,9 @@ import static io.nats.client.Nats.PROP_URL;
 import static io.nats.client.Nats.PROP_USERNAME;
 import static io.nats.client.Nats.PROP_USE_OLD_REQUEST_STYLE;
 import static io.nats.client.Nats.PROP_USE_GLOBAL_MSG_DELIVERY;
+import static io.nats.client.Nats.PROP_USE_VIRTUAL_THREAD_DELIVERY;
+import static io.nats.client.Nats.PROP_USE_WRITER_THREAD;
+import static io.nats.client.Nats.PROP_WRITE_HIGH_WATER_MARK;
 import static io.nats.client.Nats.PROP_VERBOSE;
 
 import java.io.IOException;
@@ -52,6 +61,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLContext;
 
@@ -92,6 +102,20 @@ public class Options {
     final int maxPingsOut;
     final boolean useOldRequestStyle;
     final boolean useGlobalMsgDelivery;
+    // Run the delivery loops of async subscriptions on virtual threads where available
+    final boolean useVirtualThreadDelivery;
+    // Number of pooled read buffers, 0 means messages copy their payload out of the read buffer
+    final int readBufferPoolSize;
+    // Max bytes retained by the pool of buffers for messages split across reads
+    final int splitBufferPoolCap;
+    // Time budget of inline message handler calls in nanoseconds, 0 disables the watchdog
+    final long inlineHandlerBudget;
+    // Runs the delivery of async subscriptions, null for the delivery threads of the library
+    final Executor deliveryExecutor;
+    // Publishers queue to a ring drained by a dedicated writer thread instead of the flusher
+    final boolean useWriterThread;
+    // Bytes queued for the writer thread above which publishers wait
+    final int writeHighWaterMark;
     // Connection handlers
     public ClosedCallback closedCb;
     public DisconnectedCallback disconnectedCb;
@@ -135,6 +159,13 @@ public class Options {
         this.maxPingsOut = builder.maxPingsOut;
         this.useOldRequestStyle = builder.useOldRequestStyle;
         this.useGlobalMsgDelivery = builder.useGlobalMsgDelivery;
+        this.useVirtualThreadDelivery = builder.useVirtualThreadDelivery;
+        this.readBufferPoolSize = builder.readBufferPoolSize;
+        this.splitBufferPoolCap = builder.splitBufferPoolCap;
+        this.inlineHandlerBudget = builder.inlineHandlerBudget;
+        this.deliveryExecutor = builder.deliveryExecutor;
+        this.useWriterThread = builder.useWriterThread;
+        this.writeHighWaterMark = builder.writeHighWaterMark;
         this.sslContext = builder.sslContext;
         this.tlsDebug = builder.tlsDebug;
         this.disconnectedCb = builder.disconnectedCb;
@@ -175,6 +206,13 @@ public class Options {
                 && Integer.compare(maxPingsOut, other.maxPingsOut) == 0
                 && Boolean.compare(useOldRequestStyle, other.useOldRequestStyle) == 0
                 && Boolean.compare(useGlobalMsgDelivery, other.useGlobalMsgDelivery) == 0
+                && Boolean.compare(useVirtualThreadDelivery, other.useVirtualThreadDelivery) == 0
+                && Integer.compare(readBufferPoolSize, other.readBufferPoolSize) == 0
+                && Integer.compare(splitBufferPoolCap, other.splitBufferPoolCap) == 0
+                && Long.compare(inlineHandlerBudget, other.inlineHandlerBudget) == 0
+                && deliveryExecutor == other.deliveryExecutor
+                && Boolean.compare(useWriterThread, other.useWriterThread) == 0
+                && Integer.compare(writeHighWaterMark, other.writeHighWaterMark) == 0
                 && (sslContext == null ? other.sslContext == null : sslContext.equals(other
                 .sslContext))
                 && Boolean.compare(tlsDebug, other.tlsDebug) == 0
@@ -192,7 +230,12 @@ public class Options {
     public int hashCode() {
         return Objects.hash(url, username, password, token, servers, noRandomize, connectionName,
                 verbose, pedantic, secure, allowReconnect, maxReconnect, reconnectBufSize,
-                reconnectWait, connectionTimeout, pingInterval, maxPingsOut, useOldRequestStyle, useGlobalMsgDelivery, sslContext, tlsDebug,
+                reconnectWait, connectionTimeout, pingInterval, maxPingsOut, useOldRequestStyle,
+                useGlobalMsgDelivery, useVirtualThreadDelivery, readBufferPoolSize,
+                splitBufferPoolCap,
+                inlineHandlerBudget, deliveryExecutor, useWriterThread, writeHighWaterMark,
+                sslContext,
+                tlsDebug,
                 factory, disconnectedCb, closedCb, reconnectedCb, asyncErrorCb);
     }
 
@@ -307,6 +350,30 @@ public class Options {
 
     public boolean isUsingGlobalMsgDelivery() { return useGlobalMsgDelivery; }
 
+    public boolean isUsingVirtualThreadDelivery() { return useVirtualThreadDelivery; }
+
+    public int getReadBufferPoolSize() {
+        return readBufferPoolSize;
+    }
+
+    public int getSplitBufferPoolCap() {
+        return splitBufferPoolCap;
+    }
+
+    public long getInlineHandlerBudget(TimeUnit unit) {
+        return unit.convert(inlineHandlerBudget, TimeUnit.NANOSECONDS);
+    }
+
+    public Executor getDeliveryExecutor() {
+        return deliveryExecutor;
+    }
+
+    public boolean isUsingWriterThread() { return useWriterThread; }
+
+    public int getWriteHighWaterMark() {
+        return writeHighWaterMark;
+    }
+
     public ExceptionHandler getExceptionHandler() {
         return asyncErrorCb;
     }
@@ -369,6 +436,14 @@ public class Options {
         private int maxPingsOut = DEFAULT_MAX_PINGS_OUT;
         private boolean useOldRequestStyle;
         private boolean useGlobalMsgDelivery = (Nats.getMsgDeliveryThreadPool() != null);
+        private boolean useVirtualThreadDelivery;
+        private int readBufferPoolSize;
+        private int splitBufferPoolCap = DEFAULT_SPLIT_BUFFER_POOL_CAP;
+        private long inlineHandlerBudget =
+                TimeUnit.MICROSECONDS.toNanos(DEFAULT_INLINE_HANDLER_BUDGET);
+        private Executor deliveryExecutor;
+        private boolean useWriterThread;
+        private int writeHighWaterMark = DEFAULT_WRITE_HIGH_WATER_MARK;
         private SSLContext sslContext;
         private boolean tlsDebug;
         private TcpConnectionFactory factory;
@@ -411,6 +486,13 @@ public class Options {
             this.factory = template.factory;
             this.useOldRequestStyle = template.useOldRequestStyle;
             this.useGlobalMsgDelivery = template.useGlobalMsgDelivery;
+            this.useVirtualThreadDelivery = template.useVirtualThreadDelivery;
+            this.readBufferPoolSize = template.readBufferPoolSize;
+            this.splitBufferPoolCap = template.splitBufferPoolCap;
+            this.inlineHandlerBudget = template.inlineHandlerBudget;
+            this.deliveryExecutor = template.deliveryExecutor;
+            this.useWriterThread = template.useWriterThread;
+            this.writeHighWaterMark = template.writeHighWaterMark;
         }
 
         public Builder() {
@@ -516,6 +598,39 @@ public class Options {
             if (props.containsKey(PROP_USE_GLOBAL_MSG_DELIVERY)) {
                 this.useGlobalMsgDelivery = Boolean.parseBoolean(props.getProperty(PROP_USE_GLOBAL_MSG_DELIVERY));
             }
+            // PROP_USE_VIRTUAL_THREAD_DELIVERY
+            if (props.containsKey(PROP_USE_VIRTUAL_THREAD_DELIVERY)) {
+                this.useVirtualThreadDelivery = Boolean.parseBoolean(
+                        props.getProperty(PROP_USE_VIRTUAL_THREAD_DELIVERY));
+            }
+            // PROP_READ_BUFFER_POOL_SIZE
+            if (props.containsKey(PROP_READ_BUFFER_POOL_SIZE)) {
+                this.readBufferPoolSize = Integer.parseInt(
+                        props.getProperty(PROP_READ_BUFFER_POOL_SIZE, "0"));
+            }
+            // PROP_SPLIT_BUFFER_POOL_CAP
+            if (props.containsKey(PROP_SPLIT_BUFFER_POOL_CAP)) {
+                this.splitBufferPoolCap = Integer.parseInt(props.getProperty(
+                        PROP_SPLIT_BUFFER_POOL_CAP,
+                        Integer.toString(DEFAULT_SPLIT_BUFFER_POOL_CAP)));
+            }
+            // PROP_INLINE_HANDLER_BUDGET
+            if (props.containsKey(PROP_INLINE_HANDLER_BUDGET)) {
+                this.inlineHandlerBudget = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(
+                        props.getProperty(PROP_INLINE_HANDLER_BUDGET)));
+            }
+            // PROP_USE_WRITER_THREAD
+            if (props.containsKey(PROP_USE_WRITER_THREAD)) {
+                this.useWriterThread = Boolean.parseBoolean(
+                        props.getProperty(PROP_USE_WRITER_THREAD));
+            }
+            // PROP_WRITE_HIGH_WATER_MARK
+            if (props.containsKey(PROP_WRITE_HIGH_WATER_MARK)) {
+                this.writeHighWaterMark = Integer.parseInt(props.getProperty(
+                        PROP_WRITE_HIGH_WATER_MARK,
+                        Integer.toString(DEFAULT_WRITE_HIGH_WATER_MARK)));
+            }
+
             // PROP_EXCEPTION_HANDLER
             if (props.containsKey(PROP_EXCEPTION_HANDLER)) {
                 Object instance;
@@ -718,6 +833,127 @@ public class Options {
             return this;
         }
 
+        /**
+         * Runs the message delivery loop of each asynchronous subscription on its own virtual
+         * thread instead of a platform thread, so that a large number of subscriptions does not
+         * need as many OS threads. Virtual threads require Java 21, on older JVMs this option has
+         * no effect. Subscriptions using the global message delivery pool (see
+         * {@link #useGlobalMsgDelivery(boolean)}) are not affected.
+         *
+         * @param use whether to deliver messages on virtual threads
+         * @return the {@link Builder}
+         */
+        public Builder useVirtualThreadDelivery(boolean use) {
+            this.useVirtualThreadDelivery = use;
+            return this;
+        }
+
+        /**
+         * Enables zero-copy message delivery. The connection keeps a pool of {@code size} read
+         * buffers and received messages reference their payload in the read buffer instead of
+         * copying it. See {@link Message#release()}. A size of 0 (the default) disables it.
+         *
+         * @param size the number of read buffers kept in the pool
+         * @return the {@link Builder}
+         */
+        public Builder readBufferPoolSize(int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException(
+                        "nats: read buffer pool size cannot be negative");
+            }
+            this.readBufferPoolSize = size;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of bytes the connection keeps in its pool of buffers for
+         * messages whose payload is split across reads. Buffers are reused for later large
+         * messages instead of being allocated for each one. A cap of 0 disables pooling. The
+         * default is {@value Nats#DEFAULT_SPLIT_BUFFER_POOL_CAP}.
+         *
+         * @param cap the maximum number of bytes retained by the pool
+         * @return the {@link Builder}
+         */
+        public Builder splitBufferPoolCap(int cap) {
+            if (cap < 0) {
+                throw new IllegalArgumentException(
+                        "nats: split buffer pool cap cannot be negative");
+            }
+            this.splitBufferPoolCap = cap;
+            return this;
+        }
+
+        /**
+         * Sets the time budget of a call to an {@link InlineMessageHandler}. Calls that take
+         * longer are reported to the {@link ExceptionHandler}, see {@link InlineMessageHandler}.
+         * A budget of 0 disables the check. The default is
+         * {@value Nats#DEFAULT_INLINE_HANDLER_BUDGET} microseconds.
+         *
+         * @param budget the maximum duration of a call
+         * @param unit   the unit of {@code budget}
+         * @return the {@link Builder}
+         */
+        public Builder inlineHandlerBudget(long budget, TimeUnit unit) {
+            if (budget < 0) {
+                throw new IllegalArgumentException(
+                        "nats: inline handler budget cannot be negative");
+            }
+            this.inlineHandlerBudget = unit.toNanos(budget);
+            return this;
+        }
+
+        /**
+         * Delivers the messages of asynchronous subscriptions with tasks submitted to
+         * {@code executor}, for instance an application's
+         * {@link java.util.concurrent.ForkJoinPool}, instead of a thread per subscription or the
+         * global message delivery pool. Each task delivers a batch of messages of one subscription
+         * and submits the next one if there are more, so messages of a subscription are still
+         * delivered in order. The executor is not shut down when the connection is closed. A
+         * subscription can use another executor, see
+         * {@link Connection#subscribe(String, String, MessageHandler, Executor)}. {@code null}
+         * (the default) restores the delivery threads.
+         *
+         * @param executor the executor that runs the message handlers
+         * @return the {@link Builder}
+         */
+        public Builder deliveryExecutor(Executor executor) {
+            this.deliveryExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sends outbound messages from a dedicated writer thread. Publishers encode their messages
+         * into a lock-free ring of pre-allocated slots and return without taking the connection
+         * lock or waiting for the socket, the writer thread drains the ring into the socket and
+         * flushes once per pass. This replaces the flusher thread. Publishers only wait when the
+         * bytes not yet written reach the high water mark, see
+         * {@link #writeHighWaterMark(int)}.
+         *
+         * @param use whether to write to the socket from a dedicated thread
+         * @return the {@link Builder}
+         */
+        public Builder useWriterThread(boolean use) {
+            this.useWriterThread = use;
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes queued for the writer thread above which publishers wait for
+         * it to catch up. Only used with {@link #useWriterThread(boolean)}. A message larger than
+         * the high water mark is queued once nothing else is. The default is
+         * {@value Nats#DEFAULT_WRITE_HIGH_WATER_MARK}.
+         *
+         * @param bytes the high water mark in bytes
+         * @return the {@link Builder}
+         */
+        public Builder writeHighWaterMark(int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("nats: write high water mark must be positive");
+            }
+            this.writeHighWaterMark = bytes;
+            return this;
+        }
+
         /**
          * Creates a {@link Options} instance based on the current configuration.
          *
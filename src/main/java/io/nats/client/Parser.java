@@ -45,6 +45,7 @@ import static io.nats.client.Parser.NatsOp.OP_PONG;
 import static io.nats.client.Parser.NatsOp.OP_START;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.ParseException;
 
 class Parser {
@@ -55,10 +56,26 @@ class Parser {
     final ConnectionImpl nc;
 
     ParseState ps = new ParseState();
+    // Chunk buffer for parsing direct buffers without a read buffer pool
+    private byte[] scratch;
 
     static final int ascii_0 = 48;
     static final int ascii_9 = 57;
 
+    // Constants for word-at-a-time (SWAR) byte searches
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long LF_WORD = ONES * '\n';
+    private static final long SPC_WORD = ONES * ' ';
+    private static final long TAB_WORD = ONES * '\t';
+
+    // Recognize complete MSG control lines without going through the state machine.
+    // Package-private so that it can be switched off for comparison in tests.
+    boolean fastPath = true;
+
+    // Little endian long view over the buffer being parsed, used for SWAR scanning.
+    private ByteBuffer longView;
+
     enum NatsOp {
         OP_START, /* Start of message */
         OP_PLUS, OP_PLUS_O, OP_PLUS_OK, /* +OK */
@@ -82,11 +99,64 @@ class Parser {
     }
 
     void parse(byte[] buf, int len) throws ParseException, InterruptedException {
+        parse(buf, 0, len);
+    }
+
+    void parse(byte[] buf, int offset, int length) throws ParseException, InterruptedException {
+        try {
+            parseBuffer(buf, offset, offset + length);
+        } finally {
+            // Hand the messages found in this buffer over to their subscriptions.
+            nc.dispatchMsgs();
+        }
+    }
+
+    /*
+     * Parses the remaining bytes of src and advances its position to its limit. Heap buffers are
+     * parsed in place. Direct and memory-mapped buffers are copied into a read buffer one chunk at
+     * a time; with pooled read buffers (see Options.Builder#readBufferPoolSize) the messages
+     * reference that chunk, so their payload is copied only once on the way to the subscriber.
+     * Messages split across calls are handled the same way as for byte arrays.
+     */
+    void parse(ByteBuffer src) throws ParseException, InterruptedException {
+        if (src.hasArray()) {
+            int length = src.remaining();
+            parse(src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.position() + length);
+            return;
+        }
+        final ReadBufferPool pool = nc.getReadBufferPool();
+        while (src.hasRemaining()) {
+            if (pool != null) {
+                ReadBuffer rb = pool.acquire();
+                int length = Math.min(src.remaining(), rb.buf.length);
+                src.get(rb.buf, 0, length);
+                nc.setReadBuffer(rb);
+                try {
+                    parse(rb.buf, 0, length);
+                } finally {
+                    // Messages created from this buffer hold their own reference.
+                    nc.setReadBuffer(null);
+                    rb.release();
+                }
+            } else {
+                if (scratch == null) {
+                    scratch = new byte[ConnectionImpl.DEFAULT_BUF_SIZE];
+                }
+                int length = Math.min(src.remaining(), scratch.length);
+                src.get(scratch, 0, length);
+                parse(scratch, 0, length);
+            }
+        }
+    }
+
+    private void parseBuffer(byte[] buf, int offset, int limit)
+            throws ParseException, InterruptedException {
         int i;
         byte b;
         boolean error = false;
 
-        for (i = 0; i < len; i++) {
+        for (i = offset; i < limit; i++) {
             b = buf[i];
 
             // printStatus(buf, i);
@@ -96,6 +166,26 @@ class Parser {
                     switch (b) {
                         case 'M':
                         case 'm':
+                            if (fastPath && ps.argBuf == null) {
+                                int as = parseMsgLine(buf, i, limit);
+                                if (as >= 0) {
+                                    int end = as + ps.ma.size;
+                                    ps.drop = 0;
+                                    if (end + 1 < limit && buf[end] == '\r'
+                                            && buf[end + 1] == '\n') {
+                                        // The whole message is in the buffer
+                                        submitMsg(buf, as, ps.ma.size);
+                                        ps.as = end + 2;
+                                        i = end + 1;
+                                    } else {
+                                        // Same as the end of MSG_ARG below
+                                        ps.as = as;
+                                        ps.state = MSG_PAYLOAD;
+                                        i = as + ps.ma.size - 1;
+                                    }
+                                    continue;
+                                }
+                            }
                             ps.state = OP_M;
                             break;
                         case 'P':
@@ -197,6 +287,11 @@ class Parser {
                     }
                     break;
                 case MSG_PAYLOAD:
+                    if (ps.streamSub != null) {
+                        // Hand over as much of the payload as this buffer holds.
+                        i += streamChunk(buf, i, limit - i) - 1;
+                        break;
+                    }
                     boolean done = false;
                     if (ps.msgBuf != null) {
                         // Already have bytes in the buffer
@@ -206,8 +301,8 @@ class Parser {
                             done = true;
                         } else {
                             // copy as much as we can to the buffer and skip ahead.
-                            int toCopy = ps.ma.size - ps.msgBuf.limit();
-                            int avail = len - i;
+                            int toCopy = ps.ma.size - ps.msgBuf.position();
+                            int avail = limit - i;
 
                             if (avail < toCopy) {
                                 toCopy = avail;
@@ -232,6 +327,7 @@ class Parser {
                         ps.argBuf = null;
                         // ps.argBuf.clear();
                         ps.msgBuf = null;
+                        releaseMsgBuf();
                         // ps.msgBuf.clear();
                         ps.state = MSG_END;
                     }
@@ -537,7 +633,7 @@ class Parser {
 
             if (error) {
                 throw new ParseException(String.format("nats: parse error [%s]: len=%d, '%s'",
-                        ps.state, len - i, new String(buf, i, len - i)), i);
+                        ps.state, limit - i, new String(buf, i, limit - i)), i);
             }
         } // for
 
@@ -552,8 +648,15 @@ class Parser {
                 nc.processErr(ps.argBuf);
             }
         }
+        // Check for a split msg that is large enough to be streamed
+        if (ps.state == MSG_PAYLOAD && ps.msgBuf == null && ps.streamSub == null
+                && ps.ma.size > ConnectionImpl.DEFAULT_BUF_SIZE && startStream()) {
+            if (limit - ps.as > 0) {
+                streamChunk(buf, ps.as, limit - ps.as);
+            }
+        }
         // Check for split msg
-        if (ps.state == MSG_PAYLOAD && ps.msgBuf == null) {
+        if (ps.state == MSG_PAYLOAD && ps.msgBuf == null && ps.streamSub == null) {
             // We need to clone the msgArg if it is still referencing the
             // read buffer and we are not able to process the msg.
             if (ps.argBuf == null) {
@@ -562,10 +665,11 @@ class Parser {
 
             // If we will overflow the msg buffer, create a
             // new buffer to hold the split message.
-            if (ps.ma.size > ps.msgBufStore.length - ps.argBuf.limit()) {
-                int lrem = len - ps.as; // portion of msg remaining in buffer
-                ps.msgBufStore = new byte[ps.ma.size];
-                ps.msgBuf = ByteBuffer.wrap(ps.msgBufStore);
+            if (ps.ma.size > ps.msgBufStore.length) {
+                int lrem = limit - ps.as; // portion of msg remaining in buffer
+                // Borrow a buffer for the whole payload, it is given back once the msg is done.
+                ps.pooledMsgBuf = acquireMsgBuf(ps.ma.size);
+                ps.msgBuf = ByteBuffer.wrap(ps.pooledMsgBuf);
                 // copy what's left in the buffer
                 try {
                     // FIXME check max len
@@ -586,8 +690,8 @@ class Parser {
             } else {
                 ps.msgBuf = ByteBuffer.wrap(ps.msgBufStore);
                 // copy body
-                if (len - ps.as > 0) {
-                    ps.msgBuf.put(buf, ps.as, len - ps.as);
+                if (limit - ps.as > 0) {
+                    ps.msgBuf.put(buf, ps.as, limit - ps.as);
                 }
             }
         }
@@ -607,7 +711,8 @@ class Parser {
     }
 
     void processMsgArgs(byte[] arg, int offset, int length) throws ParseException {
-        int argLen;
+        final int[] as = ps.argStart;
+        final int[] al = ps.argLen;
         int numArgs = 0;
         int start = -1;
         byte b;
@@ -620,11 +725,11 @@ class Parser {
                 case '\r':
                 case '\n':
                     if (start >= 0) {
-                        argLen = i - start;
-                        if (argLen > ps.args[numArgs].remaining()) {
-                            ps.args[numArgs] = ByteBuffer.allocate(argLen);
+                        if (numArgs < MAX_MSG_ARGS) {
+                            as[numArgs] = start;
+                            al[numArgs] = i - start;
                         }
-                        ps.args[numArgs++].put(arg, start, argLen).flip();
+                        numArgs++;
                         start = -1;
                     }
                     break;
@@ -636,83 +741,182 @@ class Parser {
             }
         }
         if (start >= 0) {
-            argLen = i - start;
-            ps.args[numArgs++].put(arg, start, argLen).flip();
+            if (numArgs < MAX_MSG_ARGS) {
+                as[numArgs] = start;
+                al[numArgs] = i - start;
+            }
+            numArgs++;
         }
+        setMsgArgs(arg, numArgs, offset, length);
+    }
 
-        ps.ma.subject.clear();
-        ps.ma.reply.clear();
+    /*
+     * parseMsgLine handles a MSG control line that is entirely contained in the buffer, starting
+     * with the 'M' at index i. CR/LF and argument separators are located 8 bytes at a time. It
+     * returns the index of the first payload byte, or -1 if this is not a complete MSG line, in
+     * which case nothing has been consumed and the state machine takes over.
+     */
+    private int parseMsgLine(byte[] buf, int i, int len) throws ParseException {
+        int start = i + 4;
+        if (start >= len || (buf[i + 1] | 0x20) != 's' || (buf[i + 2] | 0x20) != 'g'
+                || (buf[i + 3] != ' ' && buf[i + 3] != '\t')) {
+            return -1;
+        }
+        int lf = indexOfLf(buf, start, len);
+        if (lf < 0) {
+            return -1;
+        }
+        int end = (buf[lf - 1] == '\r') ? lf - 1 : lf;
 
-        if (ps.ma.subject.remaining() < ps.args[0].limit()) {
-            ps.ma.subject = ByteBuffer.allocate(ps.args[0].limit());
+        int numArgs = 0;
+        int pos = start;
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b == ' ' || b == '\t') {
+                pos++;
+                continue;
+            }
+            if (numArgs == MAX_MSG_ARGS) {
+                numArgs++;
+                break;
+            }
+            int sep = indexOfSpace(buf, pos, end);
+            if (sep < 0) {
+                sep = end;
+            }
+            ps.argStart[numArgs] = pos;
+            ps.argLen[numArgs++] = sep - pos;
+            pos = sep;
         }
+        setMsgArgs(buf, numArgs, start, end - start);
+        return lf + 1;
+    }
+
+    // Points the MsgArg at the tokens found in arg, no bytes are copied.
+    private void setMsgArgs(byte[] arg, int numArgs, int offset, int length)
+            throws ParseException {
+        final MsgArg ma = ps.ma;
+        final int[] as = ps.argStart;
+        final int[] al = ps.argLen;
+        int sizeIdx;
         switch (numArgs) {
             case 3:
-                ps.ma.subject.put(ps.args[0].array(), 0, ps.args[0].limit());
-                ps.ma.sid = parseLong(ps.args[1].array(), ps.args[1].limit());
-                ps.ma.reply.clear();
-                ps.ma.size = (int) parseLong(ps.args[2].array(), ps.args[2].limit());
+                ma.replyOffset = 0;
+                ma.replyLength = 0;
+                sizeIdx = 2;
                 break;
             case 4:
-                ps.ma.subject.put(ps.args[0].array(), 0, ps.args[0].limit());
-                ps.ma.sid = parseLong(ps.args[1].array(), ps.args[1].limit());
-                if (ps.ma.reply.remaining() < ps.args[2].limit()) {
-                    ps.ma.reply = ByteBuffer.allocate(ps.args[2].limit());
-                }
-                ps.ma.reply.put(ps.args[2].array(), 0, ps.args[2].limit());
-                ps.ma.size = (int) parseLong(ps.args[3].array(), ps.args[3].limit());
+                ma.replyOffset = as[2];
+                ma.replyLength = al[2];
+                sizeIdx = 3;
                 break;
             default:
                 String msg = String.format("nats: processMsgArgs bad number of args(%d): '%s'",
                         numArgs, new String(arg, offset, length));
                 throw new ParseException(msg, 0);
         }
+        ma.buf = arg;
+        ma.subjectOffset = as[0];
+        ma.subjectLength = al[0];
+        ma.sid = parseLong(arg, as[1], al[1]);
+        ma.size = (int) parseLong(arg, as[sizeIdx], al[sizeIdx]);
 
-        for (int n = 0; n < MAX_MSG_ARGS; n++) {
-            ps.args[n].clear();
-        }
-
-        if (ps.ma.sid < 0) {
+        if (ma.sid < 0) {
             String str = new String(arg, offset, length);
             throw new ParseException(
                     String.format("nats: processMsgArgs bad or missing sid: '%s'", str),
-                    (int) ps.ma.sid);
+                    (int) ma.sid);
         }
-        if (ps.ma.size < 0) {
+        if (ma.size < 0) {
             String str = new String(arg, offset, length);
             throw new ParseException(
                     String.format("nats: processMsgArgs bad or missing size: '%s'", str),
-                    ps.ma.size);
+                    ma.size);
+        }
+    }
+
+    private ByteBuffer longView(byte[] buf) {
+        if (longView == null || longView.array() != buf) {
+            longView = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return longView;
+    }
+
+    // Returns a word with the high bit set in every byte of word that is zero. Only the lowest
+    // flagged byte is guaranteed to be exact, which is all we need to find the first match.
+    private static long zeroBytes(long word) {
+        return (word - ONES) & ~word & HIGHS;
+    }
+
+    // Returns the index of the first '\n' in buf[from, to), or -1
+    int indexOfLf(byte[] buf, int from, int to) {
+        int i = from;
+        if (to - from >= 8) {
+            final ByteBuffer lv = longView(buf);
+            for (; i + 8 <= to; i += 8) {
+                long found = zeroBytes(lv.getLong(i) ^ LF_WORD);
+                if (found != 0) {
+                    return i + (Long.numberOfTrailingZeros(found) >>> 3);
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the index of the first ' ' or '\t' in buf[from, to), or -1
+    int indexOfSpace(byte[] buf, int from, int to) {
+        int i = from;
+        if (to - from >= 8) {
+            final ByteBuffer lv = longView(buf);
+            for (; i + 8 <= to; i += 8) {
+                long word = lv.getLong(i);
+                long found = zeroBytes(word ^ SPC_WORD) | zeroBytes(word ^ TAB_WORD);
+                if (found != 0) {
+                    return i + (Long.numberOfTrailingZeros(found) >>> 3);
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (buf[i] == ' ' || buf[i] == '\t') {
+                return i;
+            }
         }
-        ps.ma.subject.flip();
-        ps.ma.reply.flip();
+        return -1;
     }
 
     // cloneMsgArg is used when the split buffer scenario has the pubArg in the existing read
     // buffer, but
     // we need to hold onto it into the next read.
     private void cloneMsgArg() {
+        final MsgArg ma = ps.ma;
         ps.argBuf = ByteBuffer.wrap(ps.argBufStore);
-        ps.argBuf.put(ps.ma.subject.array(), 0, ps.ma.subject.limit());
-        if (ps.ma.reply.limit() != 0) {
-            ps.argBuf.put(ps.ma.reply.array(), 0, ps.ma.reply.limit());
-        }
-        ps.argBuf.rewind();
-        ps.argBuf.get(ps.ma.subject.array(), 0, ps.ma.subject.limit());
-        if (ps.ma.reply.limit() != 0) {
-            ps.argBuf.get(ps.ma.reply.array(), 0, ps.ma.reply.limit());
+        ps.argBuf.put(ma.buf, ma.subjectOffset, ma.subjectLength);
+        if (ma.replyLength != 0) {
+            ps.argBuf.put(ma.buf, ma.replyOffset, ma.replyLength);
         }
+        ma.buf = ps.argBufStore;
+        ma.subjectOffset = 0;
+        ma.replyOffset = ma.subjectLength;
     }
 
     // parseInt64 expects decimal positive numbers. We
     // return -1 to signal error
     static long parseLong(byte[] data, int length) {
+        return parseLong(data, 0, length);
+    }
+
+    static long parseLong(byte[] data, int offset, int length) {
         long num = 0;
         if (length == 0) {
             return -1;
         }
         byte dec;
-        for (int i = 0; i < length; i++) {
+        for (int i = offset; i < offset + length; i++) {
             dec = data[i];
             if (dec < ascii_0 || dec > ascii_9) {
                 return -1;
@@ -723,37 +927,100 @@ class Parser {
     }
 
     private void submitMsg(final byte[] data, final int offset, final int length) {
-        nc.processMsg(data, offset, length);
+        nc.stageMsg(data, offset, length);
+    }
+
+    private byte[] acquireMsgBuf(int size) {
+        SplitBufferPool pool = nc.getSplitBufferPool();
+        return (pool == null ? new byte[size] : pool.acquire(size));
     }
 
+    private void releaseMsgBuf() {
+        if (ps.pooledMsgBuf != null) {
+            SplitBufferPool pool = nc.getSplitBufferPool();
+            if (pool != null) {
+                pool.release(ps.pooledMsgBuf);
+            }
+            ps.pooledMsgBuf = null;
+        }
+    }
+
+    // Starts streaming the current message if its subscription has a StreamingMessageHandler.
+    private boolean startStream() {
+        AsyncSubscriptionImpl sub = nc.startStream(ps.ma.sid, ps.ma.size);
+        if (sub == null) {
+            return false;
+        }
+        ps.streamSub = sub;
+        ps.streamHandler = (StreamingMessageHandler) sub.getMessageHandler();
+        ps.streamed = 0;
+        // Ignore any error thrown by the user
+        try {
+            ps.streamHandler.onMessageStart(sub, ps.ma.getSubject(), ps.ma.getReply(),
+                    ps.ma.size);
+        } catch (Throwable t) {
+            // ignore
+        }
+        return true;
+    }
+
+    // Passes up to avail bytes of the streamed payload to the handler and returns the number of
+    // bytes consumed. Moves on to the end of the message after the last chunk.
+    private int streamChunk(byte[] buf, int offset, int avail) {
+        int n = Math.min(ps.ma.size - ps.streamed, avail);
+        ps.streamed += n;
+        boolean last = (ps.streamed == ps.ma.size);
+        // Skip the rest of the payload if the subscription went away meanwhile
+        if (ps.streamSub.isValid()) {
+            try {
+                ps.streamHandler.onMessageChunk(ps.streamSub, buf, offset, n, last);
+            } catch (Throwable t) {
+                // ignore
+            }
+        }
+        if (last) {
+            nc.endStream(ps.streamSub);
+            ps.streamSub = null;
+            ps.streamHandler = null;
+            ps.argBuf = null;
+            ps.state = MSG_END;
+        }
+        return n;
+    }
+
+    /*
+     * The arguments of a MSG control line. The subject and reply are not copied, they are
+     * offsets into buf, which is either the read buffer or, for split messages, argBufStore.
+     */
     static class MsgArg {
-        // byte[] subjectBytes = new byte[MAX_CONTROL_LINE_SIZE];
-        ByteBuffer subject = ByteBuffer.allocate(MAX_CONTROL_LINE_SIZE);
-        // int subjectLength = 0;
-        // byte[] replyBytes = new byte [MAX_CONTROL_LINE_SIZE];
-        ByteBuffer reply = ByteBuffer.allocate(MAX_CONTROL_LINE_SIZE);
-        // int replyLength = 0;
+        byte[] buf = new byte[0];
+        int subjectOffset;
+        int subjectLength;
+        int replyOffset;
+        int replyLength;
         long sid;
         int size;
 
+        String getSubject() {
+            return (buf == null ? null : new String(buf, subjectOffset, subjectLength));
+        }
+
+        String getReply() {
+            return (buf == null || replyLength == 0 ? null
+                    : new String(buf, replyOffset, replyLength));
+        }
+
         public String toString() {
-            String subjectString = "null";
-            String replyString = "null";
-            byte[] subjectArray;
-            byte[] replyArray;
-
-            if (subject != null) {
-                subjectArray = subject.array();
-                subjectString = new String(subjectArray, 0, subject.limit());
+            String subjectString = getSubject();
+            String replyString = getReply();
+            if (subjectString == null) {
+                subjectString = "null";
             }
-
-            if (reply != null) {
-                replyArray = reply.array();
-                replyString = new String(replyArray, 0, reply.limit());
+            if (replyString == null) {
+                replyString = "null";
             }
             return String.format("{subject=%s(len=%d), reply=%s(len=%d), sid=%d, size=%d}",
-                    subjectString, subjectString.length(), replyString, replyString.length(), sid,
-                    size);
+                    subjectString, subjectLength, replyString, replyLength, sid, size);
         }
     }
 
@@ -764,15 +1031,16 @@ class Parser {
         final MsgArg ma = new MsgArg();
         final byte[] argBufStore = new byte[ConnectionImpl.DEFAULT_BUF_SIZE];
         ByteBuffer argBuf = null;
-        byte[] msgBufStore = new byte[ConnectionImpl.DEFAULT_BUF_SIZE];
+        final byte[] msgBufStore = new byte[ConnectionImpl.DEFAULT_BUF_SIZE];
         ByteBuffer msgBuf = null;
-        // byte[] scratch = new byte[MAX_CONTROL_LINE_SIZE];
-        final ByteBuffer[] args = new ByteBuffer[MAX_MSG_ARGS];
-
-        ParseState() {
-            for (int i = 0; i < MAX_MSG_ARGS; i++) {
-                args[i] = ByteBuffer.allocate(MAX_CONTROL_LINE_SIZE);
-            }
-        }
+        // Buffer borrowed for a split msg too large for msgBufStore
+        byte[] pooledMsgBuf = null;
+        // The subscription a large payload is being streamed to, and the bytes passed so far
+        AsyncSubscriptionImpl streamSub = null;
+        StreamingMessageHandler streamHandler = null;
+        int streamed;
+        // Offsets and lengths of the MSG arguments
+        final int[] argStart = new int[MAX_MSG_ARGS];
+        final int[] argLen = new int[MAX_MSG_ARGS];
     }
 }
@@ -0,0 +1,165 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/*
+ * Parallel delivery of the messages of one asynchronous subscription, see
+ * AsyncSubscription#setPartitions. The delivery loop of the subscription (its own thread or a pool
+ * worker) takes the messages off the channel and routes them by the hash of their key to the
+ * partitions. Each partition has its own queue and thread, so messages with the same key keep
+ * their order.
+ *
+ * Messages stay in the pending counts of the subscription until a partition takes them off its
+ * queue, so the pending limits and slow consumer policies cover the messages being routed. The
+ * max of an auto-unsubscribe is enforced by SubscriptionImpl#releasePending.
+ */
+class PartitionedDelivery {
+    static final int BATCH_SIZE = 64;
+
+    private final AsyncSubscriptionImpl sub;
+    private final MessagePartitioner partitioner;
+    private final Partition[] partitions;
+    // Partitions that were given messages by the current dispatch, only used by the delivery loop.
+    private final boolean[] touched;
+
+    PartitionedDelivery(AsyncSubscriptionImpl sub, int count, MessagePartitioner partitioner) {
+        this.sub = sub;
+        this.partitioner = partitioner;
+        this.partitions = new Partition[count];
+        this.touched = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            partitions[i] = new Partition();
+        }
+    }
+
+    void start(ExecutorService exec) {
+        for (Partition p : partitions) {
+            exec.submit(p);
+        }
+    }
+
+    int size() {
+        return partitions.length;
+    }
+
+    // Routes the messages of batch, taken off the channel in order, and clears it. Only called
+    // by the delivery loop of the subscription.
+    void dispatch(List<Message> batch) {
+        final int count = partitions.length;
+        for (int i = 0; i < batch.size(); i++) {
+            final Message msg = batch.get(i);
+            int idx;
+            try {
+                idx = MessagePartitioner.partitionOf(partitioner.hash(msg), count);
+            } catch (Throwable t) {
+                // Ignore any error thrown by a custom partitioner
+                idx = 0;
+            }
+            // Unbounded, the pending limits of the subscription apply.
+            partitions[idx].queue.enqueue(msg);
+            touched[idx] = true;
+        }
+        batch.clear();
+        for (int i = 0; i < count; i++) {
+            if (touched[i]) {
+                touched[i] = false;
+                partitions[i].queue.signal();
+            }
+        }
+    }
+
+    // Stops the partitions, the messages they have not taken yet are dropped.
+    void close() {
+        for (Partition p : partitions) {
+            p.queue.close();
+        }
+    }
+
+    private final class Partition implements Runnable {
+        final SpscMessageQueue queue = new SpscMessageQueue(SpscMessageQueue.MAX_CAPACITY);
+        final List<Message> batch = new ArrayList<Message>();
+
+        @Override
+        public void run() {
+            while (!queue.isClosed() && !Thread.currentThread().isInterrupted()) {
+                queue.awaitNotEmpty();
+
+                final MessageHandler mcb;
+                final int count;
+                final boolean maxReached;
+                sub.lock();
+                try {
+                    if (sub.closed) {
+                        break;
+                    }
+                    mcb = sub.msgHandler;
+                    if (mcb instanceof BatchMessageHandler) {
+                        SubscriptionImpl.drain(queue, batch, sub.batchMsgsLimit,
+                                sub.batchBytesLimit);
+                    } else {
+                        SubscriptionImpl.drain(queue, batch, BATCH_SIZE, 0);
+                    }
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+                    count = sub.releasePending(batch);
+                    maxReached = (sub.max > 0 && sub.delivered >= sub.max);
+                } finally {
+                    sub.unlock();
+                }
+
+                try {
+                    deliver(mcb, count);
+                } finally {
+                    batch.clear();
+                }
+
+                if (maxReached) {
+                    // If we have hit the max for delivered msgs, remove sub.
+                    final ConnectionImpl nc = sub.conn;
+                    nc.mu.lock();
+                    try {
+                        nc.removeSub(sub);
+                    } finally {
+                        nc.mu.unlock();
+                    }
+                    break;
+                }
+            }
+        }
+
+        private void deliver(MessageHandler mcb, int count) {
+            if (mcb instanceof BatchMessageHandler) {
+                // Ignore any error thrown by the user
+                try {
+                    ((BatchMessageHandler) mcb).onMessages(
+                            count == batch.size() ? batch : batch.subList(0, count));
+                } catch (Throwable t) {}
+            } else {
+                for (int i = 0; i < count && !sub.closed; i++) {
+                    // Ignore any error thrown by the user
+                    try { mcb.onMessage(batch.get(i)); } catch (Throwable t) {}
+                }
+            }
+            // Copy the payloads out of the read buffer if the handler didn't release them.
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).detach();
+            }
+        }
+    }
+}
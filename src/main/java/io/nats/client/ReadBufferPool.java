@@ -0,0 +1,83 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * A per-connection pool of read buffers ("slabs"). The read loop acquires a slab for every
+ * socket read and messages parsed out of it may reference the payload in place instead of
+ * copying it. A slab goes back to the pool when the last reference to it has been released.
+ * Slabs that are never released (e.g. a message that was simply dropped on the floor) are
+ * reclaimed by the garbage collector, the pool then allocates a replacement.
+ */
+class ReadBufferPool {
+    private final BlockingQueue<ReadBuffer> free;
+    private final int bufSize;
+
+    // Size is guaranteed to be >= 1 by caller.
+    ReadBufferPool(int size, int bufSize) {
+        this.free = new ArrayBlockingQueue<ReadBuffer>(size);
+        this.bufSize = bufSize;
+    }
+
+    // Returns a slab with a reference count of one, owned by the caller.
+    ReadBuffer acquire() {
+        ReadBuffer rb = free.poll();
+        if (rb == null) {
+            rb = new ReadBuffer(this, new byte[bufSize]);
+        }
+        rb.refs.set(1);
+        return rb;
+    }
+
+    void recycle(ReadBuffer rb) {
+        // If the pool is full, just let it be collected.
+        free.offer(rb);
+    }
+
+    int getAvailable() {
+        return free.size();
+    }
+
+    int getBufSize() {
+        return bufSize;
+    }
+}
+
+class ReadBuffer {
+    final byte[] buf;
+    final AtomicInteger refs = new AtomicInteger();
+    private final ReadBufferPool pool;
+
+    ReadBuffer(ReadBufferPool pool, byte[] buf) {
+        this.pool = pool;
+        this.buf = buf;
+    }
+
+    void retain() {
+        refs.incrementAndGet();
+    }
+
+    void release() {
+        int rc = refs.decrementAndGet();
+        if (rc == 0) {
+            pool.recycle(this);
+        } else if (rc < 0) {
+            throw new IllegalStateException("nats: read buffer released too many times");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@code SlowConsumerPolicy} decides what happens to an incoming message that would put a
+ * subscription over its pending limits. It is set with
+ * {@link Subscription#setPendingLimits(int, int, SlowConsumerPolicy)}.
+ *
+ * <p>Whatever the action, the subscription is flagged as a slow consumer and the connection's
+ * {@link ExceptionHandler} is notified as before. The policies in use are reflected in the
+ * connection's {@link Statistics}.
+ *
+ * <p>Custom policies override {@link #onSlowConsumer(Subscription, Message)}. It is invoked on the
+ * connection's reader thread while the subscription is locked, so it must return quickly and must
+ * not call back into the subscription.
+ */
+public abstract class SlowConsumerPolicy {
+
+    /**
+     * The actions a policy can take for a message over the pending limits.
+     */
+    public enum Action {
+        /**
+         * Drops the incoming message.
+         */
+        DROP_NEWEST,
+        /**
+         * Drops the oldest pending messages of the subscription until the incoming message fits.
+         */
+        DROP_OLDEST,
+        /**
+         * Stalls the connection's reader thread until the subscription is back under its limits,
+         * which pushes back on the server through TCP flow control. Once
+         * {@link SlowConsumerPolicy#getBlockTimeout(TimeUnit)} elapses the incoming message is
+         * dropped. Note that this delays the delivery of messages to all subscriptions of the
+         * connection.
+         */
+        BLOCK,
+        /**
+         * Appends the incoming message to a memory-mapped file in
+         * {@link SlowConsumerPolicy#getSpillDirectory()}. Subsequent messages follow it there
+         * until the subscription has caught up with the backlog on disk, so message order is
+         * preserved. Once the backlog reaches {@link SlowConsumerPolicy#getSpillLimit()} bytes
+         * incoming messages are dropped.
+         */
+        SPILL
+    }
+
+    /**
+     * Drops the incoming message. This is the default.
+     */
+    public static final SlowConsumerPolicy DROP_NEWEST =
+            new FixedPolicy(Action.DROP_NEWEST, 0L, null, 0L);
+
+    /**
+     * Evicts the oldest pending messages to make room for the incoming one.
+     */
+    public static final SlowConsumerPolicy DROP_OLDEST =
+            new FixedPolicy(Action.DROP_OLDEST, 0L, null, 0L);
+
+    /**
+     * Returns a policy that blocks the reader thread for up to {@code timeout} before dropping the
+     * incoming message.
+     *
+     * @param timeout the maximum time to wait for the subscription to catch up
+     * @param unit    the unit of {@code timeout}
+     * @return the policy
+     */
+    public static SlowConsumerPolicy block(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("nats: block timeout must be positive");
+        }
+        return new FixedPolicy(Action.BLOCK, unit.toNanos(timeout), null, 0L);
+    }
+
+    /**
+     * Returns a policy that moves the overflow of a subscription to disk, see
+     * {@link Action#SPILL}.
+     *
+     * @param directory the directory for the spill files, {@code null} for the default temporary
+     *                  file directory
+     * @param maxBytes  the maximum size of the backlog on disk
+     * @return the policy
+     */
+    public static SlowConsumerPolicy spill(File directory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("nats: spill limit must be positive");
+        }
+        return new FixedPolicy(Action.SPILL, 0L, directory, maxBytes);
+    }
+
+    /**
+     * Decides what to do with a message that puts {@code sub} over its pending limits.
+     *
+     * @param sub the subscription
+     * @param msg the incoming message
+     * @return the action to take, {@code null} is treated as {@link Action#DROP_NEWEST}
+     */
+    public abstract Action onSlowConsumer(Subscription sub, Message msg);
+
+    /**
+     * Returns how long the reader thread waits when {@link #onSlowConsumer} returns
+     * {@link Action#BLOCK}. The default is zero, i.e. the message is dropped right away.
+     *
+     * @param unit the unit of the returned value
+     * @return the block timeout
+     */
+    public long getBlockTimeout(TimeUnit unit) {
+        return 0L;
+    }
+
+    /**
+     * Returns the directory of the spill files when {@link #onSlowConsumer} returns
+     * {@link Action#SPILL}. The default is {@code null}, the default temporary file directory.
+     *
+     * @return the spill directory
+     */
+    public File getSpillDirectory() {
+        return null;
+    }
+
+    /**
+     * Returns the maximum number of bytes spilled to disk when {@link #onSlowConsumer} returns
+     * {@link Action#SPILL}. The default is zero, i.e. the message is dropped.
+     *
+     * @return the spill limit in bytes
+     */
+    public long getSpillLimit() {
+        return 0L;
+    }
+
+    private static final class FixedPolicy extends SlowConsumerPolicy {
+        private final Action action;
+        private final long timeoutNanos;
+        private final File spillDir;
+        private final long spillLimit;
+
+        FixedPolicy(Action action, long timeoutNanos, File spillDir, long spillLimit) {
+            this.action = action;
+            this.timeoutNanos = timeoutNanos;
+            this.spillDir = spillDir;
+            this.spillLimit = spillLimit;
+        }
+
+        @Override
+        public Action onSlowConsumer(Subscription sub, Message msg) {
+            return action;
+        }
+
+        @Override
+        public long getBlockTimeout(TimeUnit unit) {
+            return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public File getSpillDirectory() {
+            return spillDir;
+        }
+
+        @Override
+        public long getSpillLimit() {
+            return spillLimit;
+        }
+
+        @Override
+        public String toString() {
+            if (action == Action.BLOCK) {
+                return String.format("%s(%dms)", action,
+                        TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            } else if (action == Action.SPILL) {
+                return String.format("%s(%s, %d bytes)", action, spillDir, spillLimit);
+            }
+            return action.toString();
+        }
+    }
+}
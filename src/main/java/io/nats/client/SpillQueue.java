@@ -0,0 +1,190 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/*
+ * An on-disk FIFO of messages, used by the SPILL slow consumer policy. Messages are appended to
+ * memory-mapped segment files, so the backlog of a lagging subscription lives in the page cache
+ * rather than on the heap. Segments are deleted once read, except the first one which is reused
+ * when the queue drains.
+ *
+ * Record layout: subject length, subject, reply length (-1 for none), reply, payload length,
+ * payload. Lengths are ints.
+ */
+class SpillQueue {
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private static final class Segment {
+        final File file;
+        final FileChannel channel;
+        // The position of the buffer is the write position.
+        final MappedByteBuffer buf;
+        int readPos;
+
+        Segment(File file, FileChannel channel, MappedByteBuffer buf) {
+            this.file = file;
+            this.channel = channel;
+            this.buf = buf;
+        }
+
+        void delete() {
+            try { channel.close(); } catch (IOException e) {}
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private final File dir;
+    private final String prefix;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private int count;
+    private long bytes;
+    private boolean closed;
+
+    SpillQueue(File dir, String prefix, int segmentSize, long maxBytes) {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.segmentSize = (int) Math.min(segmentSize, maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    private static int recordSize(Message msg) {
+        byte[] reply = msg.getReplyToBytes();
+        return RECORD_HEADER_SIZE + msg.getSubjectBytes().length
+                + (reply == null ? 0 : reply.length) + msg.getDataLength();
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        File file = File.createTempFile(prefix, ".spill", dir);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(file, channel, buf);
+        } catch (IOException e) {
+            if (raf != null) {
+                try { raf.close(); } catch (IOException ignored) {}
+            }
+            file.delete();
+            throw e;
+        }
+    }
+
+    /*
+     * Appends a message. Returns false if it would take the queue over its byte limit, or if the
+     * queue was closed.
+     */
+    synchronized boolean offer(Message msg) throws IOException {
+        final int size = recordSize(msg);
+        if (closed || bytes + size > maxBytes) {
+            return false;
+        }
+        Segment seg = segments.peekLast();
+        if (seg == null || seg.buf.remaining() < size) {
+            seg = newSegment(Math.max(segmentSize, size));
+            segments.addLast(seg);
+        }
+        final MappedByteBuffer buf = seg.buf;
+        final byte[] subject = msg.getSubjectBytes();
+        final byte[] reply = msg.getReplyToBytes();
+        buf.putInt(subject.length);
+        buf.put(subject);
+        if (reply == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(reply.length);
+            buf.put(reply);
+        }
+        buf.putInt(msg.getDataLength());
+        ByteBuffer data = msg.getDataBuffer();
+        if (data != null) {
+            buf.put(data);
+        }
+        count++;
+        bytes += size;
+        return true;
+    }
+
+    // Removes the oldest message, or returns null if there is none.
+    synchronized Message poll(SubscriptionImpl sub) {
+        if (count == 0) {
+            return null;
+        }
+        Segment seg = segments.peekFirst();
+        while (seg.readPos == seg.buf.position()) {
+            segments.removeFirst().delete();
+            seg = segments.peekFirst();
+        }
+        ByteBuffer buf = seg.buf.duplicate();
+        buf.position(seg.readPos);
+        byte[] subject = new byte[buf.getInt()];
+        buf.get(subject);
+        int replyLength = buf.getInt();
+        byte[] reply = null;
+        if (replyLength >= 0) {
+            reply = new byte[replyLength];
+            buf.get(reply);
+        }
+        byte[] data = new byte[buf.getInt()];
+        buf.get(data);
+        bytes -= buf.position() - seg.readPos;
+        seg.readPos = buf.position();
+
+        if (--count == 0) {
+            // Keep the first segment around for the next backlog.
+            while (segments.size() > 1) {
+                segments.removeLast().delete();
+            }
+            seg = segments.peekFirst();
+            seg.buf.clear();
+            seg.readPos = 0;
+        }
+        return new Message(subject, reply, data, sub);
+    }
+
+    synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    // Drops the backlog and deletes the segment files.
+    synchronized void close() {
+        closed = true;
+        while (!segments.isEmpty()) {
+            segments.removeFirst().delete();
+        }
+        count = 0;
+        bytes = 0;
+    }
+}
@@ -0,0 +1,91 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A per-connection pool of the buffers the parser assembles messages in when their payload
+ * straddles a read boundary and does not fit the parser's own buffer. Buffers come in power of two
+ * size classes starting at the read buffer size, and the pool retains at most cap bytes. Buffers
+ * of a class larger than the cap are allocated to the exact size and never retained.
+ *
+ * Only the read loop uses the pool, so it is not synchronized.
+ */
+class SplitBufferPool {
+    static final int MIN_CLASS_SIZE = ConnectionImpl.DEFAULT_BUF_SIZE;
+    // 64KB up to 512MB
+    static final int NUM_CLASSES = 14;
+
+    private final List<ArrayDeque<byte[]>> free = new ArrayList<ArrayDeque<byte[]>>(NUM_CLASSES);
+    private final long cap;
+    private final Statistics stats;
+    private long retained;
+
+    SplitBufferPool(long cap, Statistics stats) {
+        this.cap = cap;
+        this.stats = stats;
+        for (int i = 0; i < NUM_CLASSES; i++) {
+            free.add(new ArrayDeque<byte[]>());
+        }
+    }
+
+    // Returns the index of the smallest class holding size bytes, or -1 if none does.
+    static int sizeClass(int size) {
+        int c = 0;
+        long classSize = MIN_CLASS_SIZE;
+        while (classSize < size) {
+            classSize <<= 1;
+            c++;
+        }
+        return (c < NUM_CLASSES ? c : -1);
+    }
+
+    static int classSize(int sizeClass) {
+        return MIN_CLASS_SIZE << sizeClass;
+    }
+
+    // Returns a buffer of at least size bytes.
+    byte[] acquire(int size) {
+        int c = sizeClass(size);
+        if (c < 0 || classSize(c) > cap) {
+            stats.incrementSplitBufferPoolMisses();
+            return new byte[size];
+        }
+        byte[] buf = free.get(c).poll();
+        if (buf != null) {
+            retained -= buf.length;
+            stats.incrementSplitBufferPoolHits();
+            return buf;
+        }
+        stats.incrementSplitBufferPoolMisses();
+        return new byte[classSize(c)];
+    }
+
+    void release(byte[] buf) {
+        int c = sizeClass(buf.length);
+        // Only keep buffers of an exact class size, up to the cap.
+        if (c < 0 || classSize(c) != buf.length || retained + buf.length > cap) {
+            return;
+        }
+        free.get(c).push(buf);
+        retained += buf.length;
+    }
+
+    long getRetained() {
+        return retained;
+    }
+}
@@ -0,0 +1,472 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * The pending message queue of a subscription. Messages are only ever added by the connection's
+ * read loop, so this is a single producer ring buffer: slots and indexes are published with lazy
+ * sets and adding a message neither allocates nor takes a lock. The ring starts small and doubles
+ * (the producer links the new array from the old one) until it reaches the capacity, which follows
+ * the pending message limit of the subscription.
+ *
+ * Consumers are serialized by a lock that is uncontended unless several threads call nextMessage
+ * on the same subscription. A consumer waiting for messages parks, the producer unparks it once
+ * per batch through signal().
+ *
+ * Iterators are weakly consistent. Removing a message through one only marks its slot, the slot
+ * keeps counting towards the capacity until the consumer skips it.
+ */
+class SpscMessageQueue extends AbstractQueue<Message> implements BlockingQueue<Message> {
+    static final int INITIAL_CAPACITY = 16;
+    static final int MAX_CAPACITY = 1 << 30;
+
+    // Left in the old array at the index where the consumer has to move on to the next one.
+    private static final Object JUMP = new Object();
+    // Left in the slot of a message removed through an iterator.
+    private static final Object REMOVED = new Object();
+
+    private volatile int capacity;
+    private volatile boolean closed;
+
+    // Producer
+    private AtomicReferenceArray<Object> producerBuffer;
+    private int producerMask;
+    private final AtomicLong producerIndex = new AtomicLong();
+
+    // Consumers, guarded by takeLock
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private AtomicReferenceArray<Object> consumerBuffer;
+    private int consumerMask;
+    private final AtomicLong consumerIndex = new AtomicLong();
+    private final AtomicInteger removed = new AtomicInteger();
+    private final AtomicReference<Thread> waiter = new AtomicReference<Thread>();
+
+    SpscMessageQueue(int capacity) {
+        setCapacity(capacity);
+        int size = Math.min(INITIAL_CAPACITY, roundToPowerOfTwo(this.capacity));
+        // The extra slot links to the next array.
+        producerBuffer = new AtomicReferenceArray<Object>(size + 1);
+        producerMask = size - 1;
+        consumerBuffer = producerBuffer;
+        consumerMask = producerMask;
+    }
+
+    private static int roundToPowerOfTwo(int value) {
+        return (value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1);
+    }
+
+    // Sets the maximum number of messages, a value <= 0 means (nearly) unbounded.
+    void setCapacity(int capacity) {
+        this.capacity = (capacity <= 0 || capacity > MAX_CAPACITY ? MAX_CAPACITY : capacity);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /*
+     * Adds a message without waking up the consumer, see signal(). Must only be called by the
+     * producer thread. Returns false if the queue is full.
+     */
+    boolean enqueue(Message msg) {
+        if (msg == null) {
+            throw new NullPointerException();
+        }
+        final long index = producerIndex.get();
+        if (index - consumerIndex.get() >= capacity) {
+            return false;
+        }
+        AtomicReferenceArray<Object> buffer = producerBuffer;
+        final int mask = producerMask;
+        final int offset = (int) index & mask;
+        if (buffer.get(offset) != null) {
+            // The consumer has not cleared the slot yet
+            return false;
+        }
+        if (mask + 1 < capacity && buffer.get((int) (index + 1) & mask) != null) {
+            // Room to grow: the last free slot of the array is left for the jump.
+            resize(buffer, mask, index, offset, msg);
+            return true;
+        }
+        buffer.lazySet(offset, msg);
+        producerIndex.lazySet(index + 1);
+        return true;
+    }
+
+    private void resize(AtomicReferenceArray<Object> oldBuffer, int oldMask, long index,
+                        int offset, Message msg) {
+        int newSize = Math.min(2 * (oldMask + 1), MAX_CAPACITY);
+        AtomicReferenceArray<Object> newBuffer = new AtomicReferenceArray<Object>(newSize + 1);
+        producerBuffer = newBuffer;
+        producerMask = newSize - 1;
+        newBuffer.lazySet((int) index & producerMask, msg);
+        oldBuffer.lazySet(oldMask + 1, newBuffer);
+        oldBuffer.lazySet(offset, JUMP);
+        producerIndex.lazySet(index + 1);
+    }
+
+    // Wakes up a consumer waiting for messages, if any.
+    void signal() {
+        // The exchange also orders the lazy sets of enqueue before checking for the waiter.
+        Thread thread = waiter.getAndSet(null);
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Makes waiting consumers return, the queue must not be used afterwards.
+    void close() {
+        closed = true;
+        signal();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /*
+     * Returns the first message without taking it, or null if there is none. Moves the consumer on
+     * past jumps and removed messages. Assumes takeLock is held.
+     */
+    @SuppressWarnings("unchecked")
+    private Message first() {
+        while (true) {
+            final AtomicReferenceArray<Object> buffer = consumerBuffer;
+            final long index = consumerIndex.get();
+            final int offset = (int) index & consumerMask;
+            final Object elem = buffer.get(offset);
+            if (elem == JUMP) {
+                AtomicReferenceArray<Object> next =
+                        (AtomicReferenceArray<Object>) buffer.get(consumerMask + 1);
+                buffer.lazySet(consumerMask + 1, null);
+                buffer.lazySet(offset, null);
+                consumerBuffer = next;
+                consumerMask = next.length() - 2;
+            } else if (elem == REMOVED) {
+                buffer.lazySet(offset, null);
+                // Before moving the index, so that size() may overcount but never undercounts.
+                removed.decrementAndGet();
+                consumerIndex.lazySet(index + 1);
+            } else {
+                return (Message) elem;
+            }
+        }
+    }
+
+    // Assumes takeLock is held.
+    private Message dequeue() {
+        final Message msg = first();
+        if (msg == null) {
+            return null;
+        }
+        final long index = consumerIndex.get();
+        consumerBuffer.lazySet((int) index & consumerMask, null);
+        consumerIndex.lazySet(index + 1);
+        return msg;
+    }
+
+    // Assumes takeLock is held.
+    private Message awaitMsg(boolean timed, long deadline) throws InterruptedException {
+        Message msg = dequeue();
+        if (msg != null || closed) {
+            return msg;
+        }
+        final Thread current = Thread.currentThread();
+        try {
+            while (true) {
+                waiter.set(current);
+                msg = dequeue();
+                if (msg != null || closed) {
+                    return msg;
+                }
+                if (timed) {
+                    long nanos = deadline - System.nanoTime();
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, nanos);
+                } else {
+                    LockSupport.park(this);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waiter.compareAndSet(current, null);
+        }
+    }
+
+    /*
+     * Waits until a message is available or the queue is closed, without taking it. Used by the
+     * single delivery thread of an async subscription, which then polls outside of this method.
+     */
+    void awaitNotEmpty() {
+        final Thread current = Thread.currentThread();
+        try {
+            while (isEmpty() && !closed) {
+                waiter.set(current);
+                if (!isEmpty() || closed) {
+                    break;
+                }
+                LockSupport.park(this);
+            }
+        } finally {
+            waiter.compareAndSet(current, null);
+        }
+    }
+
+    @Override
+    public boolean offer(Message msg) {
+        if (enqueue(msg)) {
+            signal();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void put(Message msg) throws InterruptedException {
+        while (!offer(msg)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public boolean offer(Message msg, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(msg)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (deadline - System.nanoTime() <= 0) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return true;
+    }
+
+    @Override
+    public Message poll() {
+        takeLock.lock();
+        try {
+            return dequeue();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    // Returns null if the queue was closed.
+    @Override
+    public Message take() throws InterruptedException {
+        takeLock.lockInterruptibly();
+        try {
+            return awaitMsg(false, 0L);
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public Message poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final long nanos = unit.toNanos(timeout);
+        final long deadline = System.nanoTime() + nanos;
+        if (!takeLock.tryLock(nanos, TimeUnit.NANOSECONDS)) {
+            return null;
+        }
+        try {
+            return awaitMsg(true, deadline);
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public Message peek() {
+        takeLock.lock();
+        try {
+            return first();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        // Read the consumer first so the difference is never negative, and the removed count
+        // last so a message being skipped or removed concurrently is counted rather than missed.
+        long consumer = consumerIndex.get();
+        long producer = producerIndex.get();
+        int skipped = removed.get();
+        return (int) Math.max(0L, producer - consumer - skipped);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+
+    @Override
+    public int drainTo(Collection<? super Message> coll) {
+        return drainTo(coll, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Message> coll, int maxElements) {
+        if (coll == this) {
+            throw new IllegalArgumentException();
+        }
+        int count = 0;
+        takeLock.lock();
+        try {
+            Message msg;
+            while (count < maxElements && (msg = dequeue()) != null) {
+                coll.add(msg);
+                count++;
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return count;
+    }
+
+    /*
+     * Returns a weakly consistent iterator: it starts at the first queued message, may or may not
+     * see messages queued afterwards and skips those taken in the meantime, apart from the one it
+     * already looked ahead to.
+     */
+    @Override
+    public Iterator<Message> iterator() {
+        return new Itr();
+    }
+
+    private class Itr implements Iterator<Message> {
+        // Where to look for the next message, only valid ahead of the consumer.
+        private AtomicReferenceArray<Object> buffer;
+        private long index = -1;
+
+        private Message next;
+        private AtomicReferenceArray<Object> nextBuffer;
+        private int nextOffset;
+        private long nextIndex;
+
+        // The message last returned by next(), for remove().
+        private Message last;
+        private AtomicReferenceArray<Object> lastBuffer;
+        private int lastOffset;
+        private long lastIndex;
+
+        Itr() {
+            takeLock.lock();
+            try {
+                advance();
+            } finally {
+                takeLock.unlock();
+            }
+        }
+
+        // Assumes takeLock is held.
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            final long consumer = consumerIndex.get();
+            if (index <= consumer) {
+                // Start over from the consumer, the arrays behind it may have been unlinked.
+                buffer = consumerBuffer;
+                index = consumer;
+            }
+            while (index < producerIndex.get()) {
+                final int mask = buffer.length() - 2;
+                final int offset = (int) index & mask;
+                final Object elem = buffer.get(offset);
+                if (elem == JUMP) {
+                    buffer = (AtomicReferenceArray<Object>) buffer.get(mask + 1);
+                    continue;
+                }
+                if (elem != null && elem != REMOVED) {
+                    next = (Message) elem;
+                    nextBuffer = buffer;
+                    nextOffset = offset;
+                    nextIndex = index++;
+                    return;
+                }
+                index++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Message next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            lastBuffer = nextBuffer;
+            lastOffset = nextOffset;
+            lastIndex = nextIndex;
+            takeLock.lock();
+            try {
+                advance();
+            } finally {
+                takeLock.unlock();
+            }
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            takeLock.lock();
+            try {
+                // Nothing to do if the message was taken meanwhile.
+                if (lastIndex >= consumerIndex.get() && lastBuffer.get(lastOffset) == last) {
+                    lastBuffer.set(lastOffset, REMOVED);
+                    removed.incrementAndGet();
+                }
+            } finally {
+                takeLock.unlock();
+            }
+            last = null;
+            lastBuffer = null;
+        }
+    }
+}
@@ -29,6 +29,21 @@ public class Statistics {
     private AtomicLong outBytes = new AtomicLong();
     private AtomicLong reconnects = new AtomicLong();
     private AtomicLong flushes = new AtomicLong();
+    private AtomicLong connLockContentions = new AtomicLong();
+    private AtomicLong subLockContentions = new AtomicLong();
+    private AtomicLong splitBufferPoolHits = new AtomicLong();
+    private AtomicLong splitBufferPoolMisses = new AtomicLong();
+    private AtomicLong slowConsumerDroppedNewest = new AtomicLong();
+    private AtomicLong slowConsumerDroppedOldest = new AtomicLong();
+    private AtomicLong slowConsumerBlocks = new AtomicLong();
+    private AtomicLong slowConsumerBlockTimeouts = new AtomicLong();
+    private AtomicLong spilledMsgs = new AtomicLong();
+    private AtomicLong spilledBytes = new AtomicLong();
+    private AtomicLong inlineHandlerOverruns = new AtomicLong();
+    private AtomicLong publishBatches = new AtomicLong();
+    private AtomicLong publishBatchMsgs = new AtomicLong();
+    private AtomicLong maxPublishBatchSize = new AtomicLong();
+    private AtomicLong writeStalls = new AtomicLong();
 
     public Statistics() {
     }
@@ -41,6 +56,21 @@ public class Statistics {
         this.outMsgs = obj.outMsgs;
         this.reconnects = obj.reconnects;
         this.flushes = obj.flushes;
+        this.connLockContentions = obj.connLockContentions;
+        this.subLockContentions = obj.subLockContentions;
+        this.splitBufferPoolHits = obj.splitBufferPoolHits;
+        this.splitBufferPoolMisses = obj.splitBufferPoolMisses;
+        this.slowConsumerDroppedNewest = obj.slowConsumerDroppedNewest;
+        this.slowConsumerDroppedOldest = obj.slowConsumerDroppedOldest;
+        this.slowConsumerBlocks = obj.slowConsumerBlocks;
+        this.slowConsumerBlockTimeouts = obj.slowConsumerBlockTimeouts;
+        this.spilledMsgs = obj.spilledMsgs;
+        this.spilledBytes = obj.spilledBytes;
+        this.inlineHandlerOverruns = obj.inlineHandlerOverruns;
+        this.publishBatches = obj.publishBatches;
+        this.publishBatchMsgs = obj.publishBatchMsgs;
+        this.maxPublishBatchSize = obj.maxPublishBatchSize;
+        this.writeStalls = obj.writeStalls;
     }
 
     /**
@@ -52,6 +82,21 @@ public class Statistics {
         this.outBytes.set(0L);
         this.outMsgs.set(0L);
         this.flushes.set(0L);
+        this.connLockContentions.set(0L);
+        this.subLockContentions.set(0L);
+        this.splitBufferPoolHits.set(0L);
+        this.splitBufferPoolMisses.set(0L);
+        this.slowConsumerDroppedNewest.set(0L);
+        this.slowConsumerDroppedOldest.set(0L);
+        this.slowConsumerBlocks.set(0L);
+        this.slowConsumerBlockTimeouts.set(0L);
+        this.spilledMsgs.set(0L);
+        this.spilledBytes.set(0L);
+        this.inlineHandlerOverruns.set(0L);
+        this.publishBatches.set(0L);
+        this.publishBatchMsgs.set(0L);
+        this.maxPublishBatchSize.set(0L);
+        this.writeStalls.set(0L);
     }
 
     /**
@@ -97,6 +142,10 @@ public class Statistics {
         return outMsgs.incrementAndGet();
     }
 
+    long incrementOutMsgs(long delta) {
+        return outMsgs.addAndGet(delta);
+    }
+
     /**
      * Returns the number of bytes received on this Connection.
      *
@@ -155,5 +204,215 @@ public class Statistics {
         return flushes.incrementAndGet();
     }
 
-}
+    /**
+     * Returns the number of times a publish on this Connection had to wait for the connection
+     * lock to be released by another thread.
+     *
+     * @return the number of contended connection lock acquisitions
+     */
+    public long getConnLockContentions() {
+        return connLockContentions.get();
+    }
+
+    long incrementConnLockContentions() {
+        return connLockContentions.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of times the inbound path of this Connection had to wait for a
+     * subscription (or its delivery thread) to release its lock before queueing messages.
+     *
+     * @return the number of contended subscription lock acquisitions
+     */
+    public long getSubLockContentions() {
+        return subLockContentions.get();
+    }
+
+    long incrementSubLockContentions() {
+        return subLockContentions.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of times a message split across reads was assembled in a buffer reused
+     * from the connection's split buffer pool.
+     *
+     * @return the number of split buffer pool hits
+     */
+    public long getSplitBufferPoolHits() {
+        return splitBufferPoolHits.get();
+    }
+
+    long incrementSplitBufferPoolHits() {
+        return splitBufferPoolHits.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of times a message split across reads needed a newly allocated buffer.
+     *
+     * @return the number of split buffer pool misses
+     */
+    public long getSplitBufferPoolMisses() {
+        return splitBufferPoolMisses.get();
+    }
+
+    long incrementSplitBufferPoolMisses() {
+        return splitBufferPoolMisses.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of incoming messages dropped because their subscription was over its
+     * pending limits (the default {@link SlowConsumerPolicy#DROP_NEWEST} behavior, or a blocked
+     * read that timed out).
+     *
+     * @return the number of slow consumer messages dropped on arrival
+     */
+    public long getSlowConsumerDroppedNewest() {
+        return slowConsumerDroppedNewest.get();
+    }
+
+    long incrementSlowConsumerDroppedNewest() {
+        return slowConsumerDroppedNewest.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of pending messages evicted to make room for newer ones by the
+     * {@link SlowConsumerPolicy#DROP_OLDEST} policy.
+     *
+     * @return the number of slow consumer messages evicted
+     */
+    public long getSlowConsumerDroppedOldest() {
+        return slowConsumerDroppedOldest.get();
+    }
+
+    long incrementSlowConsumerDroppedOldest() {
+        return slowConsumerDroppedOldest.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of times the reader thread waited for a slow consumer with the
+     * {@link SlowConsumerPolicy.Action#BLOCK} policy, and the consumer caught up in time.
+     *
+     * @return the number of successful slow consumer waits
+     */
+    public long getSlowConsumerBlocks() {
+        return slowConsumerBlocks.get();
+    }
+
+    long incrementSlowConsumerBlocks() {
+        return slowConsumerBlocks.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of times the reader thread gave up waiting for a slow consumer with the
+     * {@link SlowConsumerPolicy.Action#BLOCK} policy and dropped the incoming message.
+     *
+     * @return the number of slow consumer waits that timed out
+     */
+    public long getSlowConsumerBlockTimeouts() {
+        return slowConsumerBlockTimeouts.get();
+    }
+
+    long incrementSlowConsumerBlockTimeouts() {
+        return slowConsumerBlockTimeouts.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of messages written to disk by the {@link SlowConsumerPolicy.Action#SPILL}
+     * policy.
+     *
+     * @return the number of spilled messages
+     */
+    public long getSpilledMsgs() {
+        return spilledMsgs.get();
+    }
 
+    long incrementSpilledMsgs() {
+        return spilledMsgs.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of payload bytes written to disk by the
+     * {@link SlowConsumerPolicy.Action#SPILL} policy.
+     *
+     * @return the number of spilled bytes
+     */
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    long incrementSpilledBytes(long amount) {
+        return spilledBytes.addAndGet(amount);
+    }
+
+    /**
+     * Returns the number of {@link InlineMessageHandler} calls that took longer than the budget
+     * set with {@link Options.Builder#inlineHandlerBudget(long, java.util.concurrent.TimeUnit)}.
+     *
+     * @return the number of inline handler calls over budget
+     */
+    public long getInlineHandlerOverruns() {
+        return inlineHandlerOverruns.get();
+    }
+
+    long incrementInlineHandlerOverruns() {
+        return inlineHandlerOverruns.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of message batches published on this Connection with
+     * {@link Connection#publish(java.util.List)}.
+     *
+     * @return the number of batches
+     */
+    public long getPublishBatches() {
+        return publishBatches.get();
+    }
+
+    /**
+     * Returns the number of messages published in batches on this Connection. Divided by
+     * {@link #getPublishBatches()} it gives the average batch size.
+     *
+     * @return the number of messages published in batches
+     */
+    public long getPublishBatchMsgs() {
+        return publishBatchMsgs.get();
+    }
+
+    /**
+     * Returns the number of messages of the largest batch published on this Connection.
+     *
+     * @return the largest batch size
+     */
+    public long getMaxPublishBatchSize() {
+        return maxPublishBatchSize.get();
+    }
+
+    /*
+     * Accounts for a batch of size messages.
+     */
+    void recordPublishBatch(long size) {
+        publishBatches.incrementAndGet();
+        publishBatchMsgs.addAndGet(size);
+        long max;
+        while ((max = maxPublishBatchSize.get()) < size
+                && !maxPublishBatchSize.compareAndSet(max, size)) {
+            // retry
+        }
+    }
+
+    /**
+     * Returns the number of times a publisher on this Connection had to wait for the writer
+     * thread because its queue was full or over the high water mark, see
+     * {@link Options.Builder#useWriterThread(boolean)}.
+     *
+     * @return the number of stalled writes
+     */
+    public long getWriteStalls() {
+        return writeStalls.get();
+    }
+
+    long incrementWriteStalls() {
+        return writeStalls.incrementAndGet();
+    }
+
+}
@@ -0,0 +1,54 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+/**
+ * A StreamingMessageHandler is a {@link MessageHandler} that also accepts message payloads as a
+ * sequence of chunks. Messages that fit in the connection's read buffer are delivered to
+ * {@link #onMessage(Message)} as usual. Larger messages are never assembled in memory, their
+ * payload is handed to {@link #onMessageChunk} as the bytes arrive from the server instead.
+ *
+ * <p>The streaming callbacks are invoked on the connection's reader thread, so they should return
+ * quickly. A large message is only streamed when no message is pending for
+ * {@link #onMessage(Message)}, otherwise it is assembled and queued behind them so that messages
+ * stay in order. The streaming callbacks may still run while the delivery thread of the
+ * subscription is in a call to {@link #onMessage(Message)} for the previous message, handlers
+ * that share state between the two must synchronize. Streamed messages do not count towards the
+ * pending limits, they do count towards the delivered count and the auto-unsubscribe max of the
+ * subscription.
+ */
+public interface StreamingMessageHandler extends MessageHandler {
+
+    /**
+     * Called when a message too large for the read buffer starts arriving.
+     *
+     * @param sub     the subscription the message was received on
+     * @param subject the subject of the message
+     * @param replyTo the reply subject of the message, or {@code null}
+     * @param size    the total size of the payload in bytes
+     */
+    void onMessageStart(Subscription sub, String subject, String replyTo, int size);
+
+    /**
+     * Passes the next chunk of the payload of the current message. The array is the connection's
+     * read buffer and must not be retained after the method returns.
+     *
+     * @param sub    the subscription the message was received on
+     * @param data   the buffer holding the chunk
+     * @param offset the offset of the chunk in {@code data}
+     * @param length the length of the chunk
+     * @param last   {@code true} if this is the final chunk of the payload
+     */
+    void onMessageChunk(Subscription sub, byte[] data, int offset, int length, boolean last);
+}
@@ -119,6 +119,26 @@ public interface Subscription extends AutoCloseable {
      */
     void setPendingLimits(int msgs, int bytes);
 
+    /**
+     * Sets the maximum number of unprocessed messages and bytes that can be left pending on this
+     * subscription, and the policy applied to messages arriving while the subscription is over
+     * these limits.
+     *
+     * @param msgs   the maximum number of pending messages
+     * @param bytes  the maximum number of pending bytes
+     * @param policy the slow consumer policy, {@code null} for
+     *               {@link SlowConsumerPolicy#DROP_NEWEST}
+     */
+    void setPendingLimits(int msgs, int bytes, SlowConsumerPolicy policy);
+
+    /**
+     * Returns the policy applied to messages arriving while this subscription is over its
+     * pending limits.
+     *
+     * @return the slow consumer policy of this subscription
+     */
+    SlowConsumerPolicy getSlowConsumerPolicy();
+
     /**
      * Returns the maximum number of unprocessed messages that can be left pending on this
      * subscription before messages are dropped and a slow consumer exception is thrown.
@@ -150,6 +170,32 @@ public interface Subscription extends AutoCloseable {
      */
     int getDropped();
 
+    /**
+     * Enables or disables conflation. A conflating subscription keeps at most one undelivered
+     * message per subject: a message arriving while an earlier message on the same subject is
+     * still pending replaces that message in place, so a slow consumer only sees the latest
+     * value of each subject. This applies to messages arriving after the call.
+     *
+     * @param conflating whether this subscription conflates messages per subject
+     */
+    void setConflating(boolean conflating);
+
+    /**
+     * Returns whether this subscription conflates messages per subject.
+     *
+     * @return true if this subscription conflates messages per subject
+     * @see #setConflating(boolean)
+     */
+    boolean isConflating();
+
+    /**
+     * Returns the number of pending messages that were replaced by a newer message on the same
+     * subject.
+     *
+     * @return the number of conflated messages
+     */
+    long getConflated();
+
     /**
      * {@inheritDoc}.
      */
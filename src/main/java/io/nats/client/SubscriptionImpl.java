@@ -17,8 +17,8 @@ import static io.nats.client.Nats.ERR_BAD_SUBSCRIPTION;
 import static io.nats.client.Nats.ERR_CONNECTION_CLOSED;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -50,7 +50,8 @@ abstract class SubscriptionImpl implements Subscription {
     // Number of messages delivered on this subscription
     long delivered; // uint64
     long max; // AutoUnsubscribe max
-    boolean closed;
+    // Volatile so that a delivery worker notices it in the middle of a batch.
+    volatile boolean closed;
     boolean connClosed;
     // slow consumer flag
     boolean sc;
@@ -68,21 +69,37 @@ abstract class SubscriptionImpl implements Subscription {
     int pBytesLimit = pMsgsLimit * 1024;
     int dropped;
 
+    // Applied when over the pending limits, null means drop newest.
+    SlowConsumerPolicy scPolicy;
+    // Overflow on disk with the SPILL policy, not counted in pMsgs/pBytes. Guarded like them by
+    // the sub lock.
+    SpillQueue spill;
+
+    // Undelivered messages by subject when conflating, guarded like the pending counts.
+    volatile ConflationTable conflation;
+    long conflated;
+    // Signaled when a pending message is taken while the reader waits for room, see awaitSpace.
+    Condition spaceCond;
+    boolean readerBlocked;
+
+    // Messages staged by the read loop for the next dispatch. Only accessed by that thread.
+    Message batchHead;
+    Message batchTail;
+
     SubscriptionImpl(ConnectionImpl conn, String subject, String queue) {
-        this(conn, subject, queue, DEFAULT_MAX_PENDING_MSGS, DEFAULT_MAX_PENDING_BYTES, false);
+        this(conn, subject, queue, DEFAULT_MAX_PENDING_MSGS, DEFAULT_MAX_PENDING_BYTES);
     }
 
     SubscriptionImpl(ConnectionImpl conn, String subject, String queue, int pendingMsgsLimit,
-                     int pendingBytesLimit, boolean useMsgDlvPool) {
+                     int pendingBytesLimit) {
         this.conn = conn;
         this.subject = subject;
         this.queue = queue;
         setPendingMsgsLimit(pendingMsgsLimit);
         setPendingBytesLimit(pendingBytesLimit);
-        if (!useMsgDlvPool) {
-            this.mch = new LinkedBlockingQueue<Message>();
-        }
+        this.mch = new SpscMessageQueue(pMsgsLimit);
         pCond = mu.newCondition();
+        spaceCond = mu.newCondition();
     }
 
     @Override
@@ -115,11 +132,19 @@ abstract class SubscriptionImpl implements Subscription {
             if (!this.closed) {
                 this.closed = true;
                 this.connClosed = connClosed;
-                if (this.mch != null) {
+                if (this.mch instanceof SpscMessageQueue) {
+                    // Only the consumer may take messages off the ring, so just wake it up.
+                    ((SpscMessageQueue) this.mch).close();
+                    this.mch = null;
+                } else if (this.mch != null) {
                     this.mch.clear();
                     this.mch = null;
                 }
                 this.pCond.signalAll();
+                this.spaceCond.signalAll();
+                if (this.spill != null) {
+                    this.spill.close();
+                }
             }
         } finally {
             this.mu.unlock();
@@ -190,6 +215,38 @@ abstract class SubscriptionImpl implements Subscription {
         return rv;
     }
 
+    @Override
+    public void setConflating(boolean conflating) {
+        mu.lock();
+        try {
+            if (!conflating) {
+                conflation = null;
+            } else if (conflation == null) {
+                conflation = new ConflationTable();
+            }
+        } finally {
+            mu.unlock();
+        }
+    }
+
+    @Override
+    public boolean isConflating() {
+        return conflation != null;
+    }
+
+    @Override
+    public long getConflated() {
+        mu.lock();
+        try {
+            if (this.closed) {
+                throw new IllegalStateException(ERR_BAD_SUBSCRIPTION);
+            }
+            return conflated;
+        } finally {
+            mu.unlock();
+        }
+    }
+
     @Override
     public int getPendingMsgsMax() {
         int rv = 0;
@@ -228,6 +285,27 @@ abstract class SubscriptionImpl implements Subscription {
         setPendingBytesLimit(bytes);
     }
 
+    @Override
+    public void setPendingLimits(int msgs, int bytes, SlowConsumerPolicy policy) {
+        setPendingLimits(msgs, bytes);
+        mu.lock();
+        try {
+            scPolicy = policy;
+        } finally {
+            mu.unlock();
+        }
+    }
+
+    @Override
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        mu.lock();
+        try {
+            return (scPolicy == null ? SlowConsumerPolicy.DROP_NEWEST : scPolicy);
+        } finally {
+            mu.unlock();
+        }
+    }
+
     void setPendingMsgsLimit(int pendingMsgsLimit) {
         mu.lock();
         try {
@@ -235,6 +313,9 @@ abstract class SubscriptionImpl implements Subscription {
                 throw new IllegalArgumentException("nats: pending message limit cannot be zero");
             }
             pMsgsLimit = pendingMsgsLimit;
+            if (mch instanceof SpscMessageQueue) {
+                ((SpscMessageQueue) mch).setCapacity(pendingMsgsLimit);
+            }
         } finally {
             mu.unlock();
         }
@@ -364,6 +445,148 @@ abstract class SubscriptionImpl implements Subscription {
                 getPendingBytesMax(), isValid());
     }
 
+    // Accounts for a pending message taken by the consumer. Assumes the lock is held.
+    void removePending(Message msg) {
+        final ConflationTable ct = conflation;
+        if (ct != null) {
+            ct.remove(msg);
+        }
+        pMsgs--;
+        pBytes -= msg.getDataLength();
+        if (readerBlocked) {
+            spaceCond.signal();
+        }
+        if (spill != null) {
+            refillFromSpill();
+        }
+    }
+
+    /*
+     * Takes pending messages off the channel into batch, up to maxMsgs messages and maxBytes of
+     * payload (a limit <= 0 means none) but at least one message, and without going past the max
+     * of an auto-unsubscribe. The pending and delivered counts are updated once for the batch.
+     * Assumes the lock is held. Returns the number of messages taken.
+     */
+    int drainPending(List<Message> batch, int maxMsgs, int maxBytes) {
+        final BlockingQueue<Message> ch = mch;
+        if (ch == null) {
+            return 0;
+        }
+        long limit = (maxMsgs <= 0 ? Long.MAX_VALUE : maxMsgs);
+        if (max > 0) {
+            limit = Math.min(limit, max - delivered);
+        }
+        final int count = drain(ch, batch, limit, maxBytes);
+        if (count > 0) {
+            releasePending(batch);
+        }
+        return count;
+    }
+
+    // Moves up to maxMsgs messages and maxBytes of payload, but at least one message, from ch to
+    // batch. Returns the number of messages moved.
+    static int drain(BlockingQueue<Message> ch, List<Message> batch, long maxMsgs, int maxBytes) {
+        int count = 0;
+        int bytes = 0;
+        while (count < maxMsgs) {
+            Message msg;
+            if (maxBytes > 0 && count > 0) {
+                msg = ch.peek();
+                if (msg == null || bytes + msg.getDataLength() > maxBytes) {
+                    break;
+                }
+            }
+            msg = ch.poll();
+            if (msg == null) {
+                break;
+            }
+            batch.add(msg);
+            bytes += msg.getDataLength();
+            count++;
+        }
+        return count;
+    }
+
+    /*
+     * Accounts for the messages of batch, taken off the channel by the consumer. Returns how many
+     * of them, from the start of the batch, are to be delivered without going past the max of an
+     * auto-unsubscribe; they are counted as delivered. Assumes the lock is held.
+     */
+    int releasePending(List<Message> batch) {
+        final int count = batch.size();
+        final ConflationTable ct = conflation;
+        int bytes = 0;
+        for (int i = 0; i < count; i++) {
+            final Message msg = batch.get(i);
+            if (ct != null) {
+                ct.remove(msg);
+            }
+            bytes += msg.getDataLength();
+        }
+        pMsgs -= count;
+        pBytes -= bytes;
+        int allowed = count;
+        if (max > 0) {
+            allowed = (int) Math.max(0L, Math.min(count, max - delivered));
+        }
+        delivered += allowed;
+        if (readerBlocked) {
+            spaceCond.signal();
+        }
+        if (spill != null) {
+            refillFromSpill();
+        }
+        return allowed;
+    }
+
+    /*
+     * Moves messages from the spill queue back to the channel while under the pending limits.
+     * Called by the consumer after taking a message, holding the same lock as the reader thread
+     * when it queues messages, so the channel still sees a single producer at a time. Spilled
+     * messages are always newer than those in memory, which keeps the order.
+     */
+    void refillFromSpill() {
+        final BlockingQueue<Message> ch = mch;
+        if (spill.isEmpty() || ch == null) {
+            return;
+        }
+        boolean added = false;
+        while ((pMsgsLimit <= 0 || pMsgs < pMsgsLimit)
+                && (pBytesLimit <= 0 || pBytes < pBytesLimit)
+                && ch.remainingCapacity() > 0) {
+            Message msg = spill.poll(this);
+            if (msg == null) {
+                break;
+            }
+            if (ch instanceof SpscMessageQueue) {
+                ((SpscMessageQueue) ch).enqueue(msg);
+            } else {
+                ch.add(msg);
+            }
+            pMsgs++;
+            pBytes += msg.getDataLength();
+            added = true;
+        }
+        if (added) {
+            if (ch instanceof SpscMessageQueue) {
+                ((SpscMessageQueue) ch).signal();
+            } else {
+                pCond.signal();
+            }
+        }
+    }
+
+    // Waits for the consumer to take a pending message, see SlowConsumerPolicy.Action#BLOCK.
+    // Returns the remaining time as Condition#awaitNanos. Assumes the lock is held.
+    long awaitSpace(long nanos) throws InterruptedException {
+        readerBlocked = true;
+        try {
+            return spaceCond.awaitNanos(nanos);
+        } finally {
+            readerBlocked = false;
+        }
+    }
+
     void setSlowConsumer(boolean sc) {
         this.sc = sc;
     }
@@ -386,6 +609,10 @@ abstract class SubscriptionImpl implements Subscription {
         mu.lock();
     }
 
+    boolean tryLock() {
+        return mu.tryLock();
+    }
+
     void unlock() {
         mu.unlock();
     }
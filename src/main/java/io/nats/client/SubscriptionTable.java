@@ -0,0 +1,178 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * A concurrent sid to subscription index. It uses open addressing with linear probing over
+ * primitive long keys, so lookups from the read loop neither box the sid nor take a lock.
+ * Updates (subscribe/unsubscribe) are serialized on the table itself.
+ *
+ * Sids are handed out by a monotonic counter starting at 1 and are never reused. That lets us
+ * use 0 to mark free slots, and use the sid itself as the hash since consecutive sids land in
+ * consecutive slots. Removed entries leave a tombstone behind until the next rehash.
+ */
+class SubscriptionTable {
+    private static final long FREE = 0L;
+    private static final long TOMBSTONE = -1L;
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<SubscriptionImpl> values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            values = new AtomicReferenceArray<SubscriptionImpl>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    // Guarded by this
+    private int size;
+    private int tombstones;
+
+    SubscriptionImpl get(long sid) {
+        final Table t = table;
+        int idx = (int) sid & t.mask;
+        while (true) {
+            long key = t.keys.get(idx);
+            if (key == sid) {
+                // The value is set before the key is published, so this is never stale
+                // unless the entry is being removed.
+                return t.values.get(idx);
+            } else if (key == FREE) {
+                return null;
+            }
+            idx = (idx + 1) & t.mask;
+        }
+    }
+
+    synchronized void put(long sid, SubscriptionImpl sub) {
+        if (sid <= 0) {
+            throw new IllegalArgumentException("nats: invalid sid " + sid);
+        }
+        Table t = table;
+        int idx = (int) sid & t.mask;
+        int slot = -1;
+        while (true) {
+            long key = t.keys.get(idx);
+            if (key == sid) {
+                t.values.set(idx, sub);
+                return;
+            } else if (key == FREE) {
+                break;
+            } else if (key == TOMBSTONE && slot < 0) {
+                slot = idx;
+            }
+            idx = (idx + 1) & t.mask;
+        }
+        if (slot >= 0) {
+            tombstones--;
+        } else {
+            slot = idx;
+        }
+        t.values.set(slot, sub);
+        t.keys.set(slot, sid);
+        size++;
+        // Keep at least half of the slots free so that probe sequences stay short.
+        if ((size + tombstones) * 2 > t.mask + 1) {
+            rehash(t);
+        }
+    }
+
+    synchronized SubscriptionImpl remove(long sid) {
+        final Table t = table;
+        int idx = (int) sid & t.mask;
+        while (true) {
+            long key = t.keys.get(idx);
+            if (key == sid) {
+                SubscriptionImpl sub = t.values.get(idx);
+                t.keys.set(idx, TOMBSTONE);
+                t.values.set(idx, null);
+                size--;
+                tombstones++;
+                // Shrink once mostly empty
+                if (size * 8 < t.mask + 1 && t.mask + 1 > MIN_CAPACITY) {
+                    rehash(t);
+                }
+                return sub;
+            } else if (key == FREE) {
+                return null;
+            }
+            idx = (idx + 1) & t.mask;
+        }
+    }
+
+    // Builds a new table sized for the live entries and publishes it. Readers still probing the
+    // old table see the state as of before the update, which is fine since it is never
+    // modified again.
+    private void rehash(Table old) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 4) {
+            capacity <<= 1;
+        }
+        Table t = new Table(capacity);
+        for (int i = 0; i <= old.mask; i++) {
+            long key = old.keys.get(i);
+            if (key != FREE && key != TOMBSTONE) {
+                int idx = (int) key & t.mask;
+                while (t.keys.get(idx) != FREE) {
+                    idx = (idx + 1) & t.mask;
+                }
+                t.values.set(idx, old.values.get(i));
+                t.keys.set(idx, key);
+            }
+        }
+        tombstones = 0;
+        table = t;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized void clear() {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+        tombstones = 0;
+    }
+
+    // Returns a snapshot of the subscriptions in the table.
+    synchronized List<SubscriptionImpl> values() {
+        final Table t = table;
+        List<SubscriptionImpl> list = new ArrayList<SubscriptionImpl>(size);
+        for (int i = 0; i <= t.mask; i++) {
+            long key = t.keys.get(i);
+            if (key != FREE && key != TOMBSTONE) {
+                list.add(t.values.get(i));
+            }
+        }
+        return list;
+    }
+
+    int capacity() {
+        return table.mask + 1;
+    }
+}
@@ -14,6 +14,8 @@
 package io.nats.client;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -84,4 +86,52 @@ public interface SyncSubscription extends Subscription {
      */
     Message nextMessage(long timeout, TimeUnit unit)
             throws IOException, InterruptedException;
+
+    /**
+     * Receives up to {@code max} messages that are available for this {@link Subscription},
+     * waiting up to the specified wait time if necessary for the first one to become available.
+     * Once a message is available, this does not wait for more: it takes the messages already
+     * pending, in order, and updates the statistics of the subscription once for all of them.
+     *
+     * @param msgs    the collection the messages are added to
+     * @param max     the maximum number of messages to receive
+     * @param timeout how long to wait for the first message, in units of {@code unit}, a negative
+     *                value waits until one is available
+     * @param unit    a {@code TimeUnit} determining how to interpret the timeout parameter
+     * @return the number of messages added to {@code msgs}, 0 if the timeout expires before a
+     * message is available
+     * @throws InterruptedException     if {@link Thread#interrupt() interrupted} while waiting,
+     *                                  e.g. because the {@link Subscription} was closed in another
+     *                                  thread
+     * @throws IOException              if the {@link Subscription} has been unsubscribed due to
+     *                                  reaching its autoUnsubscribe limit, or if the
+     *                                  {@link Subscription} has been marked a slow consumer.
+     * @throws IllegalStateException    if the {@link Subscription} is not valid, e.g. it was
+     *                                  closed prior to this invocation
+     * @throws IllegalArgumentException if {@code max} is not positive
+     * @see Subscription#autoUnsubscribe(int)
+     */
+    int nextMessages(Collection<? super Message> msgs, int max, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException;
+
+    /**
+     * Receives up to {@code max} messages that are available for this {@link Subscription},
+     * waiting up to the specified wait time if necessary for the first one to become available.
+     * See {@link #nextMessages(Collection, int, long, TimeUnit)}.
+     *
+     * @param max     the maximum number of messages to receive
+     * @param timeout how long to wait for the first message, in units of {@code unit}, a negative
+     *                value waits until one is available
+     * @param unit    a {@code TimeUnit} determining how to interpret the timeout parameter
+     * @return the messages received, in order, an empty list if the timeout expires before a
+     * message is available
+     * @throws InterruptedException     if {@link Thread#interrupt() interrupted} while waiting
+     * @throws IOException              if the {@link Subscription} has been unsubscribed due to
+     *                                  reaching its autoUnsubscribe limit, or if the
+     *                                  {@link Subscription} has been marked a slow consumer.
+     * @throws IllegalStateException    if the {@link Subscription} is not valid
+     * @throws IllegalArgumentException if {@code max} is not positive
+     */
+    List<Message> nextMessages(int max, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException;
 }
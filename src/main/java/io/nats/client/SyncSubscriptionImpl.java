@@ -19,13 +19,37 @@ import static io.nats.client.Nats.ERR_MAX_MESSAGES;
 import static io.nats.client.Nats.ERR_SLOW_CONSUMER;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 class SyncSubscriptionImpl extends SubscriptionImpl implements SyncSubscription {
-    private final Map<Long, Thread> threads = new ConcurrentHashMap<Long, Thread>();
+    /*
+     * A thread waiting in nextMessage, linked in the waiters of the subscription so that close
+     * can interrupt it. A thread waits for one subscription at a time, so it links the same node
+     * every time and waiting does not allocate.
+     */
+    static final class Waiter {
+        final Thread thread;
+        Waiter prev;
+        Waiter next;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    private static final ThreadLocal<Waiter> WAITER = new ThreadLocal<Waiter>() {
+        @Override
+        protected Waiter initialValue() {
+            return new Waiter(Thread.currentThread());
+        }
+    };
+
+    // Guarded by the lock.
+    private Waiter waiters;
 
     SyncSubscriptionImpl(ConnectionImpl nc, String subj, String queue) {
         super(nc, subj, queue);
@@ -35,9 +59,9 @@ class SyncSubscriptionImpl extends SubscriptionImpl implements SyncSubscription
     public void close() {
         lock();
         try {
-            for (Map.Entry<Long, Thread> entry : threads.entrySet()) {
-                if (entry.getKey() != Thread.currentThread().getId()) {
-                    entry.getValue().interrupt();
+            for (Waiter w = waiters; w != null; w = w.next) {
+                if (w.thread != Thread.currentThread()) {
+                    w.thread.interrupt();
                 }
             }
         } finally {
@@ -46,6 +70,44 @@ class SyncSubscriptionImpl extends SubscriptionImpl implements SyncSubscription
         super.close();
     }
 
+    // Assumes the lock is held.
+    private void addWaiter(Waiter w) {
+        w.prev = null;
+        w.next = waiters;
+        if (waiters != null) {
+            waiters.prev = w;
+        }
+        waiters = w;
+    }
+
+    // Assumes the lock is held.
+    private void removeWaiter(Waiter w) {
+        if (w.prev != null) {
+            w.prev.next = w.next;
+        } else if (waiters == w) {
+            waiters = w.next;
+        }
+        if (w.next != null) {
+            w.next.prev = w.prev;
+        }
+        w.prev = null;
+        w.next = null;
+    }
+
+    // Returns the number of threads waiting in nextMessage, for tests.
+    int getWaiterCount() {
+        lock();
+        try {
+            int count = 0;
+            for (Waiter w = waiters; w != null; w = w.next) {
+                count++;
+            }
+            return count;
+        } finally {
+            unlock();
+        }
+    }
+
     @Override
     public Message nextMessage() throws IOException, InterruptedException {
         return nextMessage(-1);
@@ -60,77 +122,160 @@ class SyncSubscriptionImpl extends SubscriptionImpl implements SyncSubscription
     @Override
     public Message nextMessage(long timeout, TimeUnit unit)
             throws IOException, InterruptedException {
-
+        // snapshot
+        final ConnectionImpl nc = (ConnectionImpl) this.getConnection();
+        final Waiter waiter = WAITER.get();
+        final long localMax;
+        final BlockingQueue<Message> localChannel;
         lock();
-        if (connClosed) {
+        try {
+            localChannel = checkNext();
+            localMax = max;
+            addWaiter(waiter);
+        } finally {
             unlock();
-            throw new IllegalStateException(ERR_CONNECTION_CLOSED);
         }
-        if (mch == null) {
-            if ((this.max > 0) && (delivered >= this.max)) {
-                unlock();
-                throw new IOException(ERR_MAX_MESSAGES);
-            } else if (closed) {
+
+        Message msg = null;
+        long delivered = 0;
+        try {
+            msg = awaitNext(localChannel, timeout, unit);
+        } finally {
+            // Update some stats, in the same critical section as the waiter.
+            lock();
+            try {
+                removeWaiter(waiter);
+                if (msg != null) {
+                    this.delivered++;
+                    delivered = this.delivered;
+                    removePending(msg);
+                }
+            } finally {
                 unlock();
-                throw new IllegalStateException(ERR_BAD_SUBSCRIPTION);
             }
         }
-        if (sc) {
-            sc = false;
-            unlock();
-            throw new IOException(ERR_SLOW_CONSUMER);
+
+        if (msg != null && localMax > 0) {
+            if (delivered > localMax) {
+                throw new IOException(ERR_MAX_MESSAGES);
+            }
+            // Remove subscription if we have reached max.
+            if (delivered == localMax) {
+                nc.mu.lock();
+                try {
+                    nc.removeSub(this);
+                } finally {
+                    nc.mu.unlock();
+                }
+            }
         }
+        return msg;
+    }
 
-        // snapshot
+    @Override
+    public List<Message> nextMessages(int maxMsgs, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        List<Message> msgs = new ArrayList<Message>();
+        nextMessages(msgs, maxMsgs, timeout, unit);
+        return msgs;
+    }
+
+    @Override
+    public int nextMessages(Collection<? super Message> msgs, int maxMsgs, long timeout,
+                            TimeUnit unit) throws IOException, InterruptedException {
+        if (maxMsgs <= 0) {
+            throw new IllegalArgumentException("nats: max messages must be positive");
+        }
         final ConnectionImpl nc = (ConnectionImpl) this.getConnection();
-        final BlockingQueue<Message> localChannel = mch;
-        final long localMax = max;
-        // boolean chanClosed = localChannel.isClosed();
-        unlock();
-        Message msg = null;
-        // Wait until a message is available
-        threads.put(Thread.currentThread().getId(), Thread.currentThread());
+        final Waiter waiter = WAITER.get();
+        final BlockingQueue<Message> localChannel;
+        lock();
         try {
-            if (localChannel == null) {
-                throw new IllegalStateException(ERR_CONNECTION_CLOSED);
-            }
-            if (timeout >= 0) {
-                msg = localChannel.poll(timeout, unit);
-            } else {
-                msg = localChannel.take();
-            }
+            localChannel = checkNext();
+            addWaiter(waiter);
         } finally {
-            threads.remove(Thread.currentThread().getId());
+            unlock();
         }
 
-        if (msg != null) {
-            // Update some stats
+        Message first = null;
+        List<Message> batch = null;
+        int allowed = 0;
+        boolean reachedMax = false;
+        try {
+            first = awaitNext(localChannel, timeout, unit);
+        } finally {
             lock();
-            long delivered;
             try {
-                this.delivered++;
-                delivered = this.delivered;
-                pMsgs--;
-                pBytes -= (msg.getData() != null ? msg.getData().length : 0);
+                removeWaiter(waiter);
+                if (first != null) {
+                    batch = new ArrayList<Message>(Math.min(maxMsgs, localChannel.size() + 1));
+                    batch.add(first);
+                    if (maxMsgs > 1) {
+                        long limit = maxMsgs - 1;
+                        if (max > 0) {
+                            limit = Math.min(limit, max - delivered - 1);
+                        }
+                        drain(localChannel, batch, limit, 0);
+                    }
+                    // The pending and delivered counts are updated once for the batch.
+                    allowed = releasePending(batch);
+                    reachedMax = (max > 0 && delivered >= max);
+                }
             } finally {
                 unlock();
             }
+        }
+        if (first == null) {
+            return 0;
+        }
+        if (allowed == 0) {
+            throw new IOException(ERR_MAX_MESSAGES);
+        }
+        for (int i = 0; i < allowed; i++) {
+            msgs.add(batch.get(i));
+        }
+        if (reachedMax) {
+            // Remove subscription if we have reached max.
+            nc.mu.lock();
+            try {
+                nc.removeSub(this);
+            } finally {
+                nc.mu.unlock();
+            }
+        }
+        return allowed;
+    }
 
-            if (localMax > 0) {
-                if (delivered > localMax) {
-                    throw new IOException(ERR_MAX_MESSAGES);
-                }
-                // Remove subscription if we have reached max.
-                if (delivered == localMax) {
-                    nc.mu.lock();
-                    try {
-                        nc.removeSub(this);
-                    } finally {
-                        nc.mu.unlock();
-                    }
-                }
+    // Checks that the subscription can be read from and returns its channel. Assumes the lock is
+    // held.
+    private BlockingQueue<Message> checkNext() throws IOException {
+        if (connClosed) {
+            throw new IllegalStateException(ERR_CONNECTION_CLOSED);
+        }
+        if (mch == null) {
+            if ((this.max > 0) && (delivered >= this.max)) {
+                throw new IOException(ERR_MAX_MESSAGES);
+            } else if (closed) {
+                throw new IllegalStateException(ERR_BAD_SUBSCRIPTION);
             }
         }
-        return msg;
+        if (sc) {
+            sc = false;
+            throw new IOException(ERR_SLOW_CONSUMER);
+        }
+        return mch;
+    }
+
+    // Waits until a message is available, up to timeout if it is not negative.
+    private static Message awaitNext(BlockingQueue<Message> localChannel, long timeout,
+                                     TimeUnit unit) throws InterruptedException {
+        if (localChannel == null) {
+            throw new IllegalStateException(ERR_CONNECTION_CLOSED);
+        }
+        if (timeout >= 0) {
+            return localChannel.poll(timeout, unit);
+        } else {
+            return localChannel.take();
+        }
     }
 }
@@ -0,0 +1,89 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Virtual threads (Java 21) looked up reflectively, so that the library keeps building for and
+ * running on older JVMs. There, isSupported() returns false and callers stay on platform threads.
+ */
+final class VirtualThreads {
+    private static final Method ofVirtual;
+    private static final Method name;
+    private static final Method factory;
+    private static final Method newThreadPerTaskExecutor;
+    private static final Method isVirtual;
+
+    static {
+        Method ov = null;
+        Method nm = null;
+        Method fa = null;
+        Method ex = null;
+        Method iv = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ov = Thread.class.getMethod("ofVirtual");
+            nm = builder.getMethod("name", String.class, long.class);
+            fa = builder.getMethod("factory");
+            ex = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            iv = Thread.class.getMethod("isVirtual");
+        } catch (Exception e) {
+            ov = null;
+        }
+        ofVirtual = ov;
+        name = nm;
+        factory = fa;
+        newThreadPerTaskExecutor = ex;
+        isVirtual = iv;
+    }
+
+    private VirtualThreads() {}
+
+    static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+    /*
+     * Returns an executor that starts a virtual thread named prefix-N for each task, or null if
+     * virtual threads are not available.
+     */
+    static ExecutorService newExecutor(String prefix) {
+        if (!isSupported()) {
+            return null;
+        }
+        try {
+            Object builder = name.invoke(ofVirtual.invoke(null), prefix + "-", 0L);
+            ThreadFactory tf = (ThreadFactory) factory.invoke(builder);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, tf);
+        } catch (Exception e) {
+            // Preview builds or a restricted runtime
+            return null;
+        }
+    }
+
+    static boolean isVirtual(Thread thread) {
+        if (!isSupported()) {
+            return false;
+        }
+        try {
+            return (Boolean) isVirtual.invoke(thread);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package io.nats.client;
+
+import static io.nats.client.Nats.ERR_CONNECTION_CLOSED;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * The outbound queue of a connection using a writer thread. Producers claim a slot of a bounded
+ * ring by advancing the tail, encode a whole protocol message into the slot's pre-allocated
+ * buffer and publish it by bumping the slot's sequence number, so queueing takes no lock and
+ * does not allocate unless the record is larger than a slot. The writer thread is the single
+ * consumer: it copies the records into the buffered socket stream and flushes once per pass, so
+ * the socket sees a few large writes however many threads publish.
+ *
+ * Slot i is free for the producer of sequence t when sequences[i] == t, and ready for the
+ * consumer when sequences[i] == t + 1. Producers wait when the ring is full or when the bytes
+ * queued reach the high water mark, unless nothing is queued.
+ */
+class WriteRing {
+    static final int DEFAULT_SLOTS = 4096;
+    static final int SLOT_SIZE = 512;
+
+    // Stalled producers yield this many times before parking
+    private static final int STALL_SPINS = 64;
+    private static final long STALL_PARK_NANOS = 50000L;
+    // The consumer yields this many times before parking
+    private static final int WRITER_SPINS = 100;
+
+    private static final byte[] PUB = {'P', 'U', 'B', ' '};
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final byte[][] slots;
+    // Records that do not fit in their slot, cleared by the consumer
+    private final byte[][] large;
+    private final int[] lengths;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final long highWaterMark;
+    private final Statistics stats;
+    private final OutputStream out = new RingOutputStream();
+
+    // Consumer
+    private long head;
+    // Set while the consumer is parked
+    private volatile Thread waiter;
+
+    // All records before this sequence number have been flushed to the socket.
+    private volatile long flushedSeq;
+    private final AtomicInteger flushWaiters = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushed = flushLock.newCondition();
+
+    private volatile boolean closed;
+    // Set by the consumer once it stopped draining the ring
+    private volatile boolean terminated;
+
+    WriteRing(int highWaterMark, Statistics stats) {
+        this(DEFAULT_SLOTS, SLOT_SIZE, highWaterMark, stats);
+    }
+
+    WriteRing(int slotCount, int slotSize, int highWaterMark, Statistics stats) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("nats: slot count must be a power of two");
+        }
+        this.mask = slotCount - 1;
+        this.sequences = new AtomicLongArray(slotCount);
+        this.slots = new byte[slotCount][slotSize];
+        this.large = new byte[slotCount][];
+        this.lengths = new int[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            sequences.set(i, i);
+        }
+        this.highWaterMark = highWaterMark;
+        this.stats = stats;
+    }
+
+    // The stream view of the ring, each write is queued as one record.
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    // Returns the sequence number of the claimed slot, or -1 if the ring is closed.
+    private long claim(int size) {
+        boolean stalled = false;
+        int spins = 0;
+        while (!closed) {
+            final long seq = tail.get();
+            final long avail = sequences.get((int) seq & mask);
+            if (avail == seq) {
+                final long queued = queuedBytes.get();
+                if (queued == 0 || queued + size <= highWaterMark) {
+                    if (tail.compareAndSet(seq, seq + 1)) {
+                        if (closed) {
+                            // Closed meanwhile, the consumer may not wait for this slot: hand it
+                            // back as an empty record and let the caller fall back.
+                            commit(seq, 0);
+                            return -1;
+                        }
+                        queuedBytes.addAndGet(size);
+                        return seq;
+                    }
+                    continue;
+                }
+            } else if (avail > seq) {
+                // Claimed by another producer, the tail has moved on.
+                continue;
+            }
+            // Full or over the high water mark, wait for the consumer.
+            if (!stalled) {
+                stalled = true;
+                stats.incrementWriteStalls();
+            }
+            signal();
+            if (++spins < STALL_SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, STALL_PARK_NANOS);
+            }
+        }
+        return -1;
+    }
+
+    private byte[] buffer(long seq, int size) {
+        final int idx = (int) seq & mask;
+        if (size <= slots[idx].length) {
+            return slots[idx];
+        }
+        return large[idx] = new byte[size];
+    }
+
+    private void commit(long seq, int size) {
+        final int idx = (int) seq & mask;
+        lengths[idx] = size;
+        // The volatile write also orders the check for a parked consumer below.
+        sequences.set(idx, seq + 1);
+        signal();
+    }
+
+    private void signal() {
+        Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /*
+     * Queues a copy of b[off, off + len) as one record. Returns its sequence number, or -1 if the
+     * ring is closed.
+     */
+    long offer(byte[] b, int off, int len) {
+        final long seq = claim(len);
+        if (seq < 0) {
+            return -1;
+        }
+        System.arraycopy(b, off, buffer(seq, len), 0, len);
+        commit(seq, len);
+        return seq;
+    }
+
+    /*
+     * Queues a PUB protocol message with its payload as one record, so that messages from
+     * concurrent publishers never interleave. Returns its sequence number, or -1 if the ring is
+     * closed.
+     */
+    long offerPublish(byte[] subject, byte[] reply, byte[] data, int offset, int length) {
+        final int size = publishSize(subject, reply, length);
+        final long seq = claim(size);
+        if (seq < 0) {
+            return -1;
+        }
+        final byte[] buf = buffer(seq, size);
+        final int pos = writePublishHeader(buf, subject, reply, length);
+        if (length > 0) {
+            System.arraycopy(data, offset, buf, pos, length);
+        }
+        buf[size - 2] = '\r';
+        buf[size - 1] = '\n';
+        commit(seq, size);
+        return seq;
+    }
+
+    // Same as above with the remaining bytes of data as the payload, its position is unchanged.
+    long offerPublish(byte[] subject, byte[] reply, ByteBuffer data) {
+        final int length = data.remaining();
+        final int size = publishSize(subject, reply, length);
+        final long seq = claim(size);
+        if (seq < 0) {
+            return -1;
+        }
+        final byte[] buf = buffer(seq, size);
+        final int pos = writePublishHeader(buf, subject, reply, length);
+        if (length > 0) {
+            data.duplicate().get(buf, pos, length);
+        }
+        buf[size - 2] = '\r';
+        buf[size - 1] = '\n';
+        commit(seq, size);
+        return seq;
+    }
+
+    private static int digitCount(int value) {
+        int digits = 1;
+        for (int l = value; l >= 10; l /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int publishSize(byte[] subject, byte[] reply, int length) {
+        return PUB.length + subject.length + (reply != null ? reply.length + 1 : 0)
+                + 1 + digitCount(length) + 2 + length + 2;
+    }
+
+    // Writes "PUB subject [reply] length\r\n" and returns the position of the payload.
+    private static int writePublishHeader(byte[] buf, byte[] subject, byte[] reply, int length) {
+        System.arraycopy(PUB, 0, buf, 0, PUB.length);
+        int pos = PUB.length;
+        System.arraycopy(subject, 0, buf, pos, subject.length);
+        pos += subject.length;
+        if (reply != null) {
+            buf[pos++] = ' ';
+            System.arraycopy(reply, 0, buf, pos, reply.length);
+            pos += reply.length;
+        }
+        buf[pos++] = ' ';
+        pos += digitCount(length);
+        int idx = pos;
+        int l = length;
+        do {
+            buf[--idx] = ConnectionImpl.digits[l % 10];
+            l /= 10;
+        } while (l > 0);
+        buf[pos++] = '\r';
+        buf[pos++] = '\n';
+        return pos;
+    }
+
+    // Tail is read after closed, so no slot claimed before closing is left out.
+    private boolean drained() {
+        return closed && head == tail.get();
+    }
+
+    private boolean ready() {
+        return sequences.get((int) head & mask) == head + 1;
+    }
+
+    /*
+     * Waits until the next record is ready. Returns false once the ring is closed and every slot
+     * claimed before has been written, including those whose producer has yet to commit them.
+     * Producers that claim a slot after the ring is closed hand it back, see claim(). Consumer
+     * only.
+     */
+    boolean awaitData() throws InterruptedException {
+        final Thread current = Thread.currentThread();
+        int spins = 0;
+        while (!ready()) {
+            if (drained()) {
+                return false;
+            }
+            if (++spins < WRITER_SPINS) {
+                // Unparking costs the producers more than a few yields cost the writer.
+                Thread.yield();
+                continue;
+            }
+            waiter = current;
+            try {
+                if (ready() || drained()) {
+                    continue;
+                }
+                LockSupport.park(this);
+            } finally {
+                waiter = null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Writes the ready records to out, at most one ring's worth so that the caller flushes
+     * regularly under load. Consumer only, returns the number of records written.
+     */
+    int drainTo(OutputStream out) throws IOException {
+        int count = 0;
+        while (count <= mask && ready()) {
+            final int idx = (int) head & mask;
+            final int len = lengths[idx];
+            byte[] buf = large[idx];
+            if (buf != null) {
+                large[idx] = null;
+            } else {
+                buf = slots[idx];
+            }
+            out.write(buf, 0, len);
+            sequences.lazySet(idx, head + mask + 1);
+            head++;
+            queuedBytes.addAndGet(-len);
+            count++;
+        }
+        return count;
+    }
+
+    // Called by the consumer once the records written so far have been flushed.
+    void flushed() {
+        flushedSeq = head;
+        if (flushWaiters.get() > 0) {
+            signalFlushWaiters();
+        }
+    }
+
+    private void signalFlushWaiters() {
+        flushLock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /*
+     * Waits until the records before seq have been flushed to the socket. Throws an IOException
+     * if the consumer stopped before that.
+     */
+    void awaitFlushed(long seq) throws IOException {
+        if (flushedSeq >= seq) {
+            return;
+        }
+        flushWaiters.incrementAndGet();
+        flushLock.lock();
+        try {
+            while (flushedSeq < seq) {
+                if (terminated) {
+                    throw new IOException(ERR_CONNECTION_CLOSED);
+                }
+                flushed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            flushLock.unlock();
+            flushWaiters.decrementAndGet();
+        }
+    }
+
+    // Refuses new records, the consumer still writes the ones queued before it stops.
+    void close() {
+        closed = true;
+        signal();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    // Called by the consumer when it stops, releases the producers and flush waiters.
+    void terminate() {
+        closed = true;
+        terminated = true;
+        signalFlushWaiters();
+    }
+
+    long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    private final class RingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (offer(b, off, len) < 0) {
+                throw new IOException(ERR_CONNECTION_CLOSED);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            awaitFlushed(tail.get());
+        }
+    }
+}
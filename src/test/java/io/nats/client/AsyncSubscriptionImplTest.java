@@ -74,4 +74,34 @@ public class AsyncSubscriptionImplTest extends BaseUnitTest {
         }
     }
 
+    @Test
+    public void testSetBatchLimits() {
+        ConnectionImpl nc = mock(ConnectionImpl.class);
+        when(nc.getOptions()).thenReturn(Nats.defaultOptions());
+
+        try (AsyncSubscriptionImpl s = new AsyncSubscriptionImpl(nc, "foo", "bar", null)) {
+            assertEquals(AsyncSubscriptionImpl.DEFAULT_BATCH_MSGS_LIMIT, s.getBatchMsgsLimit());
+            assertEquals(AsyncSubscriptionImpl.DEFAULT_BATCH_BYTES_LIMIT, s.getBatchBytesLimit());
+
+            s.setBatchLimits(10, -1);
+            assertEquals(10, s.getBatchMsgsLimit());
+            assertEquals(-1, s.getBatchBytesLimit());
+
+            boolean exThrown = false;
+            try {
+                s.setBatchLimits(0, 100);
+            } catch (IllegalArgumentException e) {
+                exThrown = true;
+            }
+            assertTrue(exThrown);
+            exThrown = false;
+            try {
+                s.setBatchLimits(100, 0);
+            } catch (IllegalArgumentException e) {
+                exThrown = true;
+            }
+            assertTrue(exThrown);
+            assertEquals(10, s.getBatchMsgsLimit());
+        }
+    }
 }
@@ -0,0 +1,69 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Category(UnitTest.class)
+public class ConflationTableTest extends BaseUnitTest {
+
+    @Test
+    public void testPutGetRemove() {
+        ConflationTable table = new ConflationTable();
+        List<Message> msgs = new ArrayList<Message>();
+        for (int i = 0; i < 1000; i++) {
+            Message msg = new Message("quotes." + i, null, null);
+            msgs.add(msg);
+            table.put(msg);
+        }
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 1000; i++) {
+            assertSame(msgs.get(i), table.get(("quotes." + i).getBytes()));
+        }
+        assertNull(table.get("quotes.1000".getBytes()));
+
+        // Remove every other entry, the rest must stay reachable.
+        for (int i = 0; i < 1000; i += 2) {
+            table.remove(msgs.get(i));
+        }
+        assertEquals(500, table.size());
+        for (int i = 0; i < 1000; i++) {
+            Message expected = (i % 2 == 0) ? null : msgs.get(i);
+            assertSame(expected, table.get(("quotes." + i).getBytes()));
+        }
+
+        // Removing a message that is not the indexed one is a no-op.
+        table.remove(new Message("quotes.1", null, null));
+        assertSame(msgs.get(1), table.get("quotes.1".getBytes()));
+        assertEquals(500, table.size());
+    }
+
+    @Test
+    public void testMessageConflate() {
+        Message pending = new Message("foo", "reply.1", "old".getBytes());
+        pending.conflate(new Message("foo", null, "newer".getBytes()));
+        assertEquals("foo", pending.getSubject());
+        assertNull(pending.getReplyTo());
+        assertEquals("newer", new String(pending.getData()));
+        assertEquals(5, pending.getDataLength());
+    }
+}
@@ -0,0 +1,103 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static io.nats.client.Nats.defaultOptions;
+import static io.nats.client.UnitTestUtilities.defaultInfo;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Mixed inbound/outbound load on a single connection. The read path is driven directly through
+ * the parser while another thread publishes, and the lock contention counters are reported. The
+ * connection is never connected so that no read loop competes for the parser.
+ */
+@Category(PerfTest.class)
+public class ConnectionContentionPerfTest extends BaseUnitTest {
+
+    @Test
+    public void testMixedPubSubContention() throws Exception {
+        try (final ConnectionImpl conn = new ConnectionImpl(defaultOptions())) {
+            conn.setup();
+            conn.setOutputStream(new OutputStream() {
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+            conn.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+
+            final int bufSize = 65536;
+            final int count = 100;
+            final int pubCount = 1000000;
+
+            // Nothing consumes the messages, so they simply pile up.
+            SyncSubscription sub = conn.subscribeSync("foo");
+            sub.setPendingLimits(-1, -1);
+            final long sid = ((SubscriptionImpl) sub).getSid();
+
+            byte[] msgBytes = String.format("MSG foo %d 4\r\ntest\r\n", sid).getBytes();
+            final byte[] buf = new byte[bufSize];
+            int len = 0;
+            int numMsgs = 0;
+            while (len + msgBytes.length <= bufSize) {
+                System.arraycopy(msgBytes, 0, buf, len, msgBytes.length);
+                len += msgBytes.length;
+                numMsgs++;
+            }
+            final int bufLen = len;
+
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        Parser parser = conn.getParser();
+                        for (int i = 0; i < count; i++) {
+                            parser.parse(buf, bufLen);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, "reader");
+            reader.start();
+
+            final byte[] payload = "test".getBytes();
+            long t0 = System.nanoTime();
+            start.countDown();
+            for (int i = 0; i < pubCount; i++) {
+                conn.publish("bar", payload);
+            }
+            long pubElapsed = System.nanoTime() - t0;
+            reader.join();
+            long elapsed = System.nanoTime() - t0;
+
+            Statistics stats = conn.getStats();
+            assertEquals((long) count * numMsgs, stats.getInMsgs());
+            System.err.printf("Published %d msgs in %.2fs, parsed %d msgs in %.2fs\n", pubCount,
+                    (double) pubElapsed / TimeUnit.SECONDS.toNanos(1), stats.getInMsgs(),
+                    (double) elapsed / TimeUnit.SECONDS.toNanos(1));
+            System.err.printf("Connection lock contentions: %d, subscription lock contentions: %d\n",
+                    stats.getConnLockContentions(), stats.getSubLockContentions());
+        }
+    }
+}
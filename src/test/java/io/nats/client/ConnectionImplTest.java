@@ -45,6 +45,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
@@ -61,6 +62,7 @@ import static org.mockito.internal.verification.VerificationModeFactory.atLeast;
 import io.nats.client.ConnectionImpl.Control;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -70,18 +72,28 @@ import java.net.URI;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import javax.net.ssl.SSLContext;
 import org.junit.After;
@@ -146,7 +158,7 @@ public class ConnectionImplTest extends BaseUnitTest {
     private ExecutorService cbExecMock;
 
     @Mock
-    private Map<Long, SubscriptionImpl> subsMock;
+    private SubscriptionTable subsMock;
 
     @Mock
     private SyncSubscriptionImpl syncSubMock;
@@ -921,6 +933,254 @@ public class ConnectionImplTest extends BaseUnitTest {
         }
     }
 
+    @Test
+    public void testPublishBatch() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.setOutputStream(out);
+            c.resetStats();
+            List<Message> msgs = Arrays.asList(
+                    new Message("foo", null, "hello".getBytes()),
+                    new Message("bar", "baz", null),
+                    new Message("foo", null, "world".getBytes()));
+            c.publish(msgs);
+            assertEquals("PUB foo 5\r\nhello\r\nPUB bar baz 0\r\n\r\nPUB foo 5\r\nworld\r\n",
+                    new String(out.toByteArray()));
+
+            Statistics stats = c.getStats();
+            assertEquals(3, stats.getOutMsgs());
+            assertEquals(10, stats.getOutBytes());
+            assertEquals(1, stats.getPublishBatches());
+            assertEquals(3, stats.getPublishBatchMsgs());
+            assertEquals(3, stats.getMaxPublishBatchSize());
+
+            // Empty batches are not counted
+            c.publish(new ArrayList<Message>());
+            assertEquals(1, c.getStats().getPublishBatches());
+        }
+    }
+
+    @Test
+    public void testPublishBatchValidatesFirst() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.setOutputStream(out);
+            Message bad = new Message();
+            bad.setData("x".getBytes());
+            try {
+                c.publish(Arrays.asList(new Message("foo", null, null), bad));
+                fail("Should have thrown NullPointerException");
+            } catch (NullPointerException e) {
+                assertEquals(ERR_BAD_SUBJECT, e.getMessage());
+            }
+
+            byte[] big = new byte[(int) c.getMaxPayload() + 1];
+            try {
+                c.publish(Arrays.asList(new Message("foo", null, null),
+                        new Message("foo", null, big)));
+                fail("Should have thrown IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertEquals(ERR_MAX_PAYLOAD, e.getMessage());
+            }
+            // Nothing of the batches was written
+            assertEquals(0, out.size());
+        }
+    }
+
+    @Test
+    public void testPublishBatchIoError() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            BufferedOutputStream bw = mock(BufferedOutputStream.class);
+            doThrow(new IOException("Mock OutputStream write exception")).when(bw)
+                    .write(any(byte[].class), any(int.class), any(int.class));
+            c.setOutputStream(bw);
+            c.publish(Arrays.asList(new Message("foo", null, null)));
+            assertTrue(c.getLastException() instanceof IOException);
+            assertEquals(0, c.getStats().getPublishBatchMsgs());
+        }
+    }
+
+    @Test
+    public void testPublishArraySlice() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.setOutputStream(out);
+            c.resetStats();
+            byte[] data = "0123456789".getBytes();
+            c.publish("foo", data, 2, 3);
+            c.publish("foo", data, 10, 0);
+            c.publish("foo", null, 0, 0);
+            assertEquals("PUB foo 3\r\n234\r\nPUB foo 0\r\n\r\nPUB foo 0\r\n\r\n",
+                    new String(out.toByteArray()));
+            assertEquals(3, c.getStats().getOutMsgs());
+            assertEquals(3, c.getStats().getOutBytes());
+
+            int[][] invalid = {{-1, 2}, {2, -1}, {8, 3}, {11, 0}, {1, Integer.MAX_VALUE}};
+            for (int[] range : invalid) {
+                try {
+                    c.publish("foo", data, range[0], range[1]);
+                    fail("Should have thrown IndexOutOfBoundsException");
+                } catch (IndexOutOfBoundsException e) {
+                    // expected
+                }
+            }
+            try {
+                c.publish("foo", null, 0, 1);
+                fail("Should have thrown IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+            assertEquals(3, c.getStats().getOutMsgs());
+        }
+    }
+
+    @Test
+    public void testPublishByteBuffer() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.setOutputStream(out);
+            c.resetStats();
+
+            // Array backed, published from its remaining bytes
+            ByteBuffer heap = ByteBuffer.wrap("xxhelloxx".getBytes());
+            heap.position(2);
+            heap.limit(7);
+            c.publishBuffer("foo", "bar", heap.slice());
+            c.publishBuffer("foo", null, heap);
+            assertEquals(2, heap.position());
+            assertEquals(7, heap.limit());
+
+            // Read-only and direct buffers are copied to the stream in chunks
+            c.publishBuffer("foo", null, heap.asReadOnlyBuffer());
+            byte[] big = new byte[20000];
+            for (int i = 0; i < big.length; i++) {
+                big[i] = (byte) ('a' + i % 26);
+            }
+            ByteBuffer direct = ByteBuffer.allocateDirect(big.length);
+            direct.put(big);
+            direct.flip();
+            c.publishBuffer("foo", null, direct);
+            assertEquals(0, direct.position());
+
+            c.publishBuffer("foo", null, null);
+
+            assertEquals("PUB foo bar 5\r\nhello\r\nPUB foo 5\r\nhello\r\nPUB foo 5\r\nhello\r\n"
+                            + "PUB foo 20000\r\n" + new String(big) + "\r\nPUB foo 0\r\n\r\n",
+                    new String(out.toByteArray()));
+            assertEquals(5, c.getStats().getOutMsgs());
+            assertEquals(15 + big.length, c.getStats().getOutBytes());
+
+            ByteBuffer tooBig = ByteBuffer.allocateDirect((int) c.getMaxPayload() + 1);
+            try {
+                c.publishBuffer("foo", null, tooBig);
+                fail("Should have thrown IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertEquals(ERR_MAX_PAYLOAD, e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testWriterThreadPublish() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TcpConnectionFactory tcf = newMockedTcpConnectionFactory();
+        TcpConnection tconn = newMockedTcpConnection();
+        doReturn(tconn).when(tcf).createConnection();
+        doReturn(out).when(tconn).getOutputStream(anyInt());
+        Options opts = new Options.Builder().useWriterThread(true).factory(tcf).build();
+        try (final ConnectionImpl c = (ConnectionImpl) newMockedConnection(opts)) {
+            assertTrue(c.isConnected());
+            out.reset();
+            c.resetStats();
+
+            final int count = 1000;
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                final String subject = "t" + t;
+                final int mode = t;
+                threads[t] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            ByteBuffer direct = ByteBuffer.allocateDirect(16);
+                            for (int i = 0; i < count; i++) {
+                                byte[] data = Integer.toString(i).getBytes();
+                                if (mode == 0) {
+                                    c.publish(Arrays.asList(new Message(subject, null, data)));
+                                } else if (mode == 1) {
+                                    direct.clear();
+                                    direct.put(data).flip();
+                                    c.publishBuffer(subject, null, direct);
+                                } else {
+                                    c.publish(subject, data, 0, data.length);
+                                }
+                            }
+                        } catch (IOException e) {
+                            fail(e.getMessage());
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            // Returns once everything before it has been flushed to the socket
+            c.publish("end", null, null, true);
+
+            // Every message is written whole, the messages of each thread in order.
+            int[] next = new int[threads.length];
+            String[] lines = new String(out.toByteArray()).split("\r\n");
+            assertEquals(2 * threads.length * count + 1, lines.length);
+            for (int i = 0; i < lines.length - 1; i += 2) {
+                String[] proto = lines[i].split(" ");
+                int t = Integer.parseInt(proto[1].substring(1));
+                assertEquals(Integer.toString(next[t]++), lines[i + 1]);
+            }
+            assertEquals("PUB end 0", lines[lines.length - 1]);
+            assertEquals(threads.length * count + 1, c.getStats().getOutMsgs());
+            assertTrue(c.getStats().getFlushes() > 0);
+        }
+    }
+
+    @Test
+    public void testWriterThreadReconnect() throws Exception {
+        Options opts = new Options.Builder().useWriterThread(true).reconnectWait(100).build();
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection(opts)) {
+            final CountDownLatch reconnected = new CountDownLatch(1);
+            c.setReconnectedCallback(new ReconnectedCallback() {
+                @Override
+                public void onReconnect(ConnectionEvent event) {
+                    reconnected.countDown();
+                }
+            });
+            c.getTcpConnection().close();
+            assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+            assertTrue(c.isConnected());
+            assertEquals(1, c.getStats().getReconnects());
+
+            // Goes through the writer thread of the new connection
+            c.publish("foo", null, "bar".getBytes(), true);
+            assertEquals(1, c.getStats().getOutMsgs());
+        }
+    }
+
+    @Test
+    public void testWriterThreadClosed() throws Exception {
+        TcpConnectionFactory tcf = newMockedTcpConnectionFactory();
+        TcpConnection tconn = newMockedTcpConnection();
+        doReturn(tconn).when(tcf).createConnection();
+        doReturn(new ByteArrayOutputStream()).when(tconn).getOutputStream(anyInt());
+        Options opts = new Options.Builder().useWriterThread(true).factory(tcf).build();
+        ConnectionImpl c = (ConnectionImpl) newMockedConnection(opts);
+        c.close();
+        try {
+            c.publish("foo", null);
+            fail("Should have thrown IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(ERR_CONNECTION_CLOSED, e.getMessage());
+        }
+    }
+
     @Test
     public void testGetPropertiesStringFailure() throws Exception {
         try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
@@ -1460,7 +1720,7 @@ public class ConnectionImplTest extends BaseUnitTest {
             Parser parser = c.getParser();
             SubscriptionImpl sub = (SubscriptionImpl) Mockito.spy(c.subscribe("foo", mcbMock));
             parser.ps.ma.sid = 44L;
-            when(subsMock.get(any(long.class))).thenReturn(sub);
+            when(subsMock.get(anyLong())).thenReturn(sub);
             when(mchMock.add(any(Message.class))).thenReturn(true);
             c.setSubs(subsMock);
             sub.setChannel(mchMock);
@@ -1484,6 +1744,248 @@ public class ConnectionImplTest extends BaseUnitTest {
         }
     }
 
+    @Test
+    public void testParseBatchSignalsOncePerSubscription() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) spy(new ConnectionImpl(defaultOptions()))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            Parser parser = c.getParser();
+            SubscriptionImpl foo = (SubscriptionImpl) c.subscribeSync("foo");
+            SubscriptionImpl bar = (SubscriptionImpl) c.subscribeSync("bar");
+            SpscMessageQueue fooCh = spy(new SpscMessageQueue(16));
+            SpscMessageQueue barCh = spy(new SpscMessageQueue(16));
+            foo.setChannel(fooCh);
+            bar.setChannel(barCh);
+
+            byte[] buf = ("MSG foo 1 1\r\na\r\nMSG bar 2 1\r\nb\r\nMSG foo 1 1\r\nc\r\n"
+                    + "MSG baz 9 1\r\nd\r\nMSG foo 1 1\r\ne\r\n").getBytes();
+            parser.parse(buf, buf.length);
+
+            assertEquals(5, c.getStats().getInMsgs());
+            assertEquals(3, foo.getPendingMsgs());
+            assertEquals(1, bar.getPendingMsgs());
+            // One signal per destination for the whole buffer
+            verify(fooCh, times(3)).enqueue(any(Message.class));
+            verify(fooCh, times(1)).signal();
+            verify(barCh, times(1)).signal();
+            // Per-subscription order is preserved
+            assertEquals("a", new String(foo.getChannel().poll().getData()));
+            assertEquals("c", new String(foo.getChannel().poll().getData()));
+            assertEquals("e", new String(foo.getChannel().poll().getData()));
+            assertEquals("b", new String(bar.getChannel().poll().getData()));
+            assertNull(foo.batchHead);
+        }
+    }
+
+    private static byte[] msgProtos(String subj, long sid, String... payloads) {
+        StringBuilder sb = new StringBuilder();
+        for (String payload : payloads) {
+            sb.append(String.format("MSG %s %d %d\r\n%s\r\n", subj, sid, payload.length(),
+                    payload));
+        }
+        return sb.toString().getBytes();
+    }
+
+    @Test
+    public void testSlowConsumerDropOldest() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            SyncSubscriptionImpl sub = (SyncSubscriptionImpl) c.subscribeSync("foo");
+            sub.setPendingLimits(2, 1024, SlowConsumerPolicy.DROP_OLDEST);
+            assertEquals(SlowConsumerPolicy.DROP_OLDEST, sub.getSlowConsumerPolicy());
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "a", "b", "c", "d");
+            c.getParser().parse(buf, buf.length);
+
+            assertEquals(2, sub.getPendingMsgs());
+            assertEquals(2, sub.getDropped());
+            assertTrue(sub.isSlowConsumer());
+            assertEquals(2, c.getStats().getSlowConsumerDroppedOldest());
+            assertEquals(0, c.getStats().getSlowConsumerDroppedNewest());
+            assertEquals("c", new String(sub.getChannel().poll().getData()));
+            assertEquals("d", new String(sub.getChannel().poll().getData()));
+        }
+    }
+
+    @Test
+    public void testSlowConsumerBlockTimeout() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            SyncSubscriptionImpl sub = (SyncSubscriptionImpl) c.subscribeSync("foo");
+            sub.setPendingLimits(1, 1024, SlowConsumerPolicy.block(100, TimeUnit.MILLISECONDS));
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "a", "b");
+            long t0 = System.nanoTime();
+            c.getParser().parse(buf, buf.length);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+
+            assertTrue("elapsed " + elapsed, elapsed >= 90);
+            assertEquals(1, sub.getPendingMsgs());
+            assertEquals(1, sub.getDropped());
+            assertEquals(1, c.getStats().getSlowConsumerBlockTimeouts());
+            assertEquals(1, c.getStats().getSlowConsumerDroppedNewest());
+            assertEquals("a", new String(sub.getChannel().poll().getData()));
+        }
+    }
+
+    @Test
+    public void testSlowConsumerBlockUntilConsumed() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final SyncSubscriptionImpl sub = (SyncSubscriptionImpl) c.subscribeSync("foo");
+            sub.setPendingLimits(1, 1024, SlowConsumerPolicy.block(5, TimeUnit.SECONDS));
+
+            final BlockingQueue<Message> received = new LinkedBlockingQueue<Message>();
+            Thread consumer = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(50);
+                        try {
+                            received.add(sub.nextMessage(5, TimeUnit.SECONDS));
+                        } catch (IOException e) {
+                            // Reported once for the slow consumer, then delivery resumes
+                            received.add(sub.nextMessage(5, TimeUnit.SECONDS));
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            consumer.start();
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "a", "b");
+            c.getParser().parse(buf, buf.length);
+            consumer.join(5000);
+
+            assertEquals("a", new String(received.poll(1, TimeUnit.SECONDS).getData()));
+            assertEquals(1, sub.getPendingMsgs());
+            assertEquals(0, sub.getDropped());
+            assertEquals(1, c.getStats().getSlowConsumerBlocks());
+            assertEquals(0, c.getStats().getSlowConsumerBlockTimeouts());
+            assertEquals("b", new String(sub.getChannel().poll().getData()));
+        }
+    }
+
+    @Test
+    public void testSlowConsumerCustomPolicy() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            SyncSubscriptionImpl sub = (SyncSubscriptionImpl) c.subscribeSync("foo");
+            final AtomicInteger calls = new AtomicInteger();
+            sub.setPendingLimits(1, 1024, new SlowConsumerPolicy() {
+                @Override
+                public Action onSlowConsumer(Subscription sub, Message msg) {
+                    calls.incrementAndGet();
+                    // Keep the latest "x", drop anything else
+                    return "x".equals(new String(msg.getData())) ? Action.DROP_OLDEST : null;
+                }
+            });
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "a", "b", "x", "c");
+            c.getParser().parse(buf, buf.length);
+
+            assertEquals(3, calls.get());
+            assertEquals(1, sub.getPendingMsgs());
+            assertEquals(3, sub.getDropped());
+            assertEquals(2, c.getStats().getSlowConsumerDroppedNewest());
+            assertEquals(1, c.getStats().getSlowConsumerDroppedOldest());
+            assertEquals("x", new String(sub.getChannel().poll().getData()));
+        }
+    }
+
+    @Test
+    public void testSlowConsumerSpill() throws Exception {
+        File dir = java.nio.file.Files.createTempDirectory("jnats-test").toFile();
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            SyncSubscriptionImpl sub = (SyncSubscriptionImpl) c.subscribeSync("foo");
+            sub.setPendingLimits(2, 1024, SlowConsumerPolicy.spill(dir, 1024 * 1024));
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "a", "b", "c", "d", "e");
+            c.getParser().parse(buf, buf.length);
+
+            assertEquals(2, sub.getPendingMsgs());
+            assertEquals(3, sub.spill.size());
+            assertEquals(0, sub.getDropped());
+            assertEquals(3, c.getStats().getSpilledMsgs());
+            assertEquals(1, dir.listFiles().length);
+
+            try {
+                sub.nextMessage(1, TimeUnit.SECONDS);
+                fail("Should have reported a slow consumer");
+            } catch (IOException e) {
+                assertEquals(Nats.ERR_SLOW_CONSUMER, e.getMessage());
+            }
+            assertEquals("a", new String(sub.nextMessage(1, TimeUnit.SECONDS).getData()));
+            // Refilled from disk
+            assertEquals(2, sub.getPendingMsgs());
+            assertEquals(2, sub.spill.size());
+
+            // New messages queue up behind the backlog on disk
+            buf = msgProtos("foo", sub.getSid(), "f");
+            c.getParser().parse(buf, buf.length);
+            assertEquals(3, sub.spill.size());
+
+            for (String expected : new String[] {"b", "c", "d", "e", "f"}) {
+                assertEquals(expected, new String(sub.nextMessage(1, TimeUnit.SECONDS).getData()));
+            }
+            assertTrue(sub.spill.isEmpty());
+            assertEquals(0, sub.getPendingMsgs());
+
+            // Back to memory once caught up
+            buf = msgProtos("foo", sub.getSid(), "g");
+            c.getParser().parse(buf, buf.length);
+            assertTrue(sub.spill.isEmpty());
+            assertEquals(1, sub.getPendingMsgs());
+
+            sub.close(false);
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testConflatingSubscription() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            SyncSubscriptionImpl sub = (SyncSubscriptionImpl) c.subscribeSync("quotes.>");
+            sub.setConflating(true);
+            assertTrue(sub.isConflating());
+
+            String protos = "MSG quotes.a 1 2\r\na1\r\nMSG quotes.b 1 2\r\nb1\r\n"
+                    + "MSG quotes.a 1 3\r\na22\r\nMSG quotes.a 1 2\r\na3\r\n";
+            byte[] buf = protos.replace(" 1 ", " " + sub.getSid() + " ").getBytes();
+            c.getParser().parse(buf, buf.length);
+
+            assertEquals(2, sub.getPendingMsgs());
+            assertEquals(4, sub.getPendingBytes());
+            assertEquals(2, sub.getConflated());
+
+            // The latest value takes the place of the first one
+            Message msg = sub.nextMessage(1, TimeUnit.SECONDS);
+            assertEquals("quotes.a", msg.getSubject());
+            assertEquals("a3", new String(msg.getData()));
+            assertEquals("b1", new String(sub.nextMessage(1, TimeUnit.SECONDS).getData()));
+
+            // Delivered messages are no longer replaced
+            buf = ("MSG quotes.a " + sub.getSid() + " 2\r\na4\r\n").getBytes();
+            c.getParser().parse(buf, buf.length);
+            assertEquals("a3", new String(msg.getData()));
+            assertEquals("a4", new String(sub.nextMessage(1, TimeUnit.SECONDS).getData()));
+            assertEquals(2, sub.getConflated());
+
+            sub.setConflating(false);
+            assertFalse(sub.isConflating());
+        }
+    }
+
     @Test
     public void testProcessMsgMaxReached() throws Exception {
         final byte[] data = "Hello, World!".getBytes();
@@ -1619,6 +2121,538 @@ public class ConnectionImplTest extends BaseUnitTest {
         }
     }
 
+    // Records the payloads of each batch, the first call waits for release.
+    private static class RecordingBatchHandler implements BatchMessageHandler {
+        final List<List<String>> batches = Collections.synchronizedList(
+                new ArrayList<List<String>>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done;
+
+        RecordingBatchHandler(int count) {
+            done = new CountDownLatch(count);
+        }
+
+        public void onMessages(List<Message> msgs) {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<String> batch = new ArrayList<String>();
+            for (Message msg : msgs) {
+                batch.add(new String(msg.getData()));
+            }
+            batches.add(batch);
+            for (int i = 0; i < msgs.size(); i++) {
+                done.countDown();
+            }
+        }
+
+        public void onMessage(Message msg) {
+            fail("onMessage should not be called");
+        }
+    }
+
+    @Test
+    public void testBatchMessageHandler() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            RecordingBatchHandler handler = new RecordingBatchHandler(11);
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo", handler);
+            sub.setBatchLimits(4, -1);
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "0");
+            c.getParser().parse(buf, buf.length);
+            assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+            // Piles up while the handler is busy with the first batch
+            buf = msgProtos("foo", sub.getSid(), "1", "2", "3", "4", "5", "6", "7", "8", "9", "10");
+            c.getParser().parse(buf, buf.length);
+            assertEquals(10, sub.getPendingMsgs());
+            handler.release.countDown();
+            assertTrue(handler.done.await(5, TimeUnit.SECONDS));
+
+            assertEquals(Arrays.asList(Arrays.asList("0"), Arrays.asList("1", "2", "3", "4"),
+                    Arrays.asList("5", "6", "7", "8"), Arrays.asList("9", "10")),
+                    handler.batches);
+            assertEquals(0, sub.getPendingMsgs());
+            assertEquals(0, sub.getPendingBytes());
+            assertEquals(11, sub.getDelivered());
+        }
+    }
+
+    @Test
+    public void testBatchMessageHandlerBytesLimit() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            RecordingBatchHandler handler = new RecordingBatchHandler(6);
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo", handler);
+            sub.setBatchLimits(-1, 5);
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "0");
+            c.getParser().parse(buf, buf.length);
+            assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+            // A message over the limit is delivered on its own
+            buf = msgProtos("foo", sub.getSid(), "aa", "bb", "cc", "toolarge", "dd");
+            c.getParser().parse(buf, buf.length);
+            handler.release.countDown();
+            assertTrue(handler.done.await(5, TimeUnit.SECONDS));
+
+            assertEquals(Arrays.asList(Arrays.asList("0"), Arrays.asList("aa", "bb"),
+                    Arrays.asList("cc"), Arrays.asList("toolarge"), Arrays.asList("dd")),
+                    handler.batches);
+        }
+    }
+
+    @Test
+    public void testBatchMessageHandlerMax() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            RecordingBatchHandler handler = new RecordingBatchHandler(3);
+            handler.release.countDown();
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo", handler);
+            sub.setMax(3);
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "a", "b", "c", "d", "e");
+            c.getParser().parse(buf, buf.length);
+            assertTrue(handler.done.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+
+            int total = 0;
+            for (List<String> batch : handler.batches) {
+                total += batch.size();
+            }
+            assertEquals(3, total);
+            assertFalse(sub.isValid());
+        }
+    }
+
+    @Test
+    public void testPartitionedDelivery() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final int subjects = 8;
+            final int perSubject = 50;
+            final Map<String, List<Integer>> received = new ConcurrentHashMap<String, List<Integer>>();
+            final Map<String, Thread> threads = new ConcurrentHashMap<String, Thread>();
+            final AtomicInteger misrouted = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(subjects * perSubject);
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo.*",
+                    new MessageHandler() {
+                        public void onMessage(Message msg) {
+                            Thread prev = threads.put(msg.getSubject(), Thread.currentThread());
+                            if (prev != null && prev != Thread.currentThread()) {
+                                misrouted.incrementAndGet();
+                            }
+                            received.get(msg.getSubject())
+                                    .add(Integer.parseInt(new String(msg.getData())));
+                            done.countDown();
+                        }
+                    });
+            sub.setPartitions(4, MessagePartitioner.SUBJECT);
+            assertEquals(4, sub.getPartitionCount());
+
+            Set<Integer> expectedPartitions = new HashSet<Integer>();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < perSubject; i++) {
+                for (int j = 0; j < subjects; j++) {
+                    String subject = "foo." + j;
+                    if (i == 0) {
+                        received.put(subject, Collections.synchronizedList(
+                                new ArrayList<Integer>()));
+                        byte[] bytes = subject.getBytes();
+                        expectedPartitions.add(MessagePartitioner.partitionOf(
+                                MessagePartitioner.hash(bytes, 0, bytes.length), 4));
+                    }
+                    sb.append(String.format("MSG %s %d %d\r\n%d\r\n", subject, sub.getSid(),
+                            Integer.toString(i).length(), i));
+                }
+            }
+            byte[] buf = sb.toString().getBytes();
+            c.getParser().parse(buf, buf.length);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            // In order per subject, one thread per partition
+            for (List<Integer> values : received.values()) {
+                assertEquals(perSubject, values.size());
+                for (int i = 0; i < perSubject; i++) {
+                    assertEquals(i, (int) values.get(i));
+                }
+            }
+            assertEquals(0, misrouted.get());
+            assertEquals(expectedPartitions.size(), new HashSet<Thread>(threads.values()).size());
+            assertEquals(subjects * perSubject, sub.getDelivered());
+            assertEquals(0, sub.getPendingMsgs());
+            assertEquals(0, sub.getPendingBytes());
+
+            boolean exThrown = false;
+            try {
+                sub.setPartitions(2, MessagePartitioner.SUBJECT);
+            } catch (IllegalStateException e) {
+                exThrown = true;
+            }
+            assertTrue(exThrown);
+        }
+    }
+
+    @Test
+    public void testPartitionedDeliveryPendingLimits() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final CountDownLatch entered = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicInteger count = new AtomicInteger();
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo",
+                    new MessageHandler() {
+                        public void onMessage(Message msg) {
+                            entered.countDown();
+                            try {
+                                release.await(5, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                            count.incrementAndGet();
+                        }
+                    });
+            sub.setPartitions(2, MessagePartitioner.subjectToken(0));
+            sub.setPendingLimits(10, -1);
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "0");
+            c.getParser().parse(buf, buf.length);
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            // Routed to the busy partition, but still pending until it takes them
+            String[] payloads = new String[20];
+            Arrays.fill(payloads, "x");
+            buf = msgProtos("foo", sub.getSid(), payloads);
+            c.getParser().parse(buf, buf.length);
+            Thread.sleep(100);
+            assertEquals(10, sub.getPendingMsgs());
+            assertEquals(10, sub.getDropped());
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (count.get() < 11 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(11, count.get());
+            assertEquals(0, sub.getPendingMsgs());
+        }
+    }
+
+    @Test
+    public void testPartitionedDeliveryMax() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final AtomicInteger count = new AtomicInteger();
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo.*",
+                    new MessageHandler() {
+                        public void onMessage(Message msg) {
+                            count.incrementAndGet();
+                        }
+                    });
+            sub.setPartitions(3, MessagePartitioner.SUBJECT);
+            sub.setMax(5);
+
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 20; i++) {
+                sb.append(String.format("MSG foo.%d %d 1\r\nx\r\n", i % 4, sub.getSid()));
+            }
+            byte[] buf = sb.toString().getBytes();
+            c.getParser().parse(buf, buf.length);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sub.isValid() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+            assertFalse(sub.isValid());
+            assertEquals(5, count.get());
+        }
+    }
+
+    @Test
+    public void testInlineMessageHandler() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final List<String> received = new ArrayList<String>();
+            final List<Thread> threads = new ArrayList<Thread>();
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo",
+                    new InlineMessageHandler() {
+                        public void onMessage(Message msg) {
+                            threads.add(Thread.currentThread());
+                            received.add(new String(msg.getData()));
+                        }
+                    });
+            assertTrue(sub.inline);
+
+            // Delivered by the reader thread, here the test thread, before parse returns.
+            byte[] buf = msgProtos("foo", sub.getSid(), "1", "2", "3");
+            c.getParser().parse(buf, buf.length);
+            assertEquals(Arrays.asList("1", "2", "3"), received);
+            assertEquals(Collections.nCopies(3, Thread.currentThread()), threads);
+            assertEquals(3, sub.getDelivered());
+            assertEquals(0, sub.getPendingMsgs());
+
+            sub.setMax(5);
+            buf = msgProtos("foo", sub.getSid(), "4", "5", "6");
+            c.getParser().parse(buf, buf.length);
+            assertEquals(Arrays.asList("1", "2", "3", "4", "5"), received);
+            assertFalse(sub.isValid());
+
+            AsyncSubscriptionImpl sub2 = (AsyncSubscriptionImpl) c.subscribe("bar",
+                    new InlineMessageHandler() {
+                        public void onMessage(Message msg) {
+                        }
+                    });
+            boolean exThrown = false;
+            try {
+                sub2.setPartitions(2, MessagePartitioner.SUBJECT);
+            } catch (IllegalStateException e) {
+                exThrown = true;
+            }
+            assertTrue(exThrown);
+        }
+    }
+
+    @Test
+    public void testInlineMessageHandlerBudget() throws Exception {
+        Options opts = new Options.Builder(defaultOptions())
+                .inlineHandlerBudget(5, TimeUnit.MILLISECONDS).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final BlockingQueue<NATSException> errors = new LinkedBlockingQueue<NATSException>();
+            c.setExceptionHandler(new ExceptionHandler() {
+                public void onException(NATSException nex) {
+                    errors.add(nex);
+                }
+            });
+            final CountDownLatch release = new CountDownLatch(1);
+            final AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo",
+                    new InlineMessageHandler() {
+                        public void onMessage(Message msg) {
+                            String data = new String(msg.getData());
+                            try {
+                                if (data.equals("slow")) {
+                                    Thread.sleep(20);
+                                } else if (data.equals("stuck")) {
+                                    release.await(5, TimeUnit.SECONDS);
+                                }
+                            } catch (InterruptedException e) {
+                                // ignore
+                            }
+                        }
+                    });
+
+            byte[] buf = msgProtos("foo", sub.getSid(), "slow", "slow");
+            c.getParser().parse(buf, buf.length);
+            assertEquals(2, c.getStats().getInlineHandlerOverruns());
+            NATSException nex = errors.poll(5, TimeUnit.SECONDS);
+            assertNotNull(nex);
+            assertEquals(Nats.ERR_INLINE_HANDLER_OVER_BUDGET, nex.getCause().getMessage());
+            assertEquals(sub, nex.getSubscription());
+            // Reported once until a call completes within budget
+            assertNull(errors.poll(100, TimeUnit.MILLISECONDS));
+            buf = msgProtos("foo", sub.getSid(), "fast", "slow");
+            c.getParser().parse(buf, buf.length);
+            assertNotNull(errors.poll(5, TimeUnit.SECONDS));
+            assertEquals(3, c.getStats().getInlineHandlerOverruns());
+
+            // The watchdog reports a handler that is still running
+            buf = msgProtos("foo", sub.getSid(), "fast", "stuck");
+            final byte[] stuck = buf;
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        c.getParser().parse(stuck, stuck.length);
+                    } catch (Exception e) {
+                        // ignore
+                    }
+                }
+            });
+            reader.start();
+            assertNotNull(errors.poll(5, TimeUnit.SECONDS));
+            assertTrue(reader.isAlive());
+            release.countDown();
+            reader.join(5000);
+            assertEquals(4, c.getStats().getInlineHandlerOverruns());
+            assertNull(errors.poll(100, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testDeliveryExecutor() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Options opts = new Options.Builder(defaultOptions()).deliveryExecutor(pool).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final int count = 1000;
+            final AtomicBoolean failed = new AtomicBoolean();
+            final CountDownLatch done = new CountDownLatch(2);
+            AsyncSubscriptionImpl[] subs = new AsyncSubscriptionImpl[2];
+            for (int s = 0; s < subs.length; s++) {
+                subs[s] = (AsyncSubscriptionImpl) c.subscribe("foo", new MessageHandler() {
+                    final AtomicInteger running = new AtomicInteger();
+                    int next;
+
+                    public void onMessage(Message msg) {
+                        // One task at a time per subscription, in order, on the pool.
+                        if (running.incrementAndGet() != 1
+                                || Integer.parseInt(new String(msg.getData())) != next++
+                                || !(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+                            failed.set(true);
+                        }
+                        running.decrementAndGet();
+                        if (next == count) {
+                            done.countDown();
+                        }
+                    }
+                });
+                assertNotNull(subs[s].executorDelivery);
+                assertNull(subs[s].getDeliveryWorker());
+            }
+
+            for (int i = 0; i < count; i += 100) {
+                String[] payloads = new String[100];
+                for (int j = 0; j < payloads.length; j++) {
+                    payloads[j] = Integer.toString(i + j);
+                }
+                for (AsyncSubscriptionImpl sub : subs) {
+                    byte[] buf = msgProtos("foo", sub.getSid(), payloads);
+                    c.getParser().parse(buf, buf.length);
+                }
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertFalse(failed.get());
+            for (AsyncSubscriptionImpl sub : subs) {
+                assertEquals(count, sub.getDelivered());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeliveryExecutorPerSubscription() throws Exception {
+        final ExecutorService exec = Executors.newSingleThreadExecutor();
+        final AtomicInteger tasks = new AtomicInteger();
+        Executor executor = new Executor() {
+            public void execute(Runnable task) {
+                tasks.incrementAndGet();
+                exec.execute(task);
+            }
+        };
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch done = new CountDownLatch(200);
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo", null,
+                    new MessageHandler() {
+                        public void onMessage(Message msg) {
+                            received.add(new String(msg.getData()));
+                            done.countDown();
+                        }
+                    }, executor);
+            assertEquals(executor, sub.executorDelivery.getExecutor());
+
+            String[] payloads = new String[200];
+            for (int i = 0; i < payloads.length; i++) {
+                payloads[i] = Integer.toString(i);
+            }
+            byte[] buf = msgProtos("foo", sub.getSid(), payloads);
+            c.getParser().parse(buf, buf.length);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(payloads), received);
+            // Delivered in batches, not one task per message.
+            assertTrue(tasks.get() <= (payloads.length / ExecutorDelivery.BATCH_SIZE) + 1);
+
+            // Nothing is delivered once the executor rejects tasks.
+            exec.shutdown();
+            assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS));
+            buf = msgProtos("foo", sub.getSid(), "x");
+            c.getParser().parse(buf, buf.length);
+            assertFalse(sub.scheduled.get());
+            assertEquals(200, received.size());
+
+            try {
+                c.subscribe("foo", null, mock(MessageHandler.class), (Executor) null);
+                fail("Should have thrown IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                assertEquals("nats: delivery executor cannot be null", e.getMessage());
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDeliveryExecutorMax() throws Exception {
+        ExecutorService exec = Executors.newCachedThreadPool();
+        Options opts = new Options.Builder(defaultOptions()).deliveryExecutor(exec).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final AtomicInteger count = new AtomicInteger();
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo",
+                    new MessageHandler() {
+                        public void onMessage(Message msg) {
+                            count.incrementAndGet();
+                        }
+                    });
+            sub.setMax(5);
+
+            String[] payloads = new String[20];
+            Arrays.fill(payloads, "x");
+            byte[] buf = msgProtos("foo", sub.getSid(), payloads);
+            c.getParser().parse(buf, buf.length);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sub.isValid() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+            assertFalse(sub.isValid());
+            assertEquals(5, count.get());
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubscribeWithVirtualThreadDelivery() throws Exception {
+        Options opts = new Options.Builder().useVirtualThreadDelivery(true).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicReference<Thread> deliveryThread = new AtomicReference<Thread>();
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo",
+                    new MessageHandler() {
+                        public void onMessage(Message msg) {
+                            deliveryThread.set(Thread.currentThread());
+                            latch.countDown();
+                        }
+                    });
+            byte[] buf = msgProtos("foo", sub.getSid(), "a");
+            c.getParser().parse(buf, buf.length);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            // Platform threads on JVMs without virtual threads
+            assertEquals(VirtualThreads.isSupported(),
+                    VirtualThreads.isVirtual(deliveryThread.get()));
+        }
+    }
+
     @Test
     public void testProcessSlowConsumer()
             throws Exception {
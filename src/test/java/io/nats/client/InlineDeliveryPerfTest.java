@@ -0,0 +1,91 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Latency from the parsing of a message to the start of its handler, with the handler run by the
+ * delivery thread of the subscription and inline on the reader thread.
+ */
+@Category(PerfTest.class)
+public class InlineDeliveryPerfTest extends BaseUnitTest {
+    private static final int WARMUP = 10000;
+    private static final int SAMPLES = 100000;
+
+    @Test
+    public void testHandoffLatency() throws Exception {
+        run(false);
+        run(true);
+    }
+
+    private void run(boolean inline) throws Exception {
+        try (ConnectionImpl conn = new ConnectionImpl(Nats.defaultOptions())) {
+            conn.setup();
+            conn.setOutputStream(new OutputStream() {
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+
+            final long[] handledAt = new long[1];
+            final CountDownLatch[] done = new CountDownLatch[1];
+            MessageHandler handler;
+            if (inline) {
+                handler = new InlineMessageHandler() {
+                    public void onMessage(Message msg) {
+                        handledAt[0] = System.nanoTime();
+                        done[0].countDown();
+                    }
+                };
+            } else {
+                handler = new MessageHandler() {
+                    public void onMessage(Message msg) {
+                        handledAt[0] = System.nanoTime();
+                        done[0].countDown();
+                    }
+                };
+            }
+            long sid = ((SubscriptionImpl) conn.subscribe("foo", handler)).getSid();
+            byte[] msg = String.format("MSG foo %d 4\r\ntest\r\n", sid).getBytes();
+
+            long[] latencies = new long[SAMPLES];
+            for (int i = -WARMUP; i < SAMPLES; i++) {
+                done[0] = new CountDownLatch(1);
+                long t0 = System.nanoTime();
+                conn.getParser().parse(msg, msg.length);
+                assertTrue(done[0].await(10, TimeUnit.SECONDS));
+                if (i >= 0) {
+                    latencies[i] = handledAt[0] - t0;
+                }
+            }
+            Arrays.sort(latencies);
+            System.err.printf("%s: p50 %.2f us p99 %.2f us p99.9 %.2f us\n",
+                    inline ? "inline" : "delivery thread",
+                    latencies[SAMPLES / 2] / 1e3,
+                    latencies[SAMPLES * 99 / 100] / 1e3,
+                    latencies[SAMPLES * 999 / 1000] / 1e3);
+        }
+    }
+}
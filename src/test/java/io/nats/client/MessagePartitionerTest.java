@@ -0,0 +1,77 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class MessagePartitionerTest extends BaseUnitTest {
+
+    private static Message newMsg(String subject) {
+        return new Message(subject, null, null);
+    }
+
+    private static int hashOf(String key) {
+        byte[] bytes = key.getBytes();
+        return MessagePartitioner.hash(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testSubject() {
+        MessagePartitioner p = MessagePartitioner.SUBJECT;
+        assertEquals(hashOf("orders.eu.1234"), p.hash(newMsg("orders.eu.1234")));
+        assertEquals(p.hash(newMsg("foo.bar")), p.hash(newMsg("foo.bar")));
+        assertNotEquals(p.hash(newMsg("foo.bar")), p.hash(newMsg("foo.baz")));
+    }
+
+    @Test
+    public void testSubjectToken() {
+        MessagePartitioner first = MessagePartitioner.subjectToken(0);
+        MessagePartitioner second = MessagePartitioner.subjectToken(1);
+        MessagePartitioner last = MessagePartitioner.subjectToken(2);
+
+        assertEquals(hashOf("orders"), first.hash(newMsg("orders.eu.1234")));
+        assertEquals(hashOf("eu"), second.hash(newMsg("orders.eu.1234")));
+        assertEquals(hashOf("1234"), last.hash(newMsg("orders.eu.1234")));
+        assertEquals(second.hash(newMsg("orders.eu.1")), second.hash(newMsg("trades.eu.2")));
+        assertEquals(hashOf("foo"), first.hash(newMsg("foo")));
+
+        // Fewer tokens
+        assertEquals(0, last.hash(newMsg("orders.eu")));
+        assertEquals(0, last.hash(newMsg("orders")));
+        // Empty token
+        assertEquals(hashOf(""), second.hash(newMsg("orders..1234")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubjectTokenNegativeIndex() {
+        MessagePartitioner.subjectToken(-1);
+    }
+
+    @Test
+    public void testPartitionOf() {
+        int[] hashes = {0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, hashOf("foo.bar")};
+        for (int hash : hashes) {
+            for (int count = 1; count <= 16; count++) {
+                int partition = MessagePartitioner.partitionOf(hash, count);
+                assertTrue(partition >= 0 && partition < count);
+            }
+        }
+    }
+}
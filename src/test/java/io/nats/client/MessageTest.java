@@ -16,6 +16,7 @@ package io.nats.client;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -78,6 +79,22 @@ public class MessageTest extends BaseUnitTest {
         new Message(" \t", "bar", "baz".getBytes());
     }
 
+    // Lays out "subject reply" in a buffer the way the parser would find it.
+    private static MsgArg newMsgArg(byte[] subj, byte[] reply) {
+        MsgArg ma = new MsgArg();
+        ma.buf = new byte[subj.length + 1 + (reply == null ? 0 : reply.length)];
+        System.arraycopy(subj, 0, ma.buf, 0, subj.length);
+        ma.buf[subj.length] = ' ';
+        ma.subjectOffset = 0;
+        ma.subjectLength = subj.length;
+        if (reply != null) {
+            System.arraycopy(reply, 0, ma.buf, subj.length + 1, reply.length);
+            ma.replyOffset = subj.length + 1;
+            ma.replyLength = reply.length;
+        }
+        return ma;
+    }
+
     @Test
     public void testMsgArgConstructor() {
         final byte[] subj = "foo".getBytes();
@@ -85,11 +102,7 @@ public class MessageTest extends BaseUnitTest {
         final byte[] payload = "Hello World".getBytes();
         final SubscriptionImpl sub = mock(SubscriptionImpl.class);
 
-        MsgArg ma = new MsgArg();
-        ma.subject = ByteBuffer.allocate(subj.length);
-        ma.subject.put(subj);
-        ma.reply = ByteBuffer.allocate(reply.length);
-        ma.reply.put(reply);
+        MsgArg ma = newMsgArg(subj, reply);
         ma.size = payload.length;
 
         Message msg = null;
@@ -112,11 +125,7 @@ public class MessageTest extends BaseUnitTest {
         final byte[] payload = "Hello World".getBytes();
         final SubscriptionImpl sub = mock(SubscriptionImpl.class);
 
-        MsgArg ma = new MsgArg();
-        ma.subject = ByteBuffer.allocate(subj.length);
-        ma.subject.put(subj);
-        ma.reply = ByteBuffer.allocate(reply.length);
-        ma.reply.put(reply);
+        MsgArg ma = newMsgArg(subj, reply);
         ma.size = payload.length;
 
         int length = payload.length + 4;
@@ -134,17 +143,73 @@ public class MessageTest extends BaseUnitTest {
         final byte[] payload = "Hello World".getBytes();
         final SubscriptionImpl sub = mock(SubscriptionImpl.class);
 
-        MsgArg ma = new MsgArg();
-        ma.subject = ByteBuffer.allocate(subj.length);
-        ma.subject.put(subj);
-        ma.reply = ByteBuffer.allocate(reply.length);
-        ma.reply.put(reply);
+        MsgArg ma = newMsgArg(subj, reply);
         ma.size = payload.length - 4;
         int length = payload.length;
 
         new Message(ma, sub, payload, 0, length);
     }
 
+    @Test
+    public void testReadBufferView() {
+        final byte[] subj = "foo".getBytes();
+        final byte[] payload = "Hello World".getBytes();
+        final SubscriptionImpl sub = mock(SubscriptionImpl.class);
+
+        MsgArg ma = newMsgArg(subj, null);
+        ma.size = payload.length;
+
+        ReadBufferPool pool = new ReadBufferPool(1, 64);
+        ReadBuffer rb = pool.acquire();
+        System.arraycopy(payload, 0, rb.buf, 10, payload.length);
+
+        Message msg = new Message(ma, sub, rb, 10, payload.length);
+        assertTrue(msg.isView());
+        assertEquals(2, rb.refs.get());
+        // Printing the message does not copy the payload
+        assertEquals("{Subject=foo;Reply=null;Payload=<Hello World>}", msg.toString());
+        assertTrue(msg.isView());
+        assertEquals(payload.length, msg.getDataLength());
+        assertEquals(ByteBuffer.wrap(payload), msg.getDataBuffer());
+
+        // Read loop is done with the buffer, the message still holds it
+        rb.release();
+        assertEquals(0, pool.getAvailable());
+
+        msg.release();
+        assertFalse(msg.isView());
+        assertEquals(1, pool.getAvailable());
+        assertEquals(payload.length, msg.getDataLength());
+        assertEquals("{Subject=foo;Reply=null;Payload=<released>}", msg.toString());
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage(Nats.ERR_MSG_RELEASED);
+        msg.getData();
+    }
+
+    @Test
+    public void testReadBufferViewDetach() {
+        final byte[] payload = "Hello World".getBytes();
+        MsgArg ma = newMsgArg("foo".getBytes(), null);
+        ma.size = payload.length;
+
+        ReadBufferPool pool = new ReadBufferPool(1, 64);
+        ReadBuffer rb = pool.acquire();
+        System.arraycopy(payload, 0, rb.buf, 0, payload.length);
+        Message msg = new Message(ma, null, rb, 0, payload.length);
+        rb.release();
+
+        // Accessing the payload array copies it out of the read buffer
+        assertArrayEquals(payload, msg.getData());
+        assertFalse(msg.isView());
+        assertEquals(1, pool.getAvailable());
+
+        // Subsequent release or detach are no-ops
+        msg.detach();
+        msg.release();
+        assertArrayEquals(payload, msg.getData());
+    }
+
     @Test
     public void testMessageByteArrayStringStringSubscriptionImpl() {
         byte[] payload = "This is a message payload.".getBytes();
@@ -16,10 +16,17 @@ package io.nats.client;
 import io.nats.client.MsgDeliveryPool;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -45,9 +52,7 @@ public class MsgDeliveryPoolTest extends BaseUnitTest {
         sub.lock();
         sub.setDeliveryWorker(worker);
         sub.unlock();
-        worker.lock();
         worker.postMsg(new Message("hello".getBytes(), "foo", null, sub));
-        worker.unlock();
         latch.await();
         worker.shutdown();
     }
@@ -67,9 +72,7 @@ public class MsgDeliveryPoolTest extends BaseUnitTest {
         sub.lock();
         sub.setDeliveryWorker(worker);
         sub.unlock();
-        worker.lock();
         worker.postMsg(new Message("hello".getBytes(), "foo", null, sub));
-        worker.unlock();
         latch.await();
         // Double shutdown is fine
         worker.shutdown();
@@ -90,10 +93,8 @@ public class MsgDeliveryPoolTest extends BaseUnitTest {
         sub.setDeliveryWorker(worker);
         sub.unlock();
         // Post 2 messages
-        worker.lock();
         worker.postMsg(new Message("hello".getBytes(), "foo", null, sub));
         worker.postMsg(new Message("hello".getBytes(), "foo", null, sub));
-        worker.unlock();
         // Callback should be invoked twice, even if throwing exception
         latch.await(2, TimeUnit.SECONDS);
         worker.shutdown();
@@ -125,9 +126,7 @@ public class MsgDeliveryPoolTest extends BaseUnitTest {
         // Post 3 messages
         for (int i=0; i<3; i++) {
             final Message msg = new Message("hello".getBytes(), "foo", null, sub1);
-            worker1.lock();
             worker1.postMsg(msg);
-            worker1.unlock();
         }
         // Wait a bit...
         Thread.sleep(100);
@@ -156,9 +155,7 @@ public class MsgDeliveryPoolTest extends BaseUnitTest {
         // the first.
          for (int i=0; i<2; i++) {
             final Message msg = new Message("hello".getBytes(), "foo", null, sub2);
-            worker2.lock();
             worker2.postMsg(msg);
-            worker2.unlock();
         }
         // Wait a bit...
         Thread.sleep(100);
@@ -184,4 +181,337 @@ public class MsgDeliveryPoolTest extends BaseUnitTest {
         // Shutdown
         pool.shutdown();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMsgDeliveryWorkerOrderWithManyProducers() throws Exception {
+        final MsgDeliveryWorker worker = new MsgDeliveryWorker();
+        worker.start();
+        final int subCount = 8;
+        final int msgCount = 10 * MsgDeliveryWorker.BATCH_SIZE + 3;
+        final CountDownLatch latch = new CountDownLatch(subCount * msgCount);
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final AsyncSubscriptionImpl[] subs = new AsyncSubscriptionImpl[subCount];
+        for (int i = 0; i < subCount; i++) {
+            subs[i] = new AsyncSubscriptionImpl(null, "foo", null, new MessageHandler() {
+                int next;
+
+                public void onMessage(Message msg) {
+                    if (Integer.parseInt(new String(msg.getData())) != next++) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            });
+            subs[i].setDeliveryWorker(worker);
+        }
+        // One producer per subscription, as with one connection per subscription.
+        Thread[] producers = new Thread[subCount];
+        for (int i = 0; i < subCount; i++) {
+            final AsyncSubscriptionImpl sub = subs[i];
+            producers[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < msgCount; j++) {
+                        worker.postMsg(new Message(Integer.toString(j).getBytes(), "foo", null,
+                                sub));
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(0, outOfOrder.get());
+        for (AsyncSubscriptionImpl sub : subs) {
+            assertEquals(msgCount, sub.getDelivered());
+            assertEquals(0, sub.getPendingMsgs());
+        }
+        worker.shutdown();
+    }
+
+    @Test
+    public void testMsgDeliveryWorkerBatchHandler() throws Exception {
+        final MsgDeliveryWorker worker = new MsgDeliveryWorker();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        final CountDownLatch latch = new CountDownLatch(10);
+        AsyncSubscriptionImpl sub = new AsyncSubscriptionImpl(null, "foo", null,
+                new BatchMessageHandler() {
+                    public void onMessages(List<Message> msgs) {
+                        sizes.add(msgs.size());
+                        for (int i = 0; i < msgs.size(); i++) {
+                            latch.countDown();
+                        }
+                    }
+
+                    public void onMessage(Message msg) {
+                    }
+                });
+        sub.setDeliveryWorker(worker);
+        sub.setBatchLimits(4, -1);
+        // Queued before the worker starts, so they are all pending at once.
+        for (int i = 0; i < 10; i++) {
+            worker.postMsg(new Message("hello".getBytes(), "foo", null, sub));
+        }
+        worker.start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(4, 4, 2), sizes);
+        assertEquals(10, sub.getDelivered());
+        assertEquals(0, sub.getPendingMsgs());
+        worker.shutdown();
+    }
+
+    @Test
+    public void testMsgDeliveryPoolSidHash() throws Exception {
+        MsgDeliveryPool pool = new MsgDeliveryPool(4, Nats.MsgDeliveryStrategy.SID_HASH);
+        try {
+            assertEquals(Nats.MsgDeliveryStrategy.SID_HASH, pool.getStrategy());
+            ConnectionImpl nc = new ConnectionImpl(Nats.defaultOptions());
+            Set<MsgDeliveryWorker> used = new HashSet<MsgDeliveryWorker>();
+            for (long sid = 1; sid <= 32; sid++) {
+                AsyncSubscriptionImpl sub1 = new AsyncSubscriptionImpl(nc, "foo", null, null);
+                AsyncSubscriptionImpl sub2 = new AsyncSubscriptionImpl(nc, "bar", null, null);
+                sub1.setSid(sid);
+                sub2.setSid(sid);
+                pool.assignDeliveryWorker(sub1);
+                pool.assignDeliveryWorker(sub2);
+                // Same connection and sid, same worker
+                assertEquals(sub1.getDeliveryWorker(), sub2.getDeliveryWorker());
+                used.add(sub1.getDeliveryWorker());
+            }
+            assertTrue(used.size() > 1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMsgDeliveryPoolLeastLoaded() throws Exception {
+        MsgDeliveryPool pool = new MsgDeliveryPool(3, Nats.MsgDeliveryStrategy.LEAST_LOADED);
+        try {
+            ConnectionImpl nc = new ConnectionImpl(Nats.defaultOptions());
+            List<AsyncSubscriptionImpl> subs = new ArrayList<AsyncSubscriptionImpl>();
+            for (int i = 0; i < 6; i++) {
+                AsyncSubscriptionImpl sub = new AsyncSubscriptionImpl(nc, "foo", null, null);
+                pool.assignDeliveryWorker(sub);
+                subs.add(sub);
+            }
+            // Two subscriptions per worker
+            for (int i = 0; i < 6; i++) {
+                assertEquals(2, subs.get(i).getDeliveryWorker().getLoad());
+            }
+            // Closing a subscription frees up its worker
+            MsgDeliveryWorker worker = subs.get(4).getDeliveryWorker();
+            subs.get(4).close(false);
+            // Closing twice doesn't count twice
+            subs.get(4).close(false);
+            assertEquals(1, worker.getLoad());
+
+            AsyncSubscriptionImpl sub = new AsyncSubscriptionImpl(nc, "foo", null, null);
+            pool.assignDeliveryWorker(sub);
+            assertEquals(worker, sub.getDeliveryWorker());
+            assertEquals(2, worker.getLoad());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // A subscription whose handler takes a millisecond per message.
+    private static AsyncSubscriptionImpl slowSub(ConnectionImpl nc, final AtomicInteger count) {
+        return new AsyncSubscriptionImpl(nc, "foo", null, new MessageHandler() {
+            public void onMessage(Message msg) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                count.incrementAndGet();
+            }
+        });
+    }
+
+    private static void post(AsyncSubscriptionImpl sub, int count) {
+        for (int i = 0; i < count; i++) {
+            sub.getDeliveryWorker().postMsg(new Message("hello".getBytes(), "foo", null, sub));
+        }
+    }
+
+    /*
+     * Keeps sub1 and sub2 busy and balances the pool every 50ms, as the balancer thread would,
+     * until they are delivered by different workers. Returns false on timeout.
+     */
+    private static boolean balanceUntilSplit(MsgDeliveryPool pool, AsyncSubscriptionImpl sub1,
+                                             AsyncSubscriptionImpl sub2) throws Exception {
+        pool.balance();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            if (sub1.getPendingMsgs() < 50) {
+                post(sub1, 50);
+            }
+            if (sub2.getPendingMsgs() < 50) {
+                post(sub2, 50);
+            }
+            Thread.sleep(50);
+            pool.balance();
+            if (sub1.getDeliveryWorker() != sub2.getDeliveryWorker()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void awaitDrained(AsyncSubscriptionImpl... subs) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        for (AsyncSubscriptionImpl sub : subs) {
+            while (sub.getPendingMsgs() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, sub.getPendingMsgs());
+        }
+        // The last batches are still being delivered
+        Thread.sleep(100);
+    }
+
+    @Test
+    public void testMsgDeliveryPoolMigrationKeepsOrder() throws Exception {
+        final MsgDeliveryPool pool = new MsgDeliveryPool(2, 2,
+                Nats.MsgDeliveryStrategy.ROUND_ROBIN, 0);
+        try {
+            ConnectionImpl nc = new ConnectionImpl(Nats.defaultOptions());
+            final int msgCount = 20000;
+            final CountDownLatch latch = new CountDownLatch(msgCount);
+            final AtomicInteger outOfOrder = new AtomicInteger();
+            final AsyncSubscriptionImpl sub = new AsyncSubscriptionImpl(nc, "foo", null,
+                    new MessageHandler() {
+                        int next;
+
+                        public void onMessage(Message msg) {
+                            if (Integer.parseInt(new String(msg.getData())) != next++) {
+                                outOfOrder.incrementAndGet();
+                            }
+                            latch.countDown();
+                        }
+                    });
+            pool.assignDeliveryWorker(sub);
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < msgCount; i++) {
+                        sub.getDeliveryWorker().postMsg(new Message(
+                                Integer.toString(i).getBytes(), "foo", null, sub));
+                    }
+                }
+            });
+            producer.start();
+            // Move the subscription back and forth while messages are being delivered.
+            List<MsgDeliveryWorker> workers = pool.getWorkers();
+            int moves = 0;
+            while (producer.isAlive() || latch.getCount() > 0) {
+                pool.migrate(sub, workers.get(moves++ % 2));
+                Thread.sleep(0, 100000);
+                if (moves > 1000000) {
+                    break;
+                }
+            }
+            producer.join();
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(0, outOfOrder.get());
+            assertTrue(pool.getMigrations() > 0);
+            assertEquals(msgCount, sub.getDelivered());
+            assertEquals(0, sub.getPendingMsgs());
+
+            // The last move is done once the worker is done with the subscription.
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sub.migrateTo != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertNull(sub.migrateTo);
+            MsgDeliveryWorker worker = sub.getDeliveryWorker();
+            assertEquals(1, worker.getLoad());
+            assertEquals(0, workers.get(workers.get(0) == worker ? 1 : 0).getLoad());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMsgDeliveryPoolRebalance() throws Exception {
+        MsgDeliveryPool pool = new MsgDeliveryPool(2, 2, Nats.MsgDeliveryStrategy.LEAST_LOADED, 0);
+        try {
+            ConnectionImpl nc = new ConnectionImpl(Nats.defaultOptions());
+            AtomicInteger count = new AtomicInteger();
+            AsyncSubscriptionImpl hot1 = slowSub(nc, count);
+            AsyncSubscriptionImpl idle = slowSub(nc, count);
+            AsyncSubscriptionImpl hot2 = slowSub(nc, count);
+            pool.assignDeliveryWorker(hot1);
+            pool.assignDeliveryWorker(idle);
+            pool.assignDeliveryWorker(hot2);
+            // Both busy subscriptions on the same worker
+            assertEquals(hot1.getDeliveryWorker(), hot2.getDeliveryWorker());
+            assertNotEquals(hot1.getDeliveryWorker(), idle.getDeliveryWorker());
+
+            assertTrue(balanceUntilSplit(pool, hot1, hot2));
+            assertEquals(1, pool.getMigrations());
+            awaitDrained(hot1, hot2);
+            assertEquals(count.get(), hot1.getDelivered() + hot2.getDelivered());
+            for (MsgDeliveryWorker w : pool.getWorkers()) {
+                assertTrue(w.getBusyTime(TimeUnit.NANOSECONDS) > 0);
+                assertEquals(0, w.getQueueDepth());
+                assertEquals(w == idle.getDeliveryWorker() ? 2 : 1, w.getLoad());
+            }
+
+            // Pinned with SID_HASH
+            pool.shutdown();
+            pool = new MsgDeliveryPool(2, 2, Nats.MsgDeliveryStrategy.SID_HASH, 0);
+            assertFalse(pool.isBalancing());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMsgDeliveryPoolGrowAndShrink() throws Exception {
+        MsgDeliveryPool pool = new MsgDeliveryPool(1, 2, Nats.MsgDeliveryStrategy.ROUND_ROBIN, 0);
+        try {
+            assertTrue(pool.isBalancing());
+            ConnectionImpl nc = new ConnectionImpl(Nats.defaultOptions());
+            AtomicInteger count = new AtomicInteger();
+            AsyncSubscriptionImpl sub1 = slowSub(nc, count);
+            AsyncSubscriptionImpl sub2 = slowSub(nc, count);
+            pool.assignDeliveryWorker(sub1);
+            pool.assignDeliveryWorker(sub2);
+            assertEquals(1, pool.getSize());
+
+            // Grown, and the new worker took one of the subscriptions
+            assertTrue(balanceUntilSplit(pool, sub1, sub2));
+            assertEquals(2, pool.getSize());
+            awaitDrained(sub1, sub2);
+
+            // Idle, from the next sample on
+            pool.balance();
+            List<MsgDeliveryWorker> workers = pool.getWorkers();
+            for (int i = 0; i < MsgDeliveryPool.SHRINK_SAMPLES; i++) {
+                Thread.sleep(10);
+                pool.balance();
+            }
+            assertEquals(1, pool.getSize());
+            MsgDeliveryWorker remaining = pool.getWorkers().get(0);
+            for (MsgDeliveryWorker w : workers) {
+                if (w != remaining) {
+                    w.join(5000);
+                    assertFalse(w.isAlive());
+                }
+            }
+            assertEquals(remaining, sub1.getDeliveryWorker());
+            assertEquals(remaining, sub2.getDeliveryWorker());
+            assertEquals(2, remaining.getLoad());
+
+            // Still delivering
+            count.set(0);
+            post(sub1, 2);
+            awaitDrained(sub1);
+            assertEquals(2, count.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
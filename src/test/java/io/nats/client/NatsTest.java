@@ -83,14 +83,32 @@ public class NatsTest extends BaseUnitTest {
         assertEquals(0, ps);
 
         // Restart pool
-        Nats.createMsgDeliveryThreadPool(2);
+        Nats.createMsgDeliveryThreadPool(2, Nats.MsgDeliveryStrategy.LEAST_LOADED);
         ps = Nats.getMsgDeliveryThreadPoolSize();
         assertEquals(2, ps);
+        assertEquals(Nats.MsgDeliveryStrategy.LEAST_LOADED,
+                Nats.getMsgDeliveryThreadPool().getStrategy());
 
         // Shutdown
         Nats.shutdownMsgDeliveryThreadPool();
         ps = Nats.getMsgDeliveryThreadPoolSize();
         assertEquals(0, ps);
         assertNull(Nats.getMsgDeliveryThreadPool());
+
+        // Elastic pool
+        ok = false;
+        try {
+            Nats.createMsgDeliveryThreadPool(3, 2, Nats.MsgDeliveryStrategy.ROUND_ROBIN);
+        } catch (IllegalArgumentException e) {
+            ok = true;
+        }
+        assertTrue(ok);
+        assertNull(Nats.getMsgDeliveryThreadPool());
+        Nats.createMsgDeliveryThreadPool(2, 8, Nats.MsgDeliveryStrategy.ROUND_ROBIN);
+        assertEquals(2, Nats.getMsgDeliveryThreadPoolSize());
+        assertEquals(2, Nats.getMsgDeliveryThreadPool().getMinSize());
+        assertEquals(8, Nats.getMsgDeliveryThreadPool().getMaxSize());
+        Nats.shutdownMsgDeliveryThreadPool();
+        assertEquals(0, Nats.getMsgDeliveryThreadPoolSize());
     }
 }
\ No newline at end of file
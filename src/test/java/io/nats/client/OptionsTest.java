@@ -24,6 +24,8 @@ import static io.nats.client.Nats.PROP_NORANDOMIZE;
 import static io.nats.client.Nats.PROP_PASSWORD;
 import static io.nats.client.Nats.PROP_PEDANTIC;
 import static io.nats.client.Nats.PROP_PING_INTERVAL;
+import static io.nats.client.Nats.PROP_READ_BUFFER_POOL_SIZE;
+import static io.nats.client.Nats.PROP_SPLIT_BUFFER_POOL_CAP;
 import static io.nats.client.Nats.PROP_RECONNECTED_CB;
 import static io.nats.client.Nats.PROP_RECONNECT_ALLOWED;
 import static io.nats.client.Nats.PROP_RECONNECT_BUF_SIZE;
@@ -35,10 +37,15 @@ import static io.nats.client.Nats.PROP_URL;
 import static io.nats.client.Nats.PROP_USERNAME;
 import static io.nats.client.Nats.PROP_VERBOSE;
 import static io.nats.client.Nats.PROP_USE_GLOBAL_MSG_DELIVERY;
+import static io.nats.client.Nats.PROP_USE_VIRTUAL_THREAD_DELIVERY;
+import static io.nats.client.Nats.PROP_USE_WRITER_THREAD;
+import static io.nats.client.Nats.PROP_WRITE_HIGH_WATER_MARK;
+import static io.nats.client.Nats.PROP_INLINE_HANDLER_BUDGET;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -73,6 +80,12 @@ public class OptionsTest extends BaseUnitTest {
     private static final int pingInterval = 5000;
     private static final int maxPings = 4;
     private static final boolean useGlobalMsgDelivery = true;
+    private static final boolean useVirtualThreadDelivery = true;
+    private static final int readBufferPoolSize = 8;
+    private static final int splitBufferPoolCap = 1024 * 1024;
+    private static final long inlineHandlerBudget = 250;
+    private static final boolean useWriterThread = true;
+    private static final int writeHighWaterMark = 64 * 1024;
     static final Boolean tlsDebug = true;
 
     @Test
@@ -108,6 +121,13 @@ public class OptionsTest extends BaseUnitTest {
         props.setProperty(PROP_DISCONNECTED_CB, dcb.getClass().getName());
         props.setProperty(PROP_RECONNECTED_CB, rcb.getClass().getName());
         props.setProperty(PROP_USE_GLOBAL_MSG_DELIVERY, Boolean.toString(useGlobalMsgDelivery));
+        props.setProperty(PROP_USE_VIRTUAL_THREAD_DELIVERY,
+                Boolean.toString(useVirtualThreadDelivery));
+        props.setProperty(PROP_READ_BUFFER_POOL_SIZE, Integer.toString(readBufferPoolSize));
+        props.setProperty(PROP_SPLIT_BUFFER_POOL_CAP, Integer.toString(splitBufferPoolCap));
+        props.setProperty(PROP_INLINE_HANDLER_BUDGET, Long.toString(inlineHandlerBudget));
+        props.setProperty(PROP_USE_WRITER_THREAD, Boolean.toString(useWriterThread));
+        props.setProperty(PROP_WRITE_HIGH_WATER_MARK, Integer.toString(writeHighWaterMark));
 
         Options opts = new Options.Builder(props).build();
 
@@ -131,6 +151,12 @@ public class OptionsTest extends BaseUnitTest {
         assertEquals(timeout, opts.getConnectionTimeout());
         assertEquals(pingInterval, opts.getPingInterval());
         assertEquals(maxPings, opts.getMaxPingsOut());
+        assertEquals(useVirtualThreadDelivery, opts.isUsingVirtualThreadDelivery());
+        assertEquals(readBufferPoolSize, opts.getReadBufferPoolSize());
+        assertEquals(splitBufferPoolCap, opts.getSplitBufferPoolCap());
+        assertEquals(inlineHandlerBudget, opts.getInlineHandlerBudget(TimeUnit.MICROSECONDS));
+        assertEquals(useWriterThread, opts.isUsingWriterThread());
+        assertEquals(writeHighWaterMark, opts.getWriteHighWaterMark());
         assertEquals(eh.getClass().getName(), opts.getExceptionHandler().getClass().getName());
         assertEquals(ccb.getClass().getName(), opts.getClosedCallback().getClass().getName());
         assertEquals(dcb.getClass().getName(), opts.getDisconnectedCallback().getClass().getName());
@@ -158,6 +184,7 @@ public class OptionsTest extends BaseUnitTest {
         ClosedCallback closedCb = mock(ClosedCallback.class);
         ReconnectedCallback reconnectedCb = mock(ReconnectedCallback.class);
         ExceptionHandler asyncErrorCb = mock(ExceptionHandler.class);
+        Executor deliveryExecutor = mock(Executor.class);
 
         Options expected = new Options.Builder()
                 .userInfo(username, password)
@@ -182,6 +209,13 @@ public class OptionsTest extends BaseUnitTest {
                 .reconnectedCb(reconnectedCb)
                 .errorCb(asyncErrorCb)
                 .useGlobalMsgDelivery(true)
+                .useVirtualThreadDelivery(true)
+                .readBufferPoolSize(4)
+                .splitBufferPoolCap(0)
+                .inlineHandlerBudget(0, TimeUnit.MILLISECONDS)
+                .deliveryExecutor(deliveryExecutor)
+                .useWriterThread(true)
+                .writeHighWaterMark(4096)
                 .build();
 
         expected.url = url;
@@ -190,7 +224,7 @@ public class OptionsTest extends BaseUnitTest {
         Options actual = new Options.Builder(expected).build();
 
         assertTrue(expected.equals(actual));
-
+        assertEquals(deliveryExecutor, actual.getDeliveryExecutor());
     }
 
     @Test
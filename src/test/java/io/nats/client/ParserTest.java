@@ -15,6 +15,8 @@ package io.nats.client;
 
 import static io.nats.client.Nats.defaultOptions;
 import static io.nats.client.UnitTestUtilities.newMockedConnection;
+import static io.nats.client.UnitTestUtilities.sleep;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
@@ -27,6 +29,7 @@ import static org.mockito.Mockito.mock;
 import io.nats.client.ConnectionImpl.Control;
 import io.nats.client.ConnectionImpl.Srv;
 import io.nats.client.Parser.NatsOp;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
@@ -34,8 +37,11 @@ import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -263,6 +269,264 @@ public class ParserTest extends BaseUnitTest {
         }
     }
 
+    @Test
+    public void testParseStreamingMsg() throws Exception {
+        final int size = 3 * ConnectionImpl.DEFAULT_BUF_SIZE + 100;
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        StreamingMessageHandler handler = new StreamingMessageHandler() {
+            public void onMessage(Message msg) {
+                events.add("msg");
+            }
+
+            public void onMessageStart(Subscription sub, String subject, String replyTo,
+                                       int size) {
+                events.add(String.format("start %s %s %d", subject, replyTo, size));
+            }
+
+            public void onMessageChunk(Subscription sub, byte[] data, int offset, int length,
+                                       boolean last) {
+                received.write(data, offset, length);
+                if (last) {
+                    events.add("last");
+                }
+            }
+        };
+
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) ('A' + i % 26);
+        }
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        wire.write("MSG big 1 _INBOX.1 ".getBytes());
+        wire.write(Integer.toString(size).getBytes());
+        wire.write("\r\n".getBytes());
+        wire.write(payload);
+        wire.write("\r\nMSG big 1 5\r\nsmall\r\n".getBytes());
+        byte[] data = wire.toByteArray();
+
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(mock(OutputStream.class));
+            Parser parser = ConnectionAccessor.getParser(c);
+            try (AsyncSubscription sub = c.subscribe("big", handler)) {
+                // Feed the data the way the read loop would
+                byte[] buf = new byte[ConnectionImpl.DEFAULT_BUF_SIZE];
+                for (int off = 0; off < data.length; off += buf.length) {
+                    int n = Math.min(buf.length, data.length - off);
+                    System.arraycopy(data, off, buf, 0, n);
+                    parser.parse(buf, n);
+                    // The large payload is never buffered
+                    assertNull(parser.ps.msgBuf);
+                }
+
+                assertEquals(NatsOp.OP_START, parser.ps.state);
+                assertArrayEquals(payload, received.toByteArray());
+                // The small message takes the normal path
+                for (int i = 0; i < 50 && events.size() < 3; i++) {
+                    sleep(100);
+                }
+                assertEquals(Arrays.asList("start big _INBOX.1 " + size, "last", "msg"), events);
+                assertEquals(2, c.getStats().getInMsgs());
+                assertEquals(size + 5, c.getStats().getInBytes());
+            }
+        }
+    }
+
+    // Feeds data to the parser in read buffer sized chunks, the way the read loop would.
+    private static void parseInChunks(Parser parser, byte[] data) throws Exception {
+        byte[] buf = new byte[ConnectionImpl.DEFAULT_BUF_SIZE];
+        for (int off = 0; off < data.length; off += buf.length) {
+            int n = Math.min(buf.length, data.length - off);
+            System.arraycopy(data, off, buf, 0, n);
+            parser.parse(buf, n);
+        }
+    }
+
+    private static byte[] streamingTestMsg(int size) throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        wire.write(String.format("MSG big 1 %d\r\n", size).getBytes());
+        wire.write(new byte[size]);
+        wire.write("\r\n".getBytes());
+        return wire.toByteArray();
+    }
+
+    @Test
+    public void testParseStreamingMsgAutoUnsubscribe() throws Exception {
+        final int size = 2 * ConnectionImpl.DEFAULT_BUF_SIZE;
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        StreamingMessageHandler handler = new StreamingMessageHandler() {
+            public void onMessage(Message msg) {
+                events.add("msg");
+            }
+
+            public void onMessageStart(Subscription sub, String subject, String replyTo,
+                                       int size) {
+                events.add("start");
+            }
+
+            public void onMessageChunk(Subscription sub, byte[] data, int offset, int length,
+                                       boolean last) {
+                if (last) {
+                    // Already counted, the subscription is removed after the last chunk.
+                    events.add("last " + sub.getDelivered());
+                }
+            }
+        };
+
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(mock(OutputStream.class));
+            Parser parser = ConnectionAccessor.getParser(c);
+            AsyncSubscription sub = c.subscribe("big", handler);
+            sub.autoUnsubscribe(1);
+
+            parseInChunks(parser, streamingTestMsg(size));
+            assertEquals(Arrays.asList("start", "last 1"), events);
+            assertFalse(sub.isValid());
+
+            // The subscription is gone
+            parseInChunks(parser, "MSG big 1 5\r\nsmall\r\n".getBytes());
+            sleep(100);
+            assertEquals(Arrays.asList("start", "last 1"), events);
+        }
+    }
+
+    @Test
+    public void testParseStreamingMsgBehindPending() throws Exception {
+        final int size = 2 * ConnectionImpl.DEFAULT_BUF_SIZE;
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch release = new CountDownLatch(1);
+        StreamingMessageHandler handler = new StreamingMessageHandler() {
+            public void onMessage(Message msg) {
+                events.add("msg " + msg.getDataLength());
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // fall through
+                }
+            }
+
+            public void onMessageStart(Subscription sub, String subject, String replyTo,
+                                       int size) {
+                events.add("start");
+            }
+
+            public void onMessageChunk(Subscription sub, byte[] data, int offset, int length,
+                                       boolean last) {
+            }
+        };
+
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(mock(OutputStream.class));
+            Parser parser = ConnectionAccessor.getParser(c);
+            try (AsyncSubscription sub = c.subscribe("big", handler)) {
+                // The first message blocks the handler, the second one stays pending.
+                parseInChunks(parser, "MSG big 1 1\r\na\r\nMSG big 1 1\r\nb\r\n".getBytes());
+                for (int i = 0; i < 50 && events.isEmpty(); i++) {
+                    sleep(100);
+                }
+                assertEquals(1, sub.getPendingMsgs());
+
+                // So the large message is queued behind it instead of being streamed.
+                parseInChunks(parser, streamingTestMsg(size));
+                release.countDown();
+                for (int i = 0; i < 50 && events.size() < 3; i++) {
+                    sleep(100);
+                }
+                assertEquals(Arrays.asList("msg 1", "msg 1", "msg " + size), events);
+                assertEquals(3, sub.getDelivered());
+            }
+        }
+    }
+
+    // A protocol stream with small messages and one larger than the read buffer.
+    private static byte[] byteBufferTestData(byte[] large) throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        wire.write("MSG foo 1 5\r\nhello\r\nPING\r\nMSG foo 1 _INBOX.2 3\r\nabc\r\n".getBytes());
+        wire.write(String.format("MSG foo 1 %d\r\n", large.length).getBytes());
+        wire.write(large);
+        wire.write("\r\nMSG foo 1 5\r\nworld\r\n".getBytes());
+        return wire.toByteArray();
+    }
+
+    private static void checkByteBufferTestMsgs(SyncSubscription sub, byte[] large)
+            throws Exception {
+        assertEquals("hello", new String(sub.nextMessage(100).getData()));
+        Message msg = sub.nextMessage(100);
+        assertEquals("_INBOX.2", msg.getReplyTo());
+        assertEquals("abc", new String(msg.getData()));
+        assertArrayEquals(large, sub.nextMessage(100).getData());
+        assertEquals("world", new String(sub.nextMessage(100).getData()));
+    }
+
+    @Test
+    public void testParseByteBuffer() throws Exception {
+        byte[] large = new byte[ConnectionImpl.DEFAULT_BUF_SIZE + 1000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) ('a' + (i % 26));
+        }
+        byte[] data = byteBufferTestData(large);
+
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(mock(OutputStream.class));
+            Parser parser = ConnectionAccessor.getParser(c);
+            try (SyncSubscription sub = c.subscribeSync("foo")) {
+                // Direct buffer, delivered in uneven pieces
+                ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+                direct.put(data);
+                direct.flip();
+                int[] pieces = {7, 1, 3000, 70000};
+                for (int n = 0; direct.hasRemaining(); n++) {
+                    ByteBuffer piece = direct.duplicate();
+                    piece.limit(Math.min(direct.limit(), direct.position() + pieces[n % 4]));
+                    parser.parse(piece);
+                    assertFalse(piece.hasRemaining());
+                    direct.position(piece.position());
+                }
+                assertEquals(NatsOp.OP_START, parser.ps.state);
+                checkByteBufferTestMsgs(sub, large);
+
+                // Heap buffer with a non-zero array offset
+                byte[] backing = new byte[data.length + 20];
+                System.arraycopy(data, 0, backing, 13, data.length);
+                ByteBuffer heap = ByteBuffer.wrap(backing, 10, data.length + 3);
+                heap.position(13);
+                ByteBuffer slice = heap.slice();
+                parser.parse(slice);
+                assertFalse(slice.hasRemaining());
+                checkByteBufferTestMsgs(sub, large);
+            }
+        }
+    }
+
+    @Test
+    public void testParseDirectByteBufferReadBufferPool() throws Exception {
+        Options opts = new Options.Builder(defaultOptions()).readBufferPoolSize(2).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setup();
+            c.setOutputStream(mock(OutputStream.class));
+            Parser parser = ConnectionAccessor.getParser(c);
+            try (SyncSubscription sub = c.subscribeSync("foo")) {
+                byte[] data = "MSG foo 1 5\r\nhello\r\n".getBytes();
+                ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+                direct.put(data);
+                direct.flip();
+                parser.parse(direct);
+
+                // The message references the chunk copied out of the direct buffer
+                Message msg = sub.nextMessage(100);
+                assertTrue(msg.isView());
+                assertEquals(ByteBuffer.wrap("hello".getBytes()), msg.getDataBuffer());
+                assertEquals(0, c.getReadBufferPool().getAvailable());
+                msg.release();
+                assertEquals(1, c.getReadBufferPool().getAvailable());
+            }
+        }
+    }
+
     @Test
     public void testParserLargeMsg() throws Exception {
         int size = 912000;
@@ -338,7 +602,7 @@ public class ParserTest extends BaseUnitTest {
 
             assertEquals("Wrong msg size: ", 3, parser.ps.ma.size);
             assertEquals("Wrong sid: ", 1, parser.ps.ma.sid);
-            assertEquals("Wrong subject: ", "a", Parser.bufToString(parser.ps.ma.subject));
+            assertEquals("Wrong subject: ", "a", parser.ps.ma.getSubject());
             assertNotNull("Msg buffer should have been created", parser.ps.msgBuf);
 
             buf = "oo\r\n".getBytes();
@@ -366,8 +630,7 @@ public class ParserTest extends BaseUnitTest {
             }
             assertEquals("Wrong msg size: ", 3, parser.ps.ma.size);
             assertEquals("Wrong sid: ", 1, parser.ps.ma.sid);
-            assertEquals("Wrong subject: ", "a", new String(parser.ps.ma.subject.array(), 0,
-                    parser.ps.ma.subject.limit()));
+            assertEquals("Wrong subject: ", "a", parser.ps.ma.getSubject());
             assertNotNull("Msg buffer should have been created", parser.ps.msgBuf);
             assertNotNull("Arg buffer should have been created", parser.ps.argBuf);
 
@@ -397,7 +660,7 @@ public class ParserTest extends BaseUnitTest {
 
             assertEquals("Wrong msg size: ", 6, parser.ps.ma.size);
             assertEquals("Wromg sid: ", 1, parser.ps.ma.sid);
-            assertEquals("Wrong subject: ", "a", Parser.bufToString(parser.ps.ma.subject));
+            assertEquals("Wrong subject: ", "a", parser.ps.ma.getSubject());
             assertNotNull("Msg buffer should have been created", parser.ps.msgBuf);
             assertNotNull("Arg buffer should have been created", parser.ps.argBuf);
 
@@ -438,8 +701,8 @@ public class ParserTest extends BaseUnitTest {
 
             assertEquals("Wrong msg size: ", msgSize, parser.ps.ma.size);
             assertEquals("Wrong sid: ", 1, parser.ps.ma.sid);
-            assertEquals("Wrong subject: ", "a", Parser.bufToString(parser.ps.ma.subject));
-            assertEquals("Wrong reply: ", "b", Parser.bufToString(parser.ps.ma.reply));
+            assertEquals("Wrong subject: ", "a", parser.ps.ma.getSubject());
+            assertEquals("Wrong reply: ", "b", parser.ps.ma.getReply());
             assertNotNull("Msg buffer should have been created", parser.ps.msgBuf);
             assertNotNull("Arg buffer should have been created", parser.ps.argBuf);
 
@@ -461,7 +724,8 @@ public class ParserTest extends BaseUnitTest {
 
             assertEquals("Wrong state: ", parser.ps.state, Parser.NatsOp.MSG_PAYLOAD);
             assertEquals("Wrong msg size: ", msgSize, parser.ps.ma.size);
-            assertEquals("Wrong msg size: ", parser.ps.msgBuf.limit(), parser.ps.ma.size);
+            // The borrowed buffer is rounded up to its size class, check what was collected
+            assertEquals("Wrong msg size: ", parser.ps.msgBuf.position(), parser.ps.ma.size);
             // Check content:
             byte[] tmp = new byte[3];
             ByteBuffer tmpBuf = parser.ps.msgBuf.duplicate();
@@ -484,10 +748,42 @@ public class ParserTest extends BaseUnitTest {
             assertEquals("Wrong #bytes: ", expectedSize, nc.getStats().getInBytes());
             assertNull("Buffers should be null now", parser.ps.argBuf);
             assertNull("Buffers should be null now", parser.ps.msgBuf);
+            assertNull("Pooled buffer should have been returned", parser.ps.pooledMsgBuf);
             assertEquals("Wrong state: ", parser.ps.state, Parser.NatsOp.OP_START);
+            assertEquals(0, nc.getStats().getSplitBufferPoolHits());
+            assertEquals(1, nc.getStats().getSplitBufferPoolMisses());
         }
     } // testParserSplitMsg
 
+    @Test
+    public void testParserSplitMsgReusesPooledBuffer() throws Exception {
+        try (ConnectionImpl nc = new ConnectionImpl(defaultOptions())) {
+            Parser parser = ConnectionAccessor.getParser(nc);
+            int msgSize = 200 * 1024;
+            byte[] payload = new byte[msgSize];
+            byte[] first = null;
+            for (int n = 0; n < 3; n++) {
+                byte[] buf = String.format("MSG a 1 %d\r\n", msgSize).getBytes();
+                parser.parse(buf, buf.length);
+                assertNotNull(parser.ps.pooledMsgBuf);
+                if (first == null) {
+                    first = parser.ps.pooledMsgBuf;
+                } else {
+                    // Same buffer each time
+                    assertTrue(first == parser.ps.pooledMsgBuf);
+                }
+                parser.parse(payload, payload.length);
+                buf = "\r\n".getBytes();
+                parser.parse(buf, buf.length);
+                assertNull(parser.ps.pooledMsgBuf);
+            }
+            assertEquals(256 * 1024, first.length);
+            assertEquals(3, nc.getStats().getInMsgs());
+            assertEquals(1, nc.getStats().getSplitBufferPoolMisses());
+            assertEquals(2, nc.getStats().getSplitBufferPoolHits());
+        }
+    }
+
     @Test
     public void testParserSplitMsgArgs() throws Exception {
         try (ConnectionImpl nc = new ConnectionImpl(defaultOptions())) {
@@ -519,7 +815,7 @@ public class ParserTest extends BaseUnitTest {
             buf = "\n".getBytes();
             parser.parse(buf);
             assertEquals(Parser.NatsOp.MSG_PAYLOAD, parser.ps.state);
-            assertEquals("a.b.c", new String(parser.ps.ma.subject.array(), 0, parser.ps.ma.subject.limit()));
+            assertEquals("a.b.c", parser.ps.ma.getSubject());
             assertEquals(1L, parser.ps.ma.sid);
             assertNotNull(parser.ps.argBuf);
         }
@@ -583,24 +879,109 @@ public class ParserTest extends BaseUnitTest {
         }
     }
 
+    @Test
+    public void testIndexOfLfAndSpace() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            Parser parser = ConnectionAccessor.getParser(c);
+            for (int pos = 0; pos < 20; pos++) {
+                byte[] buf = new byte[20];
+                Arrays.fill(buf, (byte) 'x');
+                buf[pos] = '\n';
+                assertEquals(pos, parser.indexOfLf(buf, 0, buf.length));
+                assertEquals(-1, parser.indexOfLf(buf, 0, pos));
+                assertEquals(-1, parser.indexOfSpace(buf, 0, buf.length));
+                buf[pos] = (pos % 2 == 0) ? (byte) ' ' : (byte) '\t';
+                assertEquals(pos, parser.indexOfSpace(buf, 0, buf.length));
+                assertEquals(-1, parser.indexOfLf(buf, 0, buf.length));
+            }
+            // Bytes that differ from '\n' by a borrow must not match
+            byte[] buf = "\u000b\u000b\u000b\u000b\u000b\u000b\u000b\u000b\n".getBytes();
+            assertEquals(8, parser.indexOfLf(buf, 0, buf.length));
+        }
+    }
+
+    @Test
+    public void testParseFastPath() throws Exception {
+        String msgs = "MSG foo 1 5\r\nHello\r\nMSG foo.bar 1 _INBOX.22 3\r\nabc\r\n"
+                + "MSG  foo\t1 0\r\n\r\nPING\r\nMSG foo 1 6\r\nHel";
+        try (ConnectionImpl nc = (ConnectionImpl) newMockedConnection()) {
+            Parser parser = ConnectionAccessor.getParser(nc);
+            try (SyncSubscription sub = nc.subscribeSync("foo")) {
+                byte[] buf = msgs.getBytes();
+                parser.parse(buf, buf.length);
+
+                // Last message payload is incomplete
+                assertEquals(NatsOp.MSG_PAYLOAD, parser.ps.state);
+                assertEquals(6, parser.ps.ma.size);
+                assertNotNull(parser.ps.msgBuf);
+                assertEquals(3, nc.getStats().getInMsgs());
+
+                Message msg = sub.nextMessage(100);
+                assertEquals("foo", msg.getSubject());
+                assertNull(msg.getReplyTo());
+                assertEquals("Hello", new String(msg.getData()));
+                msg = sub.nextMessage(100);
+                assertEquals("foo.bar", msg.getSubject());
+                assertEquals("_INBOX.22", msg.getReplyTo());
+                assertEquals("abc", new String(msg.getData()));
+                msg = sub.nextMessage(100);
+                assertNull(msg.getData());
+
+                buf = "lo2\r\n".getBytes();
+                parser.parse(buf, buf.length);
+                assertEquals(NatsOp.OP_START, parser.ps.state);
+                msg = sub.nextMessage(100);
+                assertEquals("Hello2", new String(msg.getData()));
+            }
+        }
+    }
+
+    @Test
+    public void testParseFastPathBadArgs() throws Exception {
+        thrown.expect(ParseException.class);
+        thrown.expectMessage("nats: processMsgArgs bad number of args(5)");
+        try (ConnectionImpl nc = new ConnectionImpl(defaultOptions())) {
+            Parser parser = ConnectionAccessor.getParser(nc);
+            byte[] buf = "MSG foo 1 2 3 4\r\n".getBytes();
+            parser.parse(buf, buf.length);
+        }
+    }
+
     @Test
     public void testMsgArg() {
         Parser.MsgArg arg = new Parser.MsgArg();
-        arg.subject.put("subject".getBytes());
-        arg.reply.put("reply".getBytes());
-        arg.sid = 22;
-        arg.size = 128;
-
         assertNotNull(arg.toString());
         assertFalse(arg.toString().isEmpty());
 
-        arg.subject = null;
+        arg.buf = "subject reply".getBytes();
+        arg.subjectLength = 7;
+        arg.sid = 22;
+        arg.size = 128;
+        assertEquals("subject", arg.getSubject());
+        assertNull(arg.getReply());
         assertNotNull(arg.toString());
         assertFalse(arg.toString().isEmpty());
 
-        arg.reply = null;
-        assertNotNull(arg.toString());
-        assertFalse(arg.toString().isEmpty());
+        arg.replyOffset = 8;
+        arg.replyLength = 5;
+        assertEquals("reply", arg.getReply());
+        assertEquals("{subject=subject(len=7), reply=reply(len=5), sid=22, size=128}",
+                arg.toString());
+    }
+
+    @Test
+    public void testMsgArgReferencesReadBuffer() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            Parser parser = ConnectionAccessor.getParser(c);
+            byte[] buf = "MSG foo.bar  12\t_INBOX.x 345\r\n".getBytes();
+            parser.processMsgArgs(buf, 4, buf.length - 6);
+            assertTrue(parser.ps.ma.buf == buf);
+            assertEquals(4, parser.ps.ma.subjectOffset);
+            assertEquals("foo.bar", parser.ps.ma.getSubject());
+            assertEquals("_INBOX.x", parser.ps.ma.getReply());
+            assertEquals(12, parser.ps.ma.sid);
+            assertEquals(345, parser.ps.ma.size);
+        }
     }
 
     @Test
@@ -0,0 +1,109 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package io.nats.client;
+
+import static io.nats.client.Nats.defaultOptions;
+import static io.nats.client.UnitTestUtilities.defaultInfo;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ * Throughput of bursts of messages published one at a time and with Connection#publish(List), by
+ * several publishers sharing a connection. The output stream discards everything, so this
+ * measures the cost of encoding and of the connection lock only.
+ */
+@Category(PerfTest.class)
+public class PublishBatchPerfTest extends BaseUnitTest {
+    private static final int PUBLISHERS = 4;
+    private static final int BURST = 10000;
+    private static final int BURSTS = 100;
+    private static final int PAYLOAD = 128;
+
+    @Test
+    public void testPublishBursts() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up.
+            run(false, round == 1);
+            run(true, round == 1);
+        }
+    }
+
+    private void run(final boolean batch, boolean report) throws Exception {
+        try (final ConnectionImpl conn = new ConnectionImpl(defaultOptions())) {
+            conn.setup();
+            conn.setOutputStream(new BufferedOutputStream(new OutputStream() {
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            }, 32768));
+            conn.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+
+            final List<Message> burst = new ArrayList<Message>(BURST);
+            for (int i = 0; i < BURST; i++) {
+                burst.add(new Message("etl.records", null, new byte[PAYLOAD]));
+            }
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(PUBLISHERS);
+            for (int p = 0; p < PUBLISHERS; p++) {
+                new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int i = 0; i < BURSTS; i++) {
+                                if (batch) {
+                                    conn.publish(burst);
+                                } else {
+                                    for (int j = 0; j < BURST; j++) {
+                                        conn.publish(burst.get(j));
+                                    }
+                                }
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            final long t0 = System.nanoTime();
+            start.countDown();
+            done.await();
+            final long elapsed = System.nanoTime() - t0;
+
+            final long total = (long) PUBLISHERS * BURSTS * BURST;
+            Statistics stats = conn.getStats();
+            assertEquals(total, stats.getOutMsgs());
+            if (report) {
+                System.err.printf("%s: %,d msgs in %.1f ms, %,.0f msgs/s, "
+                                + "conn lock contentions %,d, batches %,d\n",
+                        batch ? "publish(List)   " : "publish(Message)",
+                        total, elapsed / 1e6, total / (elapsed / 1e9),
+                        stats.getConnLockContentions(), stats.getPublishBatches());
+            }
+        }
+    }
+}
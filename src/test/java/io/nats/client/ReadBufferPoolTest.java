@@ -0,0 +1,73 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class ReadBufferPoolTest extends BaseUnitTest {
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testAcquireRecycle() {
+        ReadBufferPool pool = new ReadBufferPool(2, 128);
+        ReadBuffer rb1 = pool.acquire();
+        assertEquals(128, rb1.buf.length);
+        assertEquals(1, rb1.refs.get());
+        assertEquals(0, pool.getAvailable());
+
+        rb1.retain();
+        rb1.release();
+        assertEquals(0, pool.getAvailable());
+        rb1.release();
+        assertEquals(1, pool.getAvailable());
+
+        // The recycled buffer is handed out again
+        ReadBuffer rb2 = pool.acquire();
+        assertSame(rb1, rb2);
+        assertEquals(1, rb2.refs.get());
+
+        ReadBuffer rb3 = pool.acquire();
+        assertNotSame(rb2, rb3);
+    }
+
+    @Test
+    public void testPoolCapacity() {
+        ReadBufferPool pool = new ReadBufferPool(1, 16);
+        ReadBuffer rb1 = pool.acquire();
+        ReadBuffer rb2 = pool.acquire();
+        rb1.release();
+        rb2.release();
+        // Only one is kept, the other is left to the garbage collector
+        assertEquals(1, pool.getAvailable());
+    }
+
+    @Test
+    public void testReleaseTooManyTimes() {
+        thrown.expect(IllegalStateException.class);
+        ReadBufferPool pool = new ReadBufferPool(1, 16);
+        ReadBuffer rb = pool.acquire();
+        rb.release();
+        rb.release();
+    }
+}
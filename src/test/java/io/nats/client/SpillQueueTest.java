@@ -0,0 +1,83 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+@Category(UnitTest.class)
+public class SpillQueueTest extends BaseUnitTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOrderAcrossSegments() throws Exception {
+        File dir = folder.newFolder();
+        // Room for about three records per segment
+        SpillQueue q = new SpillQueue(dir, "test-", 64, 1024 * 1024);
+        for (int i = 0; i < 20; i++) {
+            String reply = (i % 2 == 0) ? null : "reply." + i;
+            assertTrue(q.offer(new Message("foo." + i, reply, ("msg" + i).getBytes())));
+        }
+        assertEquals(20, q.size());
+        assertTrue(dir.listFiles().length > 1);
+
+        for (int i = 0; i < 20; i++) {
+            Message msg = q.poll(null);
+            assertEquals("foo." + i, msg.getSubject());
+            assertEquals((i % 2 == 0) ? null : "reply." + i, msg.getReplyTo());
+            assertArrayEquals(("msg" + i).getBytes(), msg.getData());
+        }
+        assertTrue(q.isEmpty());
+        assertEquals(0, q.getBytes());
+        assertNull(q.poll(null));
+        // The first segment is kept for the next backlog
+        assertEquals(1, dir.listFiles().length);
+
+        // Records larger than a segment get their own
+        byte[] big = new byte[1000];
+        big[999] = 7;
+        assertTrue(q.offer(new Message("big", null, big)));
+        assertArrayEquals(big, q.poll(null).getData());
+
+        q.close();
+        assertEquals(0, dir.listFiles().length);
+        assertFalse(q.offer(new Message("foo", null, big)));
+    }
+
+    @Test
+    public void testByteLimit() throws Exception {
+        SpillQueue q = new SpillQueue(folder.newFolder(), "test-", 1024, 100);
+        byte[] payload = new byte[30];
+        // 12 header bytes + 3 subject bytes + 30 payload bytes per record
+        assertTrue(q.offer(new Message("foo", null, payload)));
+        assertTrue(q.offer(new Message("foo", null, payload)));
+        assertFalse(q.offer(new Message("foo", null, payload)));
+        assertEquals(90, q.getBytes());
+        q.poll(null);
+        assertTrue(q.offer(new Message("foo", null, payload)));
+        q.close();
+    }
+}
@@ -0,0 +1,83 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class SplitBufferPoolTest extends BaseUnitTest {
+    private static final int K = 1024;
+
+    @Test
+    public void testSizeClass() {
+        assertEquals(0, SplitBufferPool.sizeClass(1));
+        assertEquals(0, SplitBufferPool.sizeClass(64 * K));
+        assertEquals(1, SplitBufferPool.sizeClass(64 * K + 1));
+        assertEquals(4, SplitBufferPool.sizeClass(1000 * K));
+        assertEquals(SplitBufferPool.NUM_CLASSES - 1,
+                SplitBufferPool.sizeClass(512 * K * K));
+        assertEquals(-1, SplitBufferPool.sizeClass(512 * K * K + 1));
+        assertEquals(1024 * K, SplitBufferPool.classSize(4));
+    }
+
+    @Test
+    public void testAcquireRelease() {
+        Statistics stats = new Statistics();
+        SplitBufferPool pool = new SplitBufferPool(4 * K * K, stats);
+
+        byte[] b1 = pool.acquire(100 * K);
+        assertEquals(128 * K, b1.length);
+        assertEquals(1, stats.getSplitBufferPoolMisses());
+
+        pool.release(b1);
+        assertEquals(128 * K, pool.getRetained());
+
+        // Same class is served from the pool
+        byte[] b2 = pool.acquire(70 * K);
+        assertSame(b1, b2);
+        assertEquals(1, stats.getSplitBufferPoolHits());
+        assertEquals(0, pool.getRetained());
+
+        // Different class is not
+        byte[] b3 = pool.acquire(300 * K);
+        assertEquals(512 * K, b3.length);
+        assertEquals(2, stats.getSplitBufferPoolMisses());
+    }
+
+    @Test
+    public void testCap() {
+        Statistics stats = new Statistics();
+        SplitBufferPool pool = new SplitBufferPool(256 * K, stats);
+
+        byte[] b1 = pool.acquire(200 * K);
+        byte[] b2 = pool.acquire(200 * K);
+        assertNotSame(b1, b2);
+        pool.release(b1);
+        // Over the cap, left to the garbage collector
+        pool.release(b2);
+        assertEquals(256 * K, pool.getRetained());
+
+        // Classes larger than the cap are allocated to size and never kept
+        byte[] b3 = pool.acquire(300 * K);
+        assertEquals(300 * K, b3.length);
+        pool.release(b3);
+        assertEquals(256 * K, pool.getRetained());
+        assertEquals(3, stats.getSplitBufferPoolMisses());
+    }
+}
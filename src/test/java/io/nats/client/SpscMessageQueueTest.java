@@ -0,0 +1,250 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Category(UnitTest.class)
+public class SpscMessageQueueTest extends BaseUnitTest {
+
+    private static Message newMsg(int i) {
+        return new Message("foo", null, Integer.toString(i).getBytes());
+    }
+
+    private static int valueOf(Message msg) {
+        return Integer.parseInt(new String(msg.getData()));
+    }
+
+    @Test
+    public void testOrderAcrossResizes() {
+        SpscMessageQueue q = new SpscMessageQueue(1000);
+        int produced = 0;
+        int consumed = 0;
+        // Interleave so that the jumps land at different offsets of the old arrays.
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(q.enqueue(newMsg(produced++)));
+            }
+            for (int i = 0; i < 13; i++) {
+                assertEquals(consumed++, valueOf(q.poll()));
+            }
+        }
+        assertEquals(produced - consumed, q.size());
+        assertEquals(consumed, valueOf(q.peek()));
+        while (!q.isEmpty()) {
+            assertEquals(consumed++, valueOf(q.poll()));
+        }
+        assertEquals(produced, consumed);
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void testCapacity() {
+        SpscMessageQueue q = new SpscMessageQueue(100);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(q.offer(newMsg(i)));
+        }
+        assertFalse(q.offer(newMsg(100)));
+        assertEquals(0, q.remainingCapacity());
+
+        // Raising the limit lets the ring grow again.
+        q.setCapacity(200);
+        for (int i = 100; i < 200; i++) {
+            assertTrue(q.offer(newMsg(i)));
+        }
+        assertFalse(q.offer(newMsg(200)));
+
+        List<Message> drained = new ArrayList<Message>();
+        assertEquals(200, q.drainTo(drained));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, valueOf(drained.get(i)));
+        }
+
+        q.setCapacity(-1);
+        assertEquals(SpscMessageQueue.MAX_CAPACITY, q.getCapacity());
+    }
+
+    @Test
+    public void testCollectionMethods() {
+        SpscMessageQueue q = new SpscMessageQueue(1000);
+        List<Message> msgs = new ArrayList<Message>();
+        for (int i = 0; i < 40; i++) {
+            msgs.add(newMsg(i));
+            assertTrue(q.offer(msgs.get(i)));
+        }
+        // Start iterating in an array that has been left behind by a resize.
+        for (int i = 0; i < 5; i++) {
+            q.poll();
+        }
+
+        Iterator<Message> it = q.iterator();
+        for (int i = 5; i < 40; i++) {
+            assertTrue(it.hasNext());
+            assertSame(msgs.get(i), it.next());
+        }
+        assertFalse(it.hasNext());
+        assertFalse(q.contains(msgs.get(4)));
+        assertTrue(q.contains(msgs.get(5)));
+        assertEquals(35, q.toArray().length);
+        assertTrue(q.toString().startsWith("["));
+
+        // Removed messages are skipped by the consumer.
+        assertTrue(q.remove(msgs.get(5)));
+        assertTrue(q.remove(msgs.get(20)));
+        assertFalse(q.remove(msgs.get(20)));
+        assertEquals(33, q.size());
+        assertTrue(q.removeAll(msgs.subList(30, 40)));
+        assertEquals(23, q.size());
+        assertSame(msgs.get(6), q.peek());
+        for (int i = 6; i < 30; i++) {
+            if (i != 20) {
+                assertSame(msgs.get(i), q.poll());
+            }
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+
+        // Messages taken while iterating are skipped, except the one the iterator holds on to,
+        // and messages queued meanwhile are seen.
+        for (int i = 0; i < 10; i++) {
+            assertTrue(q.offer(msgs.get(i)));
+        }
+        it = q.iterator();
+        assertSame(msgs.get(0), it.next());
+        q.poll();
+        q.poll();
+        q.poll();
+        assertTrue(q.offer(msgs.get(10)));
+        it.remove();
+        assertEquals(8, q.size());
+        assertSame(msgs.get(1), it.next());
+        for (int i = 3; i <= 10; i++) {
+            assertSame(msgs.get(i), it.next());
+        }
+        assertFalse(it.hasNext());
+
+        q.clear();
+        assertTrue(q.isEmpty());
+        assertEquals(0, q.toArray().length);
+    }
+
+    @Test
+    public void testPollWaitsForProducer() throws Exception {
+        final SpscMessageQueue q = new SpscMessageQueue(16);
+        assertNull(q.poll(10, TimeUnit.MILLISECONDS));
+
+        final int count = 10000;
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < count; ) {
+                    if (q.enqueue(newMsg(i))) {
+                        i++;
+                    } else {
+                        q.signal();
+                        Thread.yield();
+                    }
+                    if (i % 7 == 0) {
+                        q.signal();
+                    }
+                }
+                q.signal();
+            }
+        });
+        producer.start();
+        for (int i = 0; i < count; i++) {
+            Message msg = q.poll(5, TimeUnit.SECONDS);
+            assertEquals(i, valueOf(msg));
+        }
+        producer.join();
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void testCloseWakesConsumer() throws Exception {
+        final SpscMessageQueue q = new SpscMessageQueue(16);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Message> taken = new AtomicReference<Message>(newMsg(0));
+        Thread consumer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    taken.set(q.take());
+                } catch (InterruptedException e) {
+                    // fall through
+                }
+                done.countDown();
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        q.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(taken.get());
+        assertTrue(q.isClosed());
+        // Does not wait once closed
+        q.awaitNotEmpty();
+        assertNull(q.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAwaitNotEmpty() throws Exception {
+        final SpscMessageQueue q = new SpscMessageQueue(16);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                q.awaitNotEmpty();
+                done.countDown();
+            }
+        });
+        waiter.start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        // Enqueueing alone does not wake up the consumer, the signal does.
+        assertTrue(q.enqueue(newMsg(1)));
+        q.signal();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, q.size());
+    }
+
+    @Test
+    public void testSubscriptionChannel() throws Exception {
+        try (ConnectionImpl nc = new ConnectionImpl(Nats.defaultOptions())) {
+            SyncSubscriptionImpl sub = new SyncSubscriptionImpl(nc, "foo", null);
+            sub.setChannel(nc.createMsgChannel());
+            SpscMessageQueue q = (SpscMessageQueue) sub.getChannel();
+            assertEquals(SubscriptionImpl.DEFAULT_MAX_PENDING_MSGS, q.getCapacity());
+
+            sub.setPendingLimits(1000, 1024 * 1024);
+            assertEquals(1000, q.getCapacity());
+
+            Message msg = newMsg(1);
+            assertTrue(q.offer(msg));
+            sub.close(false);
+            assertTrue(q.isClosed());
+            assertSame(msg, q.poll());
+        }
+    }
+}
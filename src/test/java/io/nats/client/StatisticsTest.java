@@ -43,6 +43,18 @@ public class StatisticsTest extends BaseUnitTest {
         stats.incrementInMsgs();
         stats.incrementOutBytes(199L);
         stats.incrementOutMsgs();
+        stats.incrementConnLockContentions();
+        stats.incrementSubLockContentions();
+        stats.incrementSplitBufferPoolHits();
+        stats.incrementSplitBufferPoolMisses();
+        stats.incrementSlowConsumerDroppedNewest();
+        stats.incrementSlowConsumerDroppedOldest();
+        stats.incrementSlowConsumerBlocks();
+        stats.incrementSlowConsumerBlockTimeouts();
+        stats.incrementSpilledMsgs();
+        stats.incrementSpilledBytes(12L);
+        stats.recordPublishBatch(10L);
+        stats.incrementWriteStalls();
         return stats;
     }
 
@@ -56,6 +68,31 @@ public class StatisticsTest extends BaseUnitTest {
         assertEquals(0, stats.getOutBytes());
         assertEquals(0, stats.getOutMsgs());
         assertEquals(0, stats.getReconnects());
+        assertEquals(0, stats.getConnLockContentions());
+        assertEquals(0, stats.getSubLockContentions());
+        assertEquals(0, stats.getSplitBufferPoolHits());
+        assertEquals(0, stats.getSplitBufferPoolMisses());
+        assertEquals(0, stats.getSlowConsumerDroppedNewest());
+        assertEquals(0, stats.getSlowConsumerDroppedOldest());
+        assertEquals(0, stats.getSlowConsumerBlocks());
+        assertEquals(0, stats.getSlowConsumerBlockTimeouts());
+        assertEquals(0, stats.getSpilledMsgs());
+        assertEquals(0, stats.getSpilledBytes());
+        assertEquals(0, stats.getPublishBatches());
+        assertEquals(0, stats.getPublishBatchMsgs());
+        assertEquals(0, stats.getMaxPublishBatchSize());
+        assertEquals(0, stats.getWriteStalls());
+    }
+
+    @Test
+    public void testRecordPublishBatch() {
+        Statistics stats = new Statistics();
+        stats.recordPublishBatch(10L);
+        stats.recordPublishBatch(30L);
+        stats.recordPublishBatch(20L);
+        assertEquals(3, stats.getPublishBatches());
+        assertEquals(60, stats.getPublishBatchMsgs());
+        assertEquals(30, stats.getMaxPublishBatchSize());
     }
 
     @Test
@@ -79,6 +116,17 @@ public class StatisticsTest extends BaseUnitTest {
         assertTrue(s2.equals(s2));
     }
 
+    @Test
+    public void testIncrementLockContentions() {
+        Statistics stats = createDummyStats();
+        long n1 = stats.getConnLockContentions();
+        long n2 = stats.getSubLockContentions();
+        stats.incrementConnLockContentions();
+        stats.incrementSubLockContentions();
+        assertEquals(n1 + 1, stats.getConnLockContentions());
+        assertEquals(n2 + 1, stats.getSubLockContentions());
+    }
+
     @Test
     public void testToString() {
         assertNotNull(createDummyStats().toString());
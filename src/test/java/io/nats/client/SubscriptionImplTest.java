@@ -187,6 +187,11 @@ public class SubscriptionImplTest extends BaseUnitTest {
                 sub.setPendingLimits(maxMsgs, maxBytes);
                 assertEquals(maxMsgs, sub.getPendingMsgsLimit());
                 assertEquals(maxBytes, sub.getPendingBytesLimit());
+                assertEquals(SlowConsumerPolicy.DROP_NEWEST, sub.getSlowConsumerPolicy());
+                sub.setPendingLimits(maxMsgs, maxBytes, SlowConsumerPolicy.DROP_OLDEST);
+                assertEquals(SlowConsumerPolicy.DROP_OLDEST, sub.getSlowConsumerPolicy());
+                sub.setPendingLimits(maxMsgs, maxBytes, null);
+                assertEquals(SlowConsumerPolicy.DROP_NEWEST, sub.getSlowConsumerPolicy());
 
                 boolean exThrown = false;
                 try {
@@ -0,0 +1,125 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class SubscriptionTableTest extends BaseUnitTest {
+
+    @Test
+    public void testPutGetRemove() {
+        SubscriptionTable subs = new SubscriptionTable();
+        SubscriptionImpl s1 = mock(SubscriptionImpl.class);
+        SubscriptionImpl s2 = mock(SubscriptionImpl.class);
+
+        assertNull(subs.get(1L));
+        subs.put(1L, s1);
+        subs.put(17L, s2); // same home slot as sid 1
+        assertEquals(2, subs.size());
+        assertSame(s1, subs.get(1L));
+        assertSame(s2, subs.get(17L));
+        assertNull(subs.get(33L));
+
+        assertSame(s1, subs.remove(1L));
+        assertNull(subs.remove(1L));
+        assertNull(subs.get(1L));
+        // Still reachable past the tombstone
+        assertSame(s2, subs.get(17L));
+        assertEquals(1, subs.size());
+
+        subs.put(17L, s1);
+        assertSame(s1, subs.get(17L));
+        assertEquals(1, subs.size());
+
+        subs.clear();
+        assertTrue(subs.isEmpty());
+        assertNull(subs.get(17L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSid() {
+        new SubscriptionTable().put(0L, mock(SubscriptionImpl.class));
+    }
+
+    @Test
+    public void testGrowAndShrink() {
+        final int count = 200000;
+        SubscriptionTable subs = new SubscriptionTable();
+        SubscriptionImpl sub = mock(SubscriptionImpl.class);
+        for (long sid = 1; sid <= count; sid++) {
+            subs.put(sid, sub);
+        }
+        assertEquals(count, subs.size());
+        assertEquals(count, subs.values().size());
+        for (long sid = 1; sid <= count; sid++) {
+            assertSame(sub, subs.get(sid));
+        }
+        for (long sid = 1; sid < count; sid++) {
+            subs.remove(sid);
+        }
+        assertEquals(1, subs.size());
+        assertEquals(16, subs.capacity());
+        subs.put(count + 1, sub);
+        assertSame(sub, subs.get(count));
+        assertSame(sub, subs.get(count + 1));
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final SubscriptionTable subs = new SubscriptionTable();
+        final SubscriptionImpl sub = mock(SubscriptionImpl.class);
+        final AtomicBoolean done = new AtomicBoolean();
+        final CountDownLatch started = new CountDownLatch(1);
+        subs.put(1L, sub);
+        final Thread reader = new Thread() {
+            public void run() {
+                started.countDown();
+                while (!done.get()) {
+                    if (subs.get(1L) != sub) {
+                        fail("sub 1 should always be visible");
+                    }
+                }
+            }
+        };
+        final boolean[] failed = {false};
+        reader.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread t, Throwable e) {
+                failed[0] = true;
+            }
+        });
+        reader.start();
+        started.await();
+        // Force a number of rehashes while the reader is running
+        for (long sid = 2; sid < 50000; sid++) {
+            subs.put(sid, sub);
+            if (sid % 3 == 0) {
+                subs.remove(sid - 1);
+            }
+        }
+        done.set(true);
+        reader.join();
+        assertTrue(!failed[0]);
+    }
+}
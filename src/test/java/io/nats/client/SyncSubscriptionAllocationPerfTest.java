@@ -0,0 +1,126 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Bytes allocated by the consumer thread per message received with SyncSubscription#nextMessage,
+ * measured with the per-thread allocation counters of HotSpot (skipped on other JVMs). Messages
+ * are created by the reader thread, so the consumer itself should not allocate at all: first
+ * with the messages already pending, then with the consumer waiting for a concurrent reader.
+ */
+@Category(PerfTest.class)
+public class SyncSubscriptionAllocationPerfTest extends BaseUnitTest {
+    private static final int WARMUP = 20000;
+    private static final int COUNT = 50000;
+    private static final int CHUNK = 100;
+
+    @Test
+    public void testNextMessageAllocations() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(mx.isThreadAllocatedMemorySupported());
+        mx.setThreadAllocatedMemoryEnabled(true);
+
+        try (final ConnectionImpl conn = new ConnectionImpl(Nats.defaultOptions())) {
+            conn.setup();
+            conn.setOutputStream(new OutputStream() {
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+            final SyncSubscriptionImpl sub = (SyncSubscriptionImpl) conn.subscribeSync("foo");
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < CHUNK; i++) {
+                sb.append(String.format("MSG foo %d 4\r\ntest\r\n", sub.getSid()));
+            }
+            final byte[] chunk = sb.toString().getBytes();
+            final long tid = Thread.currentThread().getId();
+
+            // Pending messages
+            for (int round = 0; round < 2; round++) {
+                final int count = (round == 0 ? WARMUP : COUNT);
+                for (int i = 0; i < count; i += CHUNK) {
+                    conn.getParser().parse(chunk, chunk.length);
+                }
+                final long before = mx.getThreadAllocatedBytes(tid);
+                for (int i = 0; i < count; i++) {
+                    assertNotNull(sub.nextMessage(1, TimeUnit.SECONDS));
+                }
+                final long allocated = mx.getThreadAllocatedBytes(tid) - before;
+                if (round == 1) {
+                    report("pending", allocated, count);
+                    assertEquals(0, allocated / count);
+                }
+            }
+
+            // Waiting for a concurrent reader, which keeps a few chunks ahead at most.
+            for (int round = 0; round < 2; round++) {
+                final int count = (round == 0 ? WARMUP : COUNT);
+                final AtomicBoolean stop = new AtomicBoolean();
+                Thread reader = new Thread(new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < count && !stop.get(); i += CHUNK) {
+                            while (sub.pMsgs > 4 * CHUNK && !stop.get()) {
+                                Thread.yield();
+                            }
+                            try {
+                                conn.getParser().parse(chunk, chunk.length);
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    }
+                });
+                final long before = mx.getThreadAllocatedBytes(tid);
+                reader.start();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        assertNotNull(sub.nextMessage(5, TimeUnit.SECONDS));
+                    }
+                } finally {
+                    stop.set(true);
+                    reader.join();
+                }
+                // Thread#start allocates on this thread, a few hundred bytes.
+                final long allocated = mx.getThreadAllocatedBytes(tid) - before;
+                if (round == 1) {
+                    report("waiting", allocated, count);
+                    assertEquals(0, allocated / count);
+                }
+            }
+        }
+    }
+
+    private static void report(String mode, long allocated, int count) {
+        System.err.printf("nextMessage, %s: %d bytes allocated for %d messages, %.2f bytes/msg\n",
+                mode, allocated, count, (double) allocated / count);
+    }
+}
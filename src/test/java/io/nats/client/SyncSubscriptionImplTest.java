@@ -20,6 +20,7 @@ import static io.nats.client.UnitTestUtilities.sleep;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -36,9 +37,13 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 
@@ -216,6 +221,38 @@ public class SyncSubscriptionImplTest extends BaseUnitTest {
         }
     }
 
+    @Test(timeout = 5000)
+    public void testNextMessageWaiters() throws Exception {
+        try (Connection nc = newMockedConnection()) {
+            final SyncSubscriptionImpl sub = (SyncSubscriptionImpl) nc.subscribe("foo");
+            assertNull(sub.nextMessage(10));
+            assertEquals(0, sub.getWaiterCount());
+
+            // close interrupts all the threads waiting, wherever they are in the list.
+            final int count = 3;
+            final CountDownLatch interrupted = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                exec.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            sub.nextMessage(30000);
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                        } catch (IOException e) {
+                            // not expected
+                        }
+                    }
+                });
+            }
+            while (sub.getWaiterCount() < count) {
+                sleep(10);
+            }
+            sub.close();
+            assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+            assertEquals(0, sub.getWaiterCount());
+        }
+    }
+
     @Test
     public void testNextMessageSubClosed() throws Exception {
         thrown.expect(IllegalStateException.class);
@@ -248,4 +285,91 @@ public class SyncSubscriptionImplTest extends BaseUnitTest {
             Message msg = sub.nextMessage(timeout);
         }
     }
+
+    private static BlockingQueue<Message> pending(SyncSubscriptionImpl sub, int count) {
+        BlockingQueue<Message> ch = new LinkedBlockingQueue<Message>();
+        sub.setChannel(ch);
+        for (int i = 0; i < count; i++) {
+            Message msg = new Message("foo", null, Integer.toString(i).getBytes());
+            ch.add(msg);
+            sub.pMsgs++;
+            sub.pBytes += msg.getDataLength();
+        }
+        return ch;
+    }
+
+    @Test
+    public void testNextMessages() throws Exception {
+        ConnectionImpl nc = mock(ConnectionImpl.class);
+        try (SyncSubscriptionImpl sub = new SyncSubscriptionImpl(nc, "foo", null)) {
+            pending(sub, 10);
+
+            List<Message> msgs = new ArrayList<Message>();
+            assertEquals(4, sub.nextMessages(msgs, 4, 100, TimeUnit.MILLISECONDS));
+            assertEquals(4, msgs.size());
+            assertEquals(4, sub.getDelivered());
+            assertEquals(6, sub.getPendingMsgs());
+            assertEquals(6, sub.getPendingBytes());
+
+            // Does not wait for more once a message is available.
+            msgs = sub.nextMessages(100, -1, TimeUnit.MILLISECONDS);
+            assertEquals(6, msgs.size());
+            for (int i = 0; i < msgs.size(); i++) {
+                assertEquals(Integer.toString(i + 4), new String(msgs.get(i).getData()));
+            }
+            assertEquals(10, sub.getDelivered());
+            assertEquals(0, sub.getPendingMsgs());
+            assertEquals(0, sub.getPendingBytes());
+
+            assertEquals(0, sub.nextMessages(msgs, 10, 50, TimeUnit.MILLISECONDS));
+            assertEquals(6, msgs.size());
+            assertEquals(0, sub.nextMessages(10, 50, TimeUnit.MILLISECONDS).size());
+        }
+    }
+
+    @Test
+    public void testNextMessagesWaitsForFirst() throws Exception {
+        ConnectionImpl nc = mock(ConnectionImpl.class);
+        try (SyncSubscriptionImpl sub = new SyncSubscriptionImpl(nc, "foo", null)) {
+            final BlockingQueue<Message> ch = pending(sub, 0);
+            exec.execute(new Runnable() {
+                public void run() {
+                    sleep(100);
+                    ch.add(new Message("foo", null, "a".getBytes()));
+                }
+            });
+            sub.pMsgs = 1;
+            sub.pBytes = 1;
+            List<Message> msgs = sub.nextMessages(10, 5, TimeUnit.SECONDS);
+            assertEquals(1, msgs.size());
+            assertEquals("a", new String(msgs.get(0).getData()));
+        }
+    }
+
+    @Test
+    public void testNextMessagesAutoUnsubscribeMax() throws Exception {
+        try (ConnectionImpl nc = (ConnectionImpl) spy(newMockedConnection())) {
+            try (SyncSubscriptionImpl sub = (SyncSubscriptionImpl) nc.subscribe("foo")) {
+                sub.setMax(3);
+                pending(sub, 5);
+
+                List<Message> msgs = new ArrayList<Message>();
+                assertEquals(2, sub.nextMessages(msgs, 2, 100, TimeUnit.MILLISECONDS));
+                verify(nc, times(0)).removeSub(sub);
+                assertEquals(1, sub.nextMessages(msgs, 10, 100, TimeUnit.MILLISECONDS));
+                assertEquals(3, msgs.size());
+                verify(nc, times(1)).removeSub(sub);
+            }
+        }
+    }
+
+    @Test
+    public void testNextMessagesInvalidMax() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("nats: max messages must be positive");
+        ConnectionImpl nc = mock(ConnectionImpl.class);
+        try (SyncSubscriptionImpl sub = new SyncSubscriptionImpl(nc, "foo", null)) {
+            sub.nextMessages(0, 100, TimeUnit.MILLISECONDS);
+        }
+    }
 }
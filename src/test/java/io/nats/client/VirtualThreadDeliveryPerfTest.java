@@ -0,0 +1,164 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package io.nats.client;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Memory footprint and wakeup latency of the per-subscription delivery loops, on platform threads
+ * and on virtual threads (Java 21+, skipped otherwise). For each number of subscriptions, one
+ * message is fanned out to all of them, then single messages are sent to a sample of them one at
+ * a time to measure how long it takes for the parked delivery loop to run the handler.
+ *
+ * 100k platform threads exceed the default process limits of most hosts, platform runs above
+ * -Dnats.perf.platform.max.subs (10000 by default) are skipped.
+ */
+@Category(PerfTest.class)
+public class VirtualThreadDeliveryPerfTest extends BaseUnitTest {
+    private static final int[] SUB_COUNTS = {1000, 10000, 100000};
+    private static final int MAX_PLATFORM_SUBS =
+            Integer.getInteger("nats.perf.platform.max.subs", 10000);
+    private static final int LATENCY_SAMPLES = 1000;
+
+    @Test
+    public void testDeliveryFootprintAndLatency() throws Exception {
+        System.err.printf("Virtual threads %s\n",
+                VirtualThreads.isSupported() ? "supported" : "not supported");
+        for (int subCount : SUB_COUNTS) {
+            if (subCount <= MAX_PLATFORM_SUBS) {
+                run(subCount, false);
+            } else {
+                System.err.printf("%7d subs, platform threads: skipped\n", subCount);
+            }
+            if (VirtualThreads.isSupported()) {
+                run(subCount, true);
+            }
+        }
+    }
+
+    private void run(int subCount, boolean virtual) throws Exception {
+        final long heapBefore = usedHeap();
+        final long rssBefore = residentSetSize();
+        final int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        Options opts = new Options.Builder().useVirtualThreadDelivery(virtual).build();
+        try (ConnectionImpl conn = new ConnectionImpl(opts)) {
+            conn.setup();
+            conn.setOutputStream(new OutputStream() {
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+
+            final AtomicInteger remaining = new AtomicInteger();
+            final long[] receivedAt = new long[1];
+            final CountDownLatch[] done = new CountDownLatch[1];
+            MessageHandler handler = new MessageHandler() {
+                public void onMessage(Message msg) {
+                    if (remaining.decrementAndGet() == 0) {
+                        receivedAt[0] = System.nanoTime();
+                        done[0].countDown();
+                    }
+                }
+            };
+            long[] sids = new long[subCount];
+            for (int i = 0; i < subCount; i++) {
+                sids[i] = ((SubscriptionImpl) conn.subscribe("foo", handler)).getSid();
+            }
+
+            // Fan out, this also gets every delivery loop started and parked.
+            StringBuilder sb = new StringBuilder();
+            for (long sid : sids) {
+                sb.append(String.format("MSG foo %d 4\r\ntest\r\n", sid));
+            }
+            byte[] buf = sb.toString().getBytes();
+            remaining.set(subCount);
+            done[0] = new CountDownLatch(1);
+            long t0 = System.nanoTime();
+            conn.getParser().parse(buf, buf.length);
+            assertTrue(done[0].await(60, TimeUnit.SECONDS));
+            final long fanOut = receivedAt[0] - t0;
+
+            final long heapAfter = usedHeap();
+            final long rssAfter = residentSetSize();
+            final int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            // Wakeup latency of single messages
+            long[] latencies = new long[Math.min(LATENCY_SAMPLES, subCount)];
+            for (int i = 0; i < latencies.length; i++) {
+                long sid = sids[(int) ((long) i * subCount / latencies.length)];
+                byte[] msg = String.format("MSG foo %d 4\r\ntest\r\n", sid).getBytes();
+                remaining.set(1);
+                done[0] = new CountDownLatch(1);
+                t0 = System.nanoTime();
+                conn.getParser().parse(msg, msg.length);
+                assertTrue(done[0].await(10, TimeUnit.SECONDS));
+                latencies[i] = receivedAt[0] - t0;
+            }
+            Arrays.sort(latencies);
+
+            System.err.printf("%7d subs, %s threads: heap %+.1f MB, RSS %s, threads %+d, "
+                            + "fan-out %.1f ms, wakeup p50 %.1f us p99 %.1f us max %.1f us\n",
+                    subCount, virtual ? "virtual" : "platform",
+                    (heapAfter - heapBefore) / (1024.0 * 1024.0),
+                    rssBefore < 0 ? "n/a" : String.format("%+.1f MB",
+                            (rssAfter - rssBefore) / (1024.0 * 1024.0)),
+                    threadsAfter - threadsBefore,
+                    fanOut / 1e6,
+                    latencies[latencies.length / 2] / 1e3,
+                    latencies[latencies.length * 99 / 100] / 1e3,
+                    latencies[latencies.length - 1] / 1e3);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Returns the resident set size of the process on Linux, -1 elsewhere.
+    private static long residentSetSize() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    String kb = line.substring(6).trim().split("\\s+")[0];
+                    return Long.parseLong(kb) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // not available
+        }
+        return -1;
+    }
+}
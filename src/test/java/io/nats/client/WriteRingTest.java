@@ -0,0 +1,274 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Category(UnitTest.class)
+public class WriteRingTest extends BaseUnitTest {
+
+    @Test
+    public void testOfferPublish() throws Exception {
+        WriteRing ring = new WriteRing(16, 64, 1024, new Statistics());
+        byte[] big = new byte[100];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) ('a' + i % 26);
+        }
+        assertEquals(0, ring.offerPublish("foo".getBytes(), null, "hello".getBytes(), 0, 5));
+        assertEquals(1, ring.offerPublish("foo".getBytes(), "bar".getBytes(), null, 0, 0));
+        // Does not fit in a slot
+        assertEquals(2, ring.offerPublish("foo".getBytes(), null, big, 0, big.length));
+        assertEquals(3, ring.offerPublish("foo".getBytes(), null, "0123456789".getBytes(), 2, 3));
+        ring.getOutputStream().write("PING\r\n".getBytes());
+        ByteBuffer direct = ByteBuffer.allocateDirect(8);
+        direct.put("bye".getBytes()).flip();
+        assertEquals(5, ring.offerPublish("foo".getBytes(), "bar".getBytes(), direct));
+        assertEquals(0, direct.position());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ring.awaitData());
+        assertEquals(6, ring.drainTo(out));
+        assertEquals(0, ring.getQueuedBytes());
+        assertEquals("PUB foo 5\r\nhello\r\nPUB foo bar 0\r\n\r\nPUB foo 100\r\n"
+                        + new String(big) + "\r\nPUB foo 3\r\n234\r\nPING\r\nPUB foo bar 3\r\nbye\r\n",
+                new String(out.toByteArray()));
+
+        // Slots are reused once drained
+        out.reset();
+        for (int i = 0; i < 40; i++) {
+            ring.offerPublish("foo".getBytes(), null, Integer.toString(i).getBytes(), 0,
+                    Integer.toString(i).length());
+            ring.drainTo(out);
+        }
+        assertTrue(new String(out.toByteArray()).endsWith("PUB foo 2\r\n39\r\n"));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final Statistics stats = new Statistics();
+        final WriteRing ring = new WriteRing(8, 32, 1024 * 1024, stats);
+        final int producers = 4;
+        final int count = 10000;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (ring.awaitData()) {
+                        ring.drainTo(out);
+                        ring.flushed();
+                    }
+                } catch (Exception e) {
+                    // fall through
+                } finally {
+                    ring.terminate();
+                }
+            }
+        });
+        writer.start();
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final String subject = "p" + p;
+            threads[p] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        byte[] data = Integer.toString(i).getBytes();
+                        ring.offerPublish(subject.getBytes(), null, data, 0, data.length);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        ring.getOutputStream().flush();
+        ring.close();
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+
+        // Every record is whole and the records of each producer are in order.
+        int[] next = new int[producers];
+        String[] lines = new String(out.toByteArray()).split("\r\n");
+        assertEquals(2 * producers * count, lines.length);
+        for (int i = 0; i < lines.length; i += 2) {
+            String[] proto = lines[i].split(" ");
+            assertEquals("PUB", proto[0]);
+            int p = Integer.parseInt(proto[1].substring(1));
+            assertEquals(Integer.toString(next[p]++), lines[i + 1]);
+            assertEquals(lines[i + 1].length(), Integer.parseInt(proto[2]));
+        }
+        for (int p = 0; p < producers; p++) {
+            assertEquals(count, next[p]);
+        }
+    }
+
+    @Test
+    public void testHighWaterMark() throws Exception {
+        final Statistics stats = new Statistics();
+        final WriteRing ring = new WriteRing(16, 64, 10, stats);
+        final byte[] record = new byte[8];
+        assertEquals(0, ring.offer(record, 0, record.length));
+        assertEquals(0, stats.getWriteStalls());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                ring.offer(record, 0, record.length);
+                done.countDown();
+            }
+        }).start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, stats.getWriteStalls());
+
+        // Room is made as soon as the writer takes the queued record.
+        OutputStream sink = new ByteArrayOutputStream();
+        assertEquals(1, ring.drainTo(sink));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(8, ring.getQueuedBytes());
+
+        // A record larger than the high water mark is queued once the ring is empty.
+        assertEquals(1, ring.drainTo(sink));
+        assertEquals(2, ring.offer(new byte[100], 0, 100));
+        assertEquals(100, ring.getQueuedBytes());
+    }
+
+    @Test
+    public void testAwaitFlushed() throws Exception {
+        final WriteRing ring = new WriteRing(16, 64, 1024, new Statistics());
+        final long seq = ring.offer("foo".getBytes(), 0, 3);
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ring.awaitFlushed(seq + 1);
+                    done.countDown();
+                } catch (IOException e) {
+                    // fall through
+                }
+            }
+        }).start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        ring.drainTo(new ByteArrayOutputStream());
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        ring.flushed();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCloseWhileProducing() throws Exception {
+        for (int iter = 0; iter < 100; iter++) {
+            final WriteRing ring = new WriteRing(8, 32, 1024 * 1024, new Statistics());
+            final int producers = 4;
+            final AtomicInteger accepted = new AtomicInteger();
+            final CountDownLatch started = new CountDownLatch(producers);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Thread writer = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (ring.awaitData()) {
+                            ring.drainTo(out);
+                        }
+                    } catch (Exception e) {
+                        // fall through
+                    } finally {
+                        ring.terminate();
+                    }
+                }
+            });
+            writer.start();
+
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; p++) {
+                threads[p] = new Thread(new Runnable() {
+                    public void run() {
+                        started.countDown();
+                        while (ring.offer("x".getBytes(), 0, 1) >= 0) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                });
+                threads[p].start();
+            }
+            started.await();
+            ring.close();
+            for (Thread t : threads) {
+                t.join();
+            }
+            writer.join(5000);
+            assertFalse(writer.isAlive());
+
+            // Every accepted record is written, none is lost in a slot claimed while closing.
+            assertEquals(accepted.get(), out.size());
+            assertEquals(0, ring.getQueuedBytes());
+        }
+    }
+
+    @Test
+    public void testCloseAndTerminate() throws Exception {
+        final WriteRing ring = new WriteRing(16, 64, 1024, new Statistics());
+        ring.offer("foo".getBytes(), 0, 3);
+        ring.close();
+        assertTrue(ring.isClosed());
+        assertEquals(-1, ring.offer("bar".getBytes(), 0, 3));
+        assertEquals(-1, ring.offerPublish("bar".getBytes(), null, null, 0, 0));
+        try {
+            ring.getOutputStream().write("PING\r\n".getBytes());
+            fail("Should have thrown IOException");
+        } catch (IOException e) {
+            assertEquals(Nats.ERR_CONNECTION_CLOSED, e.getMessage());
+        }
+
+        // The records queued before closing are still written.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ring.awaitData());
+        assertEquals(1, ring.drainTo(out));
+        assertFalse(ring.awaitData());
+        assertEquals("foo", new String(out.toByteArray()));
+
+        // Flush waiters are released when the writer stops.
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ring.getOutputStream().flush();
+                } catch (IOException e) {
+                    error.set(e);
+                }
+                done.countDown();
+            }
+        }).start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        ring.terminate();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(error.get() instanceof IOException);
+    }
+}
@@ -0,0 +1,132 @@
+// Copyright 2015-2018 The NATS Authors
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at:
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package io.nats.client;
+
+import static io.nats.client.UnitTestUtilities.newMockedConnection;
+import static io.nats.client.UnitTestUtilities.newMockedTcpConnection;
+import static io.nats.client.UnitTestUtilities.newMockedTcpConnectionFactory;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Publish latency under socket backpressure, with the flusher and with the writer thread. The
+ * socket stalls for STALL_MILLIS every STALL_BYTES bytes, which is well above the rate of the
+ * paced publishers, so only the latency of the publish calls that hit a stall differs.
+ */
+@Category(PerfTest.class)
+public class WriterThreadPerfTest extends BaseUnitTest {
+    private static final int PUBLISHERS = 4;
+    private static final int MESSAGES = 20000;
+    private static final long INTERVAL_NANOS = 50000;
+    private static final int PAYLOAD = 128;
+    private static final int STALL_BYTES = 256 * 1024;
+    private static final long STALL_MILLIS = 2;
+
+    @Test
+    public void testPublishLatency() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up.
+            run(false, round == 1);
+            run(true, round == 1);
+        }
+    }
+
+    private void run(boolean writer, boolean report) throws Exception {
+        TcpConnectionFactory tcf = newMockedTcpConnectionFactory();
+        TcpConnection tconn = newMockedTcpConnection();
+        doReturn(tconn).when(tcf).createConnection();
+        doReturn(new OutputStream() {
+            private long written;
+
+            public void write(int b) {
+                write(new byte[1], 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) {
+                long before = written;
+                written += len;
+                if (before / STALL_BYTES != written / STALL_BYTES) {
+                    try {
+                        Thread.sleep(STALL_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }).when(tconn).getOutputStream(anyInt());
+        Options opts = new Options.Builder().useWriterThread(writer).factory(tcf).build();
+
+        try (final ConnectionImpl conn = (ConnectionImpl) newMockedConnection(opts)) {
+            conn.resetStats();
+            final byte[] payload = new byte[PAYLOAD];
+            final long[][] latencies = new long[PUBLISHERS][MESSAGES];
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(PUBLISHERS);
+            for (int p = 0; p < PUBLISHERS; p++) {
+                final long[] lat = latencies[p];
+                new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            start.await();
+                            long next = System.nanoTime();
+                            for (int i = 0; i < MESSAGES; i++) {
+                                while (System.nanoTime() < next) {
+                                    LockSupport.parkNanos(INTERVAL_NANOS / 10);
+                                }
+                                long t0 = System.nanoTime();
+                                conn.publish("perf.latency", payload);
+                                lat[i] = System.nanoTime() - t0;
+                                next += INTERVAL_NANOS;
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            start.countDown();
+            done.await();
+
+            long[] all = new long[PUBLISHERS * MESSAGES];
+            for (int p = 0; p < PUBLISHERS; p++) {
+                System.arraycopy(latencies[p], 0, all, p * MESSAGES, MESSAGES);
+            }
+            Arrays.sort(all);
+            Statistics stats = conn.getStats();
+            assertEquals(all.length, stats.getOutMsgs());
+            if (report) {
+                System.err.printf("%s: publish p50 %.1f us p99 %.1f us p99.9 %.1f us "
+                                + "max %.1f us, flushes %,d, write stalls %,d\n",
+                        writer ? "writer thread" : "flusher      ",
+                        all[all.length / 2] / 1e3,
+                        all[all.length * 99 / 100] / 1e3,
+                        all[all.length * 999 / 1000] / 1e3,
+                        all[all.length - 1] / 1e3,
+                        stats.getFlushes(), stats.getWriteStalls());
+            }
+        }
+    }
+}